@@ -0,0 +1,111 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.AvailabilityBuckets;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.AvailabilityGranularity;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.AvailabilitySweep;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.TriggerEventLog;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixEvent;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixResponseReader;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Calculates a trigger's hourly, daily and monthly availability from a year of synthetic events,
+ * with and without first reading the events from an event.get response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvailabilityBenchmark {
+
+  private static final DateTime OBSERVED_UNTIL = new DateTime(2019, 3, 10, 10, 30, DateTimeZone.UTC);
+  private static final long YEAR_SECONDS = 365L * 24 * 3600;
+  // Larger responses are not realistic for a single trigger and take too long to generate
+  private static final int MAX_RESPONSE_EVENTS = 100000;
+  private static final AvailabilityGranularity[] GRANULARITIES = {AvailabilityGranularity.HOUR, AvailabilityGranularity.DAY, AvailabilityGranularity.MONTH};
+
+  @Param({"10000", "100000", "1000000"})
+  public int events;
+
+  private final ZabbixResponseReader responseReader = new ZabbixResponseReader();
+
+  private TriggerEventLog eventLog;
+  private byte[] eventResponse;
+  private List<List<DateTime>> windows;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(3);
+    final long until = OBSERVED_UNTIL.getMillis() / 1000;
+    final long spacing = YEAR_SECONDS / events;
+    eventLog = new TriggerEventLog();
+    for (int i = 0; i < events; i++) {
+      eventLog.append(i + 1, until - (events - i) * spacing + random.nextInt((int) spacing), random.nextInt(20) == 0 ? 1 : 0);
+    }
+    final int responseEvents = Math.min(events, MAX_RESPONSE_EVENTS);
+    eventResponse = ZabbixResponses.events(responseEvents, until - YEAR_SECONDS, (int) (2 * YEAR_SECONDS / responseEvents));
+
+    windows = Lists.newArrayList();
+    for (AvailabilityGranularity granularity : GRANULARITIES) {
+      final DateTime end = granularity.floor(OBSERVED_UNTIL);
+      final List<DateTime> boundaries = Lists.newArrayList();
+      for (DateTime bucketStart = granularity.windowStart(end); bucketStart.isBefore(end); bucketStart = granularity.next(bucketStart)) {
+        boundaries.add(bucketStart);
+      }
+      boundaries.add(end);
+      windows.add(boundaries);
+    }
+  }
+
+  @Benchmark
+  public void sweep(Blackhole blackhole) {
+    sweep(eventLog, OBSERVED_UNTIL.getMillis(), blackhole);
+  }
+
+  @Benchmark
+  public void readAndSweep(Blackhole blackhole) throws IOException {
+    final TriggerEventLog log = new TriggerEventLog();
+    for (ZabbixEvent event : responseReader.read(new ByteArrayInputStream(eventResponse), ZabbixResponseReader.EVENTS)) {
+      log.append(event.getEventId(), event.getClock(), event.getValue());
+    }
+    sweep(log, OBSERVED_UNTIL.getMillis(), blackhole);
+  }
+
+  private void sweep(TriggerEventLog log, long until, Blackhole blackhole) {
+    final AvailabilityBuckets[] bucketSets = new AvailabilityBuckets[windows.size()];
+    for (int g = 0; g < bucketSets.length; g++) {
+      bucketSets[g] = AvailabilityBuckets.of(windows.get(g));
+    }
+    AvailabilitySweep.sweep(log, until, bucketSets);
+    for (AvailabilityBuckets buckets : bucketSets) {
+      for (int i = 0; i < buckets.size(); i++) {
+        blackhole.consume(buckets.getAvailability(i));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs JMH with the GC profiler, so allocation per operation is reported alongside throughput,
+ * and writes the results as JSON to results/ for comparing with CompareResults.
+ * Any JMH options given on the command line are passed through and take precedence.
+ */
+public class BenchmarkRunner {
+
+  private static final String RESULTS_DIRECTORY = "results";
+
+  public static void main(String[] args) throws Exception {
+    final List<String> jmhArgs = Lists.newArrayList(Arrays.asList(args));
+    if (!jmhArgs.contains("-prof")) {
+      jmhArgs.addAll(Arrays.asList("-prof", "gc"));
+    }
+    if (!jmhArgs.contains("-rf")) {
+      jmhArgs.addAll(Arrays.asList("-rf", "json"));
+    }
+    if (!jmhArgs.contains("-rff")) {
+      new File(RESULTS_DIRECTORY).mkdirs();
+      final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+      jmhArgs.addAll(Arrays.asList("-rff", RESULTS_DIRECTORY + File.separator + "jmh-" + timestamp + ".json"));
+    }
+    Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+  }
+
+}
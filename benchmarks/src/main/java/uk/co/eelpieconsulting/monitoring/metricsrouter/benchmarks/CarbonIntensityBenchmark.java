@@ -0,0 +1,74 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.nationalgrid.CarbonIntensitySource;
+
+/**
+ * Parses national and regional responses shaped like those of the Carbon Intensity API, generation mix included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CarbonIntensityBenchmark {
+
+  private static final String[] FUELS = {"biomass", "coal", "imports", "gas", "nuclear", "other", "hydro", "solar", "wind"};
+
+  private static final String NATIONAL = "{\"data\":[{\"from\":\"2019-03-10T10:30Z\",\"to\":\"2019-03-10T11:00Z\"," +
+          "\"intensity\":{\"forecast\":159,\"actual\":162,\"index\":\"low\"}}]}";
+  private static final String REGIONAL = regionalResponse();
+
+  private final Parser parser = new Parser();
+
+  @Benchmark
+  public Map<String, String> national() throws IOException {
+    return parser.national(NATIONAL);
+  }
+
+  @Benchmark
+  public Map<String, String> regional() throws IOException {
+    return parser.regional(REGIONAL);
+  }
+
+  private static String regionalResponse() {
+    final StringBuilder mix = new StringBuilder();
+    for (int i = 0; i < FUELS.length; i++) {
+      mix.append(i > 0 ? "," : "").append("{\"fuel\":\"").append(FUELS[i]).append("\",\"perc\":").append(i * 3.7).append('}');
+    }
+    return "{\"data\":[{\"regionid\":12,\"dnoregion\":\"SSE South\",\"shortname\":\"South England\"," +
+            "\"data\":[{\"from\":\"2019-03-10T10:30Z\",\"to\":\"2019-03-10T11:00Z\",\"intensity\":{\"forecast\":159,\"index\":\"low\"}," +
+            "\"generationmix\":[" + mix + "]}]}]}";
+  }
+
+  // Exposes the source's parsers without an HTTP client
+  private static class Parser extends CarbonIntensitySource {
+
+    private Parser() {
+      super(null, null, null);
+    }
+
+    private Map<String, String> national(String json) throws IOException {
+      return parseJson(json, "national");
+    }
+
+    private Map<String, String> regional(String json) throws IOException {
+      return parseRegionalJson(json, "south-england");
+    }
+  }
+
+}
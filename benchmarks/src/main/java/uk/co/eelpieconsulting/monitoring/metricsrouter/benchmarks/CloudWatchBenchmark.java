@@ -0,0 +1,174 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2.CloudWatchClientFactory;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2.LoadBalancerMetricsSource;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Polls ELB metrics from an in-process CloudWatch stand-in: the SDK unmarshalling the datapoints,
+ * rolling them up into minute, hour and day figures and deriving failure percentages.
+ * Responses are rendered once per distinct request, so the stand-in costs little after warmup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloudWatchBenchmark {
+
+  private static final Pattern METRIC_NAME = Pattern.compile("MetricDataQueries\\.member\\.(\\d+)\\.MetricStat\\.Metric\\.MetricName=([^&]*)");
+  private static final long MINUTE_MILLIS = 60 * 1000L;
+
+  @Param({"10", "50"})
+  public int loadBalancers;
+
+  private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+  private HttpServer cloudWatch;
+  private CloudWatchClientFactory cloudWatchClientFactory;
+  private RateBudget rateBudget;
+  private Instrumentation instrumentation;
+  private String names;
+  private LoadBalancerMetricsSource polled;
+
+  @Setup
+  public void setup() throws IOException {
+    cloudWatch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    cloudWatch.setExecutor(Executors.newCachedThreadPool());
+    cloudWatch.createContext("/", exchange -> {
+      final String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+      final byte[] response = responses.computeIfAbsent(body, this::metricDataResponse);
+      exchange.getResponseHeaders().add("Content-Type", "text/xml");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(response);
+      }
+    });
+    cloudWatch.start();
+
+    cloudWatchClientFactory = new CloudWatchClientFactory("key", "secret", "eu-west-1", "http://localhost:" + cloudWatch.getAddress().getPort(), 10);
+    rateBudget = new RateBudget("");
+    instrumentation = new Instrumentation();
+    final StringBuilder names = new StringBuilder();
+    for (int i = 0; i < loadBalancers; i++) {
+      names.append(i > 0 ? "," : "").append("web-").append(i);
+    }
+    this.names = names.toString();
+
+    polled = source();
+    polled.collect(new MetricBatch());
+  }
+
+  @TearDown
+  public void tearDown() {
+    cloudWatchClientFactory.shutdown();
+    cloudWatch.stop(0);
+  }
+
+  // A steady state poll re-reads the most recent minutes of each load balancer
+  @Benchmark
+  public MetricBatch recent() {
+    final MetricBatch batch = new MetricBatch();
+    polled.collect(batch);
+    return batch;
+  }
+
+  // A new source backfills a whole day of minutes for each load balancer
+  @Benchmark
+  public MetricBatch backfill() {
+    final MetricBatch batch = new MetricBatch();
+    source().collect(batch);
+    return batch;
+  }
+
+  private LoadBalancerMetricsSource source() {
+    return new LoadBalancerMetricsSource(cloudWatchClientFactory, rateBudget, instrumentation, names, "", 300, 60);
+  }
+
+  // Answers every query with one datapoint per minute of the requested range
+  private byte[] metricDataResponse(String formBody) {
+    try {
+      final long start = Instant.parse(parameter(formBody, "StartTime")).toEpochMilli();
+      final long end = Instant.parse(parameter(formBody, "EndTime")).toEpochMilli();
+
+      final StringBuilder results = new StringBuilder();
+      final Matcher matcher = METRIC_NAME.matcher(formBody);
+      while (matcher.find()) {
+        final String query = "MetricDataQueries.member." + matcher.group(1);
+        final String value = valueOf(URLDecoder.decode(matcher.group(2), "UTF-8"), parameter(formBody, query + ".MetricStat.Stat"));
+        final StringBuilder timestamps = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        for (long minute = end - MINUTE_MILLIS; minute >= start; minute -= MINUTE_MILLIS) {
+          timestamps.append("<member>").append(Instant.ofEpochMilli(minute)).append("</member>");
+          values.append("<member>").append(value).append("</member>");
+        }
+        results.append("<member><Id>").append(parameter(formBody, query + ".Id")).append("</Id>")
+                .append("<Timestamps>").append(timestamps).append("</Timestamps>")
+                .append("<Values>").append(values).append("</Values>")
+                .append("<StatusCode>Complete</StatusCode></member>");
+      }
+      return ("<GetMetricDataResponse xmlns=\"http://monitoring.amazonaws.com/doc/2010-08-01/\">" +
+              "<GetMetricDataResult><MetricDataResults>" + results + "</MetricDataResults></GetMetricDataResult>" +
+              "<ResponseMetadata><RequestId>00000000-0000-0000-0000-000000000000</RequestId></ResponseMetadata>" +
+              "</GetMetricDataResponse>").getBytes(StandardCharsets.UTF_8);
+
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private String valueOf(String metricName, String stat) {
+    switch (metricName) {
+      case "RequestCount":
+        return "200.0";
+      case "Latency":
+        return "SampleCount".equals(stat) ? "200.0" : "50.0";
+      default:
+        return "5.0";
+    }
+  }
+
+  private String parameter(String formBody, String name) throws UnsupportedEncodingException {
+    for (String pair : formBody.split("&")) {
+      final int equals = pair.indexOf('=');
+      if (equals > 0 && pair.substring(0, equals).equals(name)) {
+        return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+      }
+    }
+    return "";
+  }
+
+}
@@ -0,0 +1,76 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+
+/**
+ * Prints the change in score and allocation per operation for each benchmark found in two JMH JSON result files.
+ * Usage: java -cp target/benchmarks.jar uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks.CompareResults before.json after.json
+ */
+public class CompareResults {
+
+  private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: CompareResults <before.json> <after.json>");
+      System.exit(1);
+    }
+
+    final Map<String, JsonNode> before = read(new File(args[0]));
+    final Map<String, JsonNode> after = read(new File(args[1]));
+
+    System.out.println(String.format("%-90s %14s %14s %8s %14s %14s %8s", "Benchmark", "Before", "After", "Change", "B/op before", "B/op after", "Change"));
+    for (Map.Entry<String, JsonNode> entry : after.entrySet()) {
+      final JsonNode previous = before.get(entry.getKey());
+      if (previous == null) {
+        continue;
+      }
+      final double scoreBefore = previous.path("primaryMetric").path("score").asDouble();
+      final double scoreAfter = entry.getValue().path("primaryMetric").path("score").asDouble();
+      final double allocationBefore = allocation(previous);
+      final double allocationAfter = allocation(entry.getValue());
+      System.out.println(String.format("%-90s %14.3f %14.3f %7.1f%% %14.1f %14.1f %7.1f%%", entry.getKey(),
+              scoreBefore, scoreAfter, change(scoreBefore, scoreAfter),
+              allocationBefore, allocationAfter, change(allocationBefore, allocationAfter)));
+    }
+  }
+
+  // Results are keyed by benchmark, mode and parameters so that runs with different parameter sets line up
+  private static Map<String, JsonNode> read(File file) throws IOException {
+    final Map<String, JsonNode> results = Maps.newTreeMap();
+    for (JsonNode result : new ObjectMapper().readTree(file)) {
+      final StringBuilder key = new StringBuilder(result.path("benchmark").asText().replaceFirst(".*\\.benchmarks\\.", ""))
+              .append(" ").append(result.path("mode").asText());
+      final Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+      while (params.hasNext()) {
+        final Map.Entry<String, JsonNode> param = params.next();
+        key.append(" ").append(param.getKey()).append("=").append(param.getValue().asText());
+      }
+      results.put(key.toString(), result);
+    }
+    return results;
+  }
+
+  private static double allocation(JsonNode result) {
+    final Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+    while (metrics.hasNext()) {
+      final Map.Entry<String, JsonNode> metric = metrics.next();
+      if (metric.getKey().endsWith(ALLOCATION)) {
+        return metric.getValue().path("score").asDouble();
+      }
+    }
+    return Double.NaN;
+  }
+
+  private static double change(double before, double after) {
+    return before != 0 ? (after - before) / before * 100 : Double.NaN;
+  }
+
+}
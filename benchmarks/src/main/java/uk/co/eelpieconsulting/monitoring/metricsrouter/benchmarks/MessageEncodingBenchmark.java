@@ -0,0 +1,69 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.BatchMessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.LineMessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MQTTMessage;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.TopicMessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+/**
+ * Encodes a poll's metrics into MQTT messages with the line, batch and per-metric topic encodings.
+ * The batch encoder's dictionary and the topic encoder's topics are built on the first call, so these measure their steady state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEncodingBenchmark {
+
+  @Param({"100", "10000"})
+  public int metrics;
+
+  private MetricBatch batch;
+  private LineMessageEncoder lineEncoder;
+  private BatchMessageEncoder batchEncoder;
+  private TopicMessageEncoder topicEncoder;
+
+  @Setup
+  public void setup() {
+    batch = new SyntheticMetrics(metrics).batch(0);
+    lineEncoder = new LineMessageEncoder("metrics");
+    batchEncoder = new BatchMessageEncoder("metrics", metrics * 2);
+    batchEncoder.encode(batch);
+    topicEncoder = new TopicMessageEncoder("metrics", "{topic}/{source}/{path}", true, metrics * 2);
+    topicEncoder.encode(batch);
+  }
+
+  @Benchmark
+  public List<MQTTMessage> line() {
+    return lineEncoder.encode(batch);
+  }
+
+  @Benchmark
+  public List<MQTTMessage> batch() {
+    return batchEncoder.encode(batch);
+  }
+
+  @Benchmark
+  public List<MQTTMessage> topic() {
+    return topicEncoder.encode(batch);
+  }
+
+}
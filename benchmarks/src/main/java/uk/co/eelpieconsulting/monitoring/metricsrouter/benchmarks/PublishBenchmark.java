@@ -0,0 +1,132 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.ChangeDetector;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.Publish;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.BatchMessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.DestinationQueues;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.LineMessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MQTTMessage;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MessageEncoder;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MetricBatchDestination;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MetricsDestination;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.history.TimeSeriesStore;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.PollScheduler;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot.MetricsSnapshotCache;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
+
+/**
+ * Runs a whole poll through Publish: collection, history, the scrape snapshot, change detection and encoding for MQTT.
+ * The source and destination are in-process stand-ins, so no time is spent on the network.
+ * Encoding happens on the destination's own thread; with the block policy polls are held to the rate the destination keeps up with,
+ * while drop_oldest measures the poller alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+  @Param({"100", "10000"})
+  public int metrics;
+
+  @Param({"false", "true"})
+  public boolean changesOnly;
+
+  @Param({"line", "batch"})
+  public String encoding;
+
+  @Param({"block", "drop_oldest"})
+  public String overflow;
+
+  private PollScheduler pollScheduler;
+  private SyntheticSource source;
+  private EncodingDestination destination;
+  private DestinationQueues destinationQueues;
+  private Publish publish;
+
+  @Setup
+  public void setup() {
+    pollScheduler = new PollScheduler(Executors.newSingleThreadExecutor());
+    source = new SyntheticSource(metrics);
+    destination = new EncodingDestination("batch".equals(encoding) ? new BatchMessageEncoder("metrics", metrics * 2) : new LineMessageEncoder("metrics"));
+    final Instrumentation instrumentation = new Instrumentation();
+    destinationQueues = new DestinationQueues(Collections.<MetricsDestination>singletonList(destination), instrumentation, 16, overflow, "");
+    publish = new Publish(Collections.<MetricSource>singletonList(source), destinationQueues, pollScheduler,
+            new ChangeDetector(changesOnly, 300), new TimeSeriesStore(60, 900), new MetricsSnapshotCache(900), instrumentation);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pollScheduler.shutdown();
+    destinationQueues.shutdown();
+  }
+
+  @Benchmark
+  public long poll() {
+    publish.poll(source);
+    return destination.bytes;
+  }
+
+  private static class SyntheticSource implements MetricBatchSource {
+
+    private final SyntheticMetrics metrics;
+    private int round = 0;
+
+    private SyntheticSource(int size) {
+      this.metrics = new SyntheticMetrics(size);
+    }
+
+    @Override
+    public void collect(MetricBatch batch) {
+      metrics.fill(batch, round++);
+    }
+
+    @Override
+    public int getInterval() {
+      return 60;
+    }
+  }
+
+  // Encodes as MQTTPublisher would, counting bytes in place of sending them
+  private static class EncodingDestination implements MetricBatchDestination {
+
+    private final MessageEncoder encoder;
+    private volatile long bytes = 0;
+
+    private EncodingDestination(MessageEncoder encoder) {
+      this.encoder = encoder;
+    }
+
+    @Override
+    public void publish(MetricBatch batch) {
+      final List<MQTTMessage> messages = encoder.encode(batch);
+      for (MQTTMessage message : messages) {
+        bytes += message.getPayload().length();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+/**
+ * Fills batches with the mix of counters, gauges, flags and text a poll typically produces.
+ * Each round changes a tenth of the values so change detection has some, but not much, to publish.
+ */
+class SyntheticMetrics {
+
+  private static final String[] NAMES = {"RequestCount-minute", "Latency-minute", "cpu-load", "available", "disk-free", "status", "uptime", "version"};
+
+  private final String[] keys;
+
+  SyntheticMetrics(int size) {
+    keys = new String[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = "host-" + (i / NAMES.length) + "-" + NAMES[i % NAMES.length];
+    }
+  }
+
+  void fill(MetricBatch batch, int round) {
+    for (int i = 0; i < keys.length; i++) {
+      final int value = i % 10 == round % 10 ? i + round : i;
+      switch (i % 4) {
+        case 0:
+          batch.addLong(keys[i], value * 10L);
+          break;
+        case 1:
+          batch.addDouble(keys[i], value / 1000.0, 3);
+          break;
+        case 2:
+          batch.addBoolean(keys[i], value % 2 == 0);
+          break;
+        default:
+          batch.addText(keys[i], "build-" + value);
+      }
+    }
+  }
+
+  MetricBatch batch(int round) {
+    final MetricBatch batch = new MetricBatch(keys.length);
+    batch.reset(System.currentTimeMillis());
+    fill(batch, round);
+    return batch;
+  }
+
+}
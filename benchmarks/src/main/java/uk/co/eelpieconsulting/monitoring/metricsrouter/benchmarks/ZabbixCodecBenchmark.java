@@ -0,0 +1,136 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixEvent;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixItem;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixRequestWriter;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixResponseReader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the streaming Zabbix codec with the previous path of building requests from maps
+ * and reading whole response bodies into untyped map trees.
+ * Responses are shaped like item.get and event.get with output extend, at the sizes seen on a busy Zabbix server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZabbixCodecBenchmark {
+
+  private static final List<String> KEYS = Arrays.asList("system.cpu.load[percpu,avg1]", "vm.memory.size[available]", "vfs.fs.size[/,pfree]",
+          "net.if.in[eth0]", "net.if.out[eth0]", "proc.num[]", "system.uptime", "agent.ping");
+
+  @Param({"500", "5000"})
+  public int items;
+
+  @Param({"20000"})
+  public int events;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ZabbixRequestWriter requestWriter = new ZabbixRequestWriter();
+  private final ZabbixResponseReader responseReader = new ZabbixResponseReader();
+
+  private byte[] itemResponse;
+  private byte[] eventResponse;
+
+  @Setup
+  public void setup() throws IOException {
+    objectMapper.enable(SerializationFeature.WRITE_NULL_MAP_VALUES);
+    itemResponse = ZabbixResponses.items(items);
+    eventResponse = ZabbixResponses.events(events);
+  }
+
+  @Benchmark
+  public Object mapItemsRequest() throws IOException {
+    final Map<String, Object> call = Maps.newLinkedHashMap();
+    call.put("jsonrpc", "2.0");
+    call.put("method", "item.get");
+    call.put("auth", "0424bd59b807674191e7d77572075f33");
+    final Map<String, Object> params = Maps.newLinkedHashMap();
+    final Map<String, Object> filter = Maps.newLinkedHashMap();
+    filter.put("key_", KEYS);
+    params.put("filter", filter);
+    params.put("output", "extend");
+    params.put("webitems", "true");
+    call.put("params", params);
+    call.put("id", 1);
+    return objectMapper.writeValueAsString(call).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public Object streamingItemsRequest() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    requestWriter.writeGetItemsByKeys(out, "0424bd59b807674191e7d77572075f33", KEYS);
+    return out;
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public void mapItemsResponse(Blackhole blackhole) throws IOException {
+    final String body = new String(itemResponse, StandardCharsets.UTF_8);
+    final Map response = objectMapper.readValue(body, Map.class);
+    for (Map<String, Object> item : (List<Map<String, Object>>) response.get("result")) {
+      blackhole.consume(item.get("hostid"));
+      blackhole.consume(item.get("key_"));
+      blackhole.consume(item.get("lastvalue"));
+      blackhole.consume(Long.parseLong((String) item.get("lastclock")));
+    }
+  }
+
+  @Benchmark
+  public void streamingItemsResponse(Blackhole blackhole) throws IOException {
+    for (ZabbixItem item : responseReader.read(new ByteArrayInputStream(itemResponse), ZabbixResponseReader.ITEMS)) {
+      blackhole.consume(item.getHostId());
+      blackhole.consume(item.getKey());
+      blackhole.consume(item.getLastValue());
+      blackhole.consume(item.getLastClock());
+    }
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public void mapEventsResponse(Blackhole blackhole) throws IOException {
+    final String body = new String(eventResponse, StandardCharsets.UTF_8);
+    final Map response = objectMapper.readValue(body, Map.class);
+    for (Map<String, String> event : (List<Map<String, String>>) response.get("result")) {
+      blackhole.consume(Long.parseLong(event.get("clock")));
+      blackhole.consume(event.get("value"));
+    }
+  }
+
+  @Benchmark
+  public void streamingEventsResponse(Blackhole blackhole) throws IOException {
+    for (ZabbixEvent event : responseReader.read(new ByteArrayInputStream(eventResponse), ZabbixResponseReader.EVENTS)) {
+      blackhole.consume(event.getClock());
+      blackhole.consume(event.getValue());
+    }
+  }
+
+}
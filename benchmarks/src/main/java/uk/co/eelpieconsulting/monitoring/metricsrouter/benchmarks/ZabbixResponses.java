@@ -0,0 +1,75 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates Zabbix JSON-RPC responses with the fields, nesting and value sizes returned by item.get and event.get with output extend.
+ */
+class ZabbixResponses {
+
+  private static final String[] KEYS = {"system.cpu.load[percpu,avg1]", "vm.memory.size[available]", "vfs.fs.size[/,pfree]",
+          "net.if.in[eth0]", "net.if.out[eth0]", "proc.num[]", "system.uptime", "agent.ping"};
+
+  static byte[] items(int count) {
+    final Random random = new Random(1);
+    final StringBuilder json = new StringBuilder(count * 1200).append("{\"jsonrpc\":\"2.0\",\"result\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      final int hostId = 10084 + i / KEYS.length;
+      json.append("{\"itemid\":\"").append(23296 + i).append('"')
+              .append(",\"type\":\"0\",\"snmp_community\":\"\",\"snmp_oid\":\"\"")
+              .append(",\"hostid\":\"").append(hostId).append('"')
+              .append(",\"name\":\"Item ").append(i).append(" on host ").append(hostId).append('"')
+              .append(",\"key_\":\"").append(KEYS[i % KEYS.length]).append('"')
+              .append(",\"delay\":\"1m\",\"history\":\"1w\",\"trends\":\"365d\",\"status\":\"0\",\"value_type\":\"0\"")
+              .append(",\"trapper_hosts\":\"\",\"units\":\"B\",\"snmpv3_securityname\":\"\",\"snmpv3_securitylevel\":\"0\"")
+              .append(",\"snmpv3_authpassphrase\":\"\",\"snmpv3_privpassphrase\":\"\",\"formula\":\"\",\"error\":\"\"")
+              .append(",\"lastlogsize\":\"0\",\"logtimefmt\":\"\",\"templateid\":\"").append(22000 + i % KEYS.length).append('"')
+              .append(",\"valuemapid\":\"0\",\"params\":\"\",\"ipmi_sensor\":\"\",\"authtype\":\"0\",\"username\":\"\"")
+              .append(",\"password\":\"\",\"publickey\":\"\",\"privatekey\":\"\",\"mtime\":\"0\",\"flags\":\"0\"")
+              .append(",\"interfaceid\":\"").append(hostId).append('"')
+              .append(",\"port\":\"\",\"description\":\"A description of the item which is usually a sentence or two long.\"")
+              .append(",\"inventory_link\":\"0\",\"lifetime\":\"30d\",\"snmpv3_authprotocol\":\"0\",\"snmpv3_privprotocol\":\"0\"")
+              .append(",\"state\":\"0\",\"snmpv3_contextname\":\"\",\"evaltype\":\"0\",\"jmx_endpoint\":\"\",\"master_itemid\":\"0\"")
+              .append(",\"timeout\":\"3s\",\"url\":\"\",\"query_fields\":[],\"posts\":\"\",\"status_codes\":\"200\"")
+              .append(",\"follow_redirects\":\"1\",\"post_type\":\"0\",\"http_proxy\":\"\",\"headers\":[],\"retrieve_mode\":\"0\"")
+              .append(",\"request_method\":\"0\",\"output_format\":\"0\",\"ssl_cert_file\":\"\",\"ssl_key_file\":\"\"")
+              .append(",\"ssl_key_password\":\"\",\"verify_peer\":\"0\",\"verify_host\":\"0\",\"allow_traps\":\"0\"")
+              .append(",\"lastclock\":\"").append(1546300800 + random.nextInt(600)).append('"')
+              .append(",\"lastns\":\"").append(random.nextInt(1000000000)).append('"')
+              .append(",\"lastvalue\":\"").append(random.nextInt(100000) / 100.0).append('"')
+              .append(",\"prevvalue\":\"").append(random.nextInt(100000) / 100.0).append('"')
+              .append('}');
+    }
+    return json.append("],\"id\":1}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  static byte[] events(int count) {
+    return events(count, 1530403200, 1800);
+  }
+
+  // Events start after firstClock and are up to maxGap seconds apart
+  static byte[] events(int count, long firstClock, int maxGap) {
+    final Random random = new Random(2);
+    final StringBuilder json = new StringBuilder(count * 260).append("{\"jsonrpc\":\"2.0\",\"result\":[");
+    long clock = firstClock;
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      clock += random.nextInt(maxGap);
+      json.append("{\"eventid\":\"").append(100000 + i).append('"')
+              .append(",\"source\":\"0\",\"object\":\"0\",\"objectid\":\"13491\"")
+              .append(",\"clock\":\"").append(clock).append('"')
+              .append(",\"value\":\"").append(i % 2).append('"')
+              .append(",\"acknowledged\":\"0\",\"ns\":\"").append(random.nextInt(1000000000)).append('"')
+              .append(",\"name\":\"Web service is down\",\"severity\":\"4\",\"r_eventid\":\"0\",\"c_eventid\":\"0\"")
+              .append(",\"correlationid\":\"0\",\"userid\":\"0\",\"suppressed\":\"0\"}");
+    }
+    return json.append("],\"id\":1}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,189 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricType;
+
+/**
+ * Drops metrics whose value has not changed since it was last sent, unless it was last sent more than the full refresh interval ago.
+ * Only 64 bit hashes of each key and value are kept, in an open addressed table of primitive arrays.
+ * Once every full refresh interval the table is rebuilt without the keys last sent longer ago than that,
+ * which would be sent on their next appearance anyway, so keys which have stopped appearing don't accumulate.
+ * Batches which never reach a destination are handed back to {@link #forget}, so their values are sent again on the next poll.
+ */
+@Component
+public class ChangeDetector {
+
+  private static final Logger log = Logger.getLogger(ChangeDetector.class);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long NULL_VALUE_HASH = 0x9e3779b97f4a7c15L;
+  private static final int MIN_CAPACITY = 1024;
+
+  private final boolean enabled;
+  private final long fullRefreshMillis;
+
+  private long[] keyHashes = new long[MIN_CAPACITY];
+  private long[] valueHashes = new long[MIN_CAPACITY];
+  private long[] sentAt = new long[MIN_CAPACITY];
+  private int size = 0;
+  private long sweptAt = 0;
+
+  @Autowired
+  public ChangeDetector(@Value("${publish.changesOnly:false}") boolean enabled,
+                        @Value("${publish.fullRefreshSeconds:300}") int fullRefreshSeconds) {
+    // Every value would be resent on every poll, and the key table rebuilt each time
+    if (enabled && fullRefreshSeconds <= 0) {
+      throw new IllegalArgumentException("publish.fullRefreshSeconds must be positive when publishing only changes, but was " + fullRefreshSeconds);
+    }
+    this.enabled = enabled;
+    this.fullRefreshMillis = fullRefreshSeconds * 1000L;
+    if (enabled) {
+      log.info("Only publishing changed metrics; unchanged metrics are republished every " + fullRefreshSeconds + " seconds");
+    }
+  }
+
+  public void filter(MetricBatch metrics) {
+    if (enabled) {
+      filter(metrics, System.currentTimeMillis());
+    }
+  }
+
+  synchronized void filter(MetricBatch metrics, final long now) {
+    if (now - sweptAt >= fullRefreshMillis) {
+      sweep(now);
+    }
+    final int polled = metrics.size();
+    metrics.retain(new MetricBatch.EntryFilter() {
+      @Override
+      public boolean accept(MetricBatch batch, int index) {
+        return record(hash(batch.getKey(index)), valueHash(batch, index), now);
+      }
+    });
+    if (log.isDebugEnabled()) {
+      log.debug(metrics.size() + " of " + polled + " metrics need publishing");
+    }
+  }
+
+  // Marks the batch's values as unsent, unless a key has since been sent with another value
+  public void forget(MetricBatch metrics) {
+    if (enabled) {
+      forgetValues(metrics);
+    }
+  }
+
+  private synchronized void forgetValues(MetricBatch metrics) {
+    for (int i = 0; i < metrics.size(); i++) {
+      final int slot = slotFor(hash(metrics.getKey(i)));
+      if (keyHashes[slot] != 0 && valueHashes[slot] == valueHash(metrics, i)) {
+        // No value hashes to zero, so the next value differs from this one
+        valueHashes[slot] = 0;
+      }
+    }
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private boolean record(long keyHash, long valueHash, long now) {
+    int slot = slotFor(keyHash);
+    if (keyHashes[slot] == 0) {
+      if ((size + 1) * 2 > keyHashes.length) {
+        resize();
+        slot = slotFor(keyHash);
+      }
+      keyHashes[slot] = keyHash;
+      size++;
+    } else if (valueHashes[slot] == valueHash && now - sentAt[slot] < fullRefreshMillis) {
+      return false;
+    }
+    valueHashes[slot] = valueHash;
+    sentAt[slot] = now;
+    return true;
+  }
+
+  private int slotFor(long keyHash) {
+    final int mask = keyHashes.length - 1;
+    int slot = (int) (keyHash ^ (keyHash >>> 32)) & mask;
+    while (keyHashes[slot] != 0 && keyHashes[slot] != keyHash) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void resize() {
+    rehash(keyHashes.length * 2, Long.MIN_VALUE);
+  }
+
+  private void sweep(long now) {
+    final long sentBefore = now - fullRefreshMillis;
+    int live = 0;
+    for (int i = 0; i < keyHashes.length; i++) {
+      if (keyHashes[i] != 0 && sentAt[i] > sentBefore) {
+        live++;
+      }
+    }
+    int capacity = MIN_CAPACITY;
+    while ((live + 1) * 2 > capacity) {
+      capacity *= 2;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Forgetting " + (size - live) + " of " + size + " keys");
+    }
+    rehash(capacity, sentBefore);
+    sweptAt = now;
+  }
+
+  // Keeps only the entries sent after sentBefore
+  private void rehash(int capacity, long sentBefore) {
+    final long[] oldKeyHashes = keyHashes;
+    final long[] oldValueHashes = valueHashes;
+    final long[] oldSentAt = sentAt;
+    keyHashes = new long[capacity];
+    valueHashes = new long[capacity];
+    sentAt = new long[capacity];
+    size = 0;
+    for (int i = 0; i < oldKeyHashes.length; i++) {
+      if (oldKeyHashes[i] != 0 && oldSentAt[i] > sentBefore) {
+        final int slot = slotFor(oldKeyHashes[i]);
+        keyHashes[slot] = oldKeyHashes[i];
+        valueHashes[slot] = oldValueHashes[i];
+        sentAt[slot] = oldSentAt[i];
+        size++;
+      }
+    }
+  }
+
+  private static long valueHash(MetricBatch batch, int index) {
+    if (batch.getType(index) == MetricType.TEXT) {
+      final String text = batch.getText(index);
+      return text != null ? hash(text) : NULL_VALUE_HASH;
+    }
+    return mix(batch.getRawValue(index) ^ ((batch.getType(index).ordinal() + 1) * NULL_VALUE_HASH));
+  }
+
+  // 64 bit FNV-1a with a final avalanche
+  private static long hash(String value) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  // Zero is reserved to mark empty slots
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash != 0 ? hash : 1;
+  }
+
+}
@@ -1,82 +1,112 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.MetricsDestination;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.destinations.DestinationQueues;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.history.TimeSeriesStore;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.PollContext;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.PollScheduler;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot.MetricsSnapshotCache;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
 import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
 
-import com.google.common.collect.Maps;
-
 @Component
 public class Publish {
 
   private static final Logger log = Logger.getLogger(Publish.class);
 
   private List<MetricSource> metricSources;
-  private List<MetricsDestination> metricDestinations;
-  private Map<MetricSource, Date> lastRun;
+  private DestinationQueues destinationQueues;
+  private PollScheduler pollScheduler;
+  private ChangeDetector changeDetector;
+  private TimeSeriesStore timeSeriesStore;
+  private MetricsSnapshotCache snapshotCache;
+  private Instrumentation instrumentation;
+  private Map<MetricSource, MetricBatch> batches;
 
   @Autowired
-  public Publish(List<MetricSource> metricSources, List<MetricsDestination> metricDestinations) {
+  public Publish(List<MetricSource> metricSources, DestinationQueues destinationQueues, PollScheduler pollScheduler, ChangeDetector changeDetector,
+                 TimeSeriesStore timeSeriesStore, MetricsSnapshotCache snapshotCache, Instrumentation instrumentation) {
     this.metricSources = metricSources;
-    this.metricDestinations = metricDestinations;
-
-    lastRun = Maps.newHashMap();
+    this.destinationQueues = destinationQueues;
+    this.pollScheduler = pollScheduler;
+    this.changeDetector = changeDetector;
+    this.timeSeriesStore = timeSeriesStore;
+    this.snapshotCache = snapshotCache;
+    this.instrumentation = instrumentation;
+    // Values dropped on the way to a destination must not be treated as sent
+    destinationQueues.addDropListener(changeDetector::forget);
+
+    batches = new ConcurrentHashMap<MetricSource, MetricBatch>();
+    for (MetricSource metricSource : metricSources) {
+      batches.put(metricSource, new MetricBatch());
+    }
 
     log.info("Initialised with metric sources: " + metricSources);
-    log.info("Initialised with metric destinations: " + metricDestinations);
   }
 
-  @Scheduled(fixedDelay = 5000)
-  public void publish() throws Exception {
-    log.debug("Polling");
-    for (MetricSource metricSource : metricSources) {
-      try {
-        if (shouldRun(metricSource)) {
-          log.debug("Polling metric source: " + metricSource.getClass().getSimpleName());
-          final Map<String, String> metricsFromSource = metricSource.getMetrics();
-          recordMetricSourceLastRunTime(metricSource);
-          publishMetrics(metricsFromSource);
+  @PostConstruct
+  public void start() {
+    for (final MetricSource metricSource : metricSources) {
+      pollScheduler.schedule(metricSource.getClass().getSimpleName(), metricSource.getInterval() * 1000L, new Runnable() {
+        @Override
+        public void run() {
+          PollContext.run(metricSource.getClass().getSimpleName(), () -> poll(metricSource));
         }
-
-      } catch (Exception e) {
-        log.error("Unexpected exception while polling metrics source: " + metricSource.getClass().getSimpleName(), e);
-      }
+      });
     }
   }
 
-  private void publishMetrics(final Map<String, String> metrics) {
-    log.debug("Publishing metrics: " + metrics);
-    for (MetricsDestination metricsDestination : metricDestinations) {
-      try {
-        metricsDestination.publishMetrics(metrics);
-
-      } catch (Exception e) {
-        log.error("Unexpected exception while publishing metrics to destination: " + metricsDestination.getClass().getSimpleName(), e);
+  // Each source's batch is reused from poll to poll; the scheduler never runs a source concurrently with itself
+  public void poll(MetricSource metricSource) {
+    final String name = metricSource.getClass().getSimpleName();
+    final long start = System.nanoTime();
+    boolean collected = false;
+    try {
+      log.debug("Polling metric source: " + name);
+      final MetricBatch batch = batches.get(metricSource);
+      batch.reset(System.currentTimeMillis());
+      batch.setSource(name);
+      if (metricSource instanceof MetricBatchSource) {
+        ((MetricBatchSource) metricSource).collect(batch);
+      } else {
+        batch.addAll(metricSource.getMetrics());
+      }
+      collected = true;
+      instrumentation.recordPoll(name, start, batch.size(), Outcome.SUCCESS);
+      timeSeriesStore.record(batch);
+      snapshotCache.update(batch);
+      publishMetrics(batch);
+
+    } catch (Exception e) {
+      if (!collected) {
+        instrumentation.recordPoll(name, start, 0, Outcome.ERROR);
       }
+      log.error("Unexpected exception while polling metrics source: " + name, e);
     }
   }
 
-  private boolean shouldRun(MetricSource metricSource) {
-    final Date lastTimeThisMetricSourceRan = lastRun.get(metricSource);
-    if (lastTimeThisMetricSourceRan == null) {
-      return true;
+  private void publishMetrics(final MetricBatch metrics) {
+    changeDetector.filter(metrics);
+    if (metrics.isEmpty()) {
+      return;
     }
 
-    final Integer metricSourceRepeatInterval = metricSource.getInterval();
-    return lastTimeThisMetricSourceRan.before(DateTime.now().minusSeconds(metricSourceRepeatInterval).toDate());
-  }
-
-  private void recordMetricSourceLastRunTime(MetricSource metricSource) {
-    lastRun.put(metricSource, DateTime.now().toDate());
+    if (log.isDebugEnabled()) {
+      log.debug("Publishing metrics: " + metrics);
+    }
+    destinationQueues.publish(metrics);
   }
 
 }
@@ -0,0 +1,73 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format shared by BatchMessageEncoder and MetricBatchDecoder.
+ *
+ * Dictionary message (retained, on <topic>/dictionary):
+ *   version byte, varint epoch, varint key count, then per key: varint byte length, UTF-8 bytes.
+ *   A key's id is its position in the dictionary.
+ *
+ * Batch message (on <topic>):
+ *   version byte, varint epoch, varint dictionary size needed, varint entry count,
+ *   then per entry: varint key id, type byte, value.
+ *
+ * Values are zigzag varints for LONG, 8 byte IEEE 754 for DOUBLE, nothing for NULL, TRUE and FALSE,
+ * and a varint length followed by UTF-8 bytes for TEXT.
+ */
+public class BatchFormat {
+
+  public static final String DICTIONARY_TOPIC_SUFFIX = "/dictionary";
+
+  static final byte VERSION = 1;
+
+  static final byte NULL = 0;
+  static final byte LONG = 1;
+  static final byte DOUBLE = 2;
+  static final byte TRUE = 3;
+  static final byte FALSE = 4;
+  static final byte TEXT = 5;
+
+  static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static void writeZigZag(ByteArrayOutputStream out, long value) {
+    writeVarint(out, (value << 1) ^ (value >> 63));
+  }
+
+  static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  static long readVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  static long readZigZag(ByteBuffer in) {
+    final long value = readVarint(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static byte[] readBytes(ByteBuffer in) {
+    final byte[] bytes = new byte[(int) readVarint(in)];
+    in.get(bytes);
+    return bytes;
+  }
+
+}
@@ -0,0 +1,146 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricValues;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Encodes a whole batch of metrics as a single message in the BatchFormat.
+ * Keys are replaced by ids from a dictionary which is republished, retained, whenever new keys appear.
+ * Once the dictionary reaches maxKeys it is reset under a new epoch so that keys which have stopped appearing are dropped.
+ * Both messages carry the topic as their key, so with several connections they go over the same one and stay in order.
+ */
+public class BatchMessageEncoder implements MessageEncoder {
+
+  private static final Logger log = Logger.getLogger(BatchMessageEncoder.class);
+
+  private final String key;
+  private final UTF8Buffer topic;
+  private final UTF8Buffer dictionaryTopic;
+  private final int maxKeys;
+
+  private final Map<String, Integer> ids = Maps.newHashMap();
+  private final List<String> keys = Lists.newArrayList();
+  private long epoch = 0;
+
+  public BatchMessageEncoder(String topic, int maxKeys) {
+    this.key = topic;
+    this.topic = new UTF8Buffer(topic);
+    this.dictionaryTopic = new UTF8Buffer(topic + BatchFormat.DICTIONARY_TOPIC_SUFFIX);
+    this.maxKeys = maxKeys;
+  }
+
+  @Override
+  public synchronized List<MQTTMessage> encode(MetricBatch metrics) {
+    final List<MQTTMessage> messages = Lists.newArrayListWithCapacity(2);
+    if (addKeys(metrics)) {
+      messages.add(new MQTTMessage(dictionaryTopic, new Buffer(encodeDictionary()), true, key));
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(16 + metrics.size() * 8);
+    out.write(BatchFormat.VERSION);
+    BatchFormat.writeVarint(out, epoch);
+    BatchFormat.writeVarint(out, keys.size());
+    BatchFormat.writeVarint(out, metrics.size());
+    for (int i = 0; i < metrics.size(); i++) {
+      BatchFormat.writeVarint(out, ids.get(metrics.getKey(i)));
+      writeValue(out, metrics, i);
+    }
+    messages.add(new MQTTMessage(topic, new Buffer(out.toByteArray()), false, key));
+    return messages;
+  }
+
+  private boolean addKeys(MetricBatch metrics) {
+    int newKeys = 0;
+    for (int i = 0; i < metrics.size(); i++) {
+      if (!ids.containsKey(metrics.getKey(i))) {
+        newKeys++;
+      }
+    }
+    if (newKeys == 0) {
+      return false;
+    }
+
+    if (keys.size() + newKeys > maxKeys) {
+      epoch++;
+      log.info("Batch dictionary reached " + keys.size() + " keys; starting epoch " + epoch);
+      ids.clear();
+      keys.clear();
+    }
+    for (int i = 0; i < metrics.size(); i++) {
+      final String key = metrics.getKey(i);
+      if (!ids.containsKey(key)) {
+        ids.put(key, keys.size());
+        keys.add(key);
+      }
+    }
+    return true;
+  }
+
+  private byte[] encodeDictionary() {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(16 + keys.size() * 32);
+    out.write(BatchFormat.VERSION);
+    BatchFormat.writeVarint(out, epoch);
+    BatchFormat.writeVarint(out, keys.size());
+    for (String key : keys) {
+      BatchFormat.writeBytes(out, key.getBytes(StandardCharsets.UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  private void writeValue(ByteArrayOutputStream out, MetricBatch metrics, int index) {
+    switch (metrics.getType(index)) {
+      case LONG:
+        out.write(BatchFormat.LONG);
+        BatchFormat.writeZigZag(out, metrics.getLong(index));
+        return;
+      case BOOLEAN:
+        out.write(metrics.getBoolean(index) ? BatchFormat.TRUE : BatchFormat.FALSE);
+        return;
+      case DOUBLE:
+        if (metrics.getScale(index) < 0) {
+          writeDouble(out, metrics.getDouble(index));
+          return;
+        }
+        break;
+      default:
+        break;
+    }
+    // Rounded doubles and text go out as whatever the line format would have shown
+    writeValue(out, metrics.format(index));
+  }
+
+  private void writeValue(ByteArrayOutputStream out, String value) {
+    if (value == null) {
+      out.write(BatchFormat.NULL);
+    } else if (MetricValues.isCanonicalLong(value)) {
+      out.write(BatchFormat.LONG);
+      BatchFormat.writeZigZag(out, Long.parseLong(value));
+    } else if (MetricValues.isCanonicalDouble(value)) {
+      writeDouble(out, Double.parseDouble(value));
+    } else {
+      out.write(BatchFormat.TEXT);
+      BatchFormat.writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void writeDouble(ByteArrayOutputStream out, double value) {
+    out.write(BatchFormat.DOUBLE);
+    final long bits = Double.doubleToLongBits(value);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (bits >>> shift));
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+/**
+ * A bounded, lock-free ring of batches.
+ * Writers and readers claim positions with a compare-and-set on their own counter; each slot's sequence number
+ * says whether it is free to write or ready to read, so neither side ever waits on the other.
+ * Any thread may poll, which lets producers discard the oldest batch to make room.
+ */
+class BatchRing {
+
+  private final int capacity;
+  private final AtomicReferenceArray<MetricBatch> batches;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  BatchRing(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A ring needs room for at least one batch");
+    }
+    this.capacity = capacity;
+    this.batches = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int slot = 0; slot < capacity; slot++) {
+      sequences.set(slot, slot);
+    }
+  }
+
+  boolean offer(MetricBatch batch) {
+    long position = tail.get();
+    while (true) {
+      final int slot = (int) (position % capacity);
+      final long difference = sequences.get(slot) - position;
+      if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+        batches.lazySet(slot, batch);
+        sequences.set(slot, position + 1);
+        return true;
+      }
+      if (difference < 0) {
+        return false;
+      }
+      position = tail.get();
+    }
+  }
+
+  MetricBatch poll() {
+    long position = head.get();
+    while (true) {
+      final int slot = (int) (position % capacity);
+      final long difference = sequences.get(slot) - (position + 1);
+      if (difference == 0 && head.compareAndSet(position, position + 1)) {
+        final MetricBatch batch = batches.get(slot);
+        batches.lazySet(slot, null);
+        sequences.set(slot, position + capacity);
+        return batch;
+      }
+      if (difference < 0) {
+        return null;
+      }
+      position = head.get();
+    }
+  }
+
+  int size() {
+    return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+}
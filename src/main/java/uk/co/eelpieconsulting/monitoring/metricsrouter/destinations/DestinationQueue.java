@@ -0,0 +1,221 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Decouples a destination from the pollers: batches are queued on a bounded ring and published by the destination's own thread,
+ * so a slow or stalled destination only ever holds up itself. What happens when the ring is full is set by the overflow policy.
+ * Queued batches are shared between destinations and must not be modified.
+ */
+public class DestinationQueue {
+
+  public interface DropListener {
+    // Called with each batch which was dropped or failed to publish
+    public void dropped(MetricBatch batch);
+  }
+
+  private static final Logger log = Logger.getLogger(DestinationQueue.class);
+
+  private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long SHUTDOWN_MILLIS = 5000;
+
+  private final String name;
+  private final MetricsDestination destination;
+  private final OverflowPolicy policy;
+  private final Instrumentation instrumentation;
+  private final BatchRing ring;
+  private final Thread drainer;
+  // Serialises producers merging the queued batches, so merged batches go back in the order they were queued
+  private final Object coalescing = new Object();
+  private final List<DropListener> dropListeners = new CopyOnWriteArrayList<>();
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private volatile boolean running = true;
+
+  public DestinationQueue(MetricsDestination destination, OverflowPolicy policy, int capacity, Instrumentation instrumentation) {
+    this.name = destination.getClass().getSimpleName();
+    this.destination = destination;
+    this.policy = policy;
+    this.instrumentation = instrumentation;
+    this.ring = new BatchRing(capacity);
+    this.drainer = new Thread(this::drain, "publish-" + name);
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+
+  public void offer(MetricBatch batch) {
+    if (!ring.offer(batch)) {
+      overflow(batch);
+    }
+    LockSupport.unpark(drainer);
+  }
+
+  public void addDropListener(DropListener dropListener) {
+    dropListeners.add(dropListener);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  public int getDepth() {
+    return ring.size();
+  }
+
+  public int getCapacity() {
+    return ring.capacity();
+  }
+
+  // Counts of batches published, discarded by a drop policy, and merged into a later batch
+  public long getPublished() {
+    return published.sum();
+  }
+
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  public long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  public void shutdown() {
+    running = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(SHUTDOWN_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void overflow(MetricBatch batch) {
+    switch (policy) {
+      case BLOCK:
+        while (!ring.offer(batch)) {
+          if (!running) {
+            dropped(batch);
+            return;
+          }
+          LockSupport.unpark(drainer);
+          LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+        }
+        return;
+
+      case DROP_OLDEST:
+        do {
+          final MetricBatch oldest = ring.poll();
+          if (oldest != null) {
+            dropped(oldest);
+          }
+        } while (!ring.offer(batch));
+        return;
+
+      case COALESCE:
+        synchronized (coalescing) {
+          MetricBatch merged = batch;
+          do {
+            merged = coalesce(merged);
+          } while (!ring.offer(merged));
+        }
+        return;
+
+      default:
+        dropped(batch);
+    }
+  }
+
+  private void dropped(MetricBatch batch) {
+    dropped.increment();
+    notifyDropped(batch);
+  }
+
+  private void notifyDropped(MetricBatch batch) {
+    for (DropListener dropListener : dropListeners) {
+      try {
+        dropListener.dropped(batch);
+      } catch (Exception e) {
+        log.error("Drop listener failed for destination: " + name, e);
+      }
+    }
+  }
+
+  // Takes every queued batch and merges them ahead of the given one; each metric keeps the value from the newest batch which had it
+  private MetricBatch coalesce(MetricBatch batch) {
+    final List<MetricBatch> batches = Lists.newArrayList();
+    for (MetricBatch queued = ring.poll(); queued != null; queued = ring.poll()) {
+      batches.add(queued);
+    }
+    if (batches.isEmpty()) {
+      return batch;
+    }
+    batches.add(batch);
+    coalesced.add(batches.size() - 1);
+
+    final MetricBatch merged = new MetricBatch(batch.size());
+    merged.reset(System.currentTimeMillis());
+    final Set<String> seen = Sets.newHashSetWithExpectedSize(batch.size());
+    for (int b = batches.size() - 1; b >= 0; b--) {
+      final MetricBatch queued = batches.get(b);
+      for (int i = 0; i < queued.size(); i++) {
+        if (seen.add(queued.getKey(i))) {
+          merged.add(queued, i);
+        }
+      }
+    }
+    return merged;
+  }
+
+  // Anything still queued at shutdown is published before the thread exits
+  private void drain() {
+    while (true) {
+      final MetricBatch batch = ring.poll();
+      if (batch != null) {
+        publish(batch);
+      } else if (running) {
+        LockSupport.park(this);
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void publish(MetricBatch batch) {
+    final long start = System.nanoTime();
+    try {
+      if (destination instanceof MetricBatchDestination) {
+        ((MetricBatchDestination) destination).publish(batch);
+      } else {
+        destination.publishMetrics(batch.toMap());
+      }
+      published.increment();
+      instrumentation.recordPublish(name, start, batch.size(), Outcome.SUCCESS);
+
+    } catch (Exception e) {
+      instrumentation.recordPublish(name, start, batch.size(), Outcome.ERROR);
+      log.error("Unexpected exception while publishing metrics to destination: " + name, e);
+      notifyDropped(batch);
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+/**
+ * Publishes how full each destination's queue is and how many batches have been dropped or coalesced on overflow.
+ */
+@Component
+public class DestinationQueueMetricsSource implements MetricBatchSource {
+
+  private static final String PREFIX = "metricsrouter.destination.";
+
+  private final DestinationQueues destinationQueues;
+
+  @Autowired
+  public DestinationQueueMetricsSource(DestinationQueues destinationQueues) {
+    this.destinationQueues = destinationQueues;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    for (DestinationQueue queue : destinationQueues.getQueues()) {
+      final String prefix = PREFIX + queue.getName() + ".";
+      metrics.addLong(prefix + "depth", queue.getDepth());
+      metrics.addLong(prefix + "capacity", queue.getCapacity());
+      metrics.addLong(prefix + "published", queue.getPublished());
+      metrics.addLong(prefix + "dropped", queue.getDropped());
+      metrics.addLong(prefix + "coalesced", queue.getCoalesced());
+    }
+  }
+
+  @Override
+  public int getInterval() {
+    return 60;
+  }
+
+}
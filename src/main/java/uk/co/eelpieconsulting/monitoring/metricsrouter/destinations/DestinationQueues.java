@@ -0,0 +1,91 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Puts a queue in front of every destination. The overflow policy defaults to destinations.overflow and can be
+ * set per destination with destinations.overflowPolicies, as comma separated destination:policy pairs such as MQTTPublisher:coalesce.
+ */
+@Component
+public class DestinationQueues {
+
+  private static final Logger log = Logger.getLogger(DestinationQueues.class);
+
+  private final List<DestinationQueue> queues;
+
+  @Autowired
+  public DestinationQueues(List<MetricsDestination> destinations, Instrumentation instrumentation,
+                           @Value("${destinations.queueCapacity:16}") int capacity,
+                           @Value("${destinations.overflow:drop_oldest}") String defaultPolicy,
+                           @Value("${destinations.overflowPolicies:}") String policies) {
+    final Map<String, OverflowPolicy> overrides = Maps.newHashMap();
+    for (String override : Splitter.on(",").trimResults().omitEmptyStrings().split(policies)) {
+      final List<String> parts = Splitter.on(":").trimResults().splitToList(override);
+      if (parts.size() != 2) {
+        throw new IllegalArgumentException("Overflow policies should be destination:policy but got: " + override);
+      }
+      overrides.put(parts.get(0), policy(parts.get(1)));
+    }
+
+    this.queues = Lists.newArrayList();
+    for (MetricsDestination destination : destinations) {
+      final String name = destination.getClass().getSimpleName();
+      final OverflowPolicy policy = overrides.containsKey(name) ? overrides.get(name) : policy(defaultPolicy);
+      log.info("Queueing up to " + capacity + " batches for destination " + name + " with overflow policy " + policy);
+      final DestinationQueue queue = new DestinationQueue(destination, policy, capacity, instrumentation);
+      instrumentation.registerQueueDepth(name, queue::getDepth);
+      queues.add(queue);
+    }
+  }
+
+  // The poller's batch is reused by its next poll, so destinations are given one shared copy
+  public void publish(MetricBatch metrics) {
+    if (queues.isEmpty()) {
+      return;
+    }
+    final MetricBatch copy = new MetricBatch(metrics.size());
+    copy.reset(System.currentTimeMillis());
+    copy.addAll(metrics);
+    for (DestinationQueue queue : queues) {
+      queue.offer(copy);
+    }
+  }
+
+  public void addDropListener(DestinationQueue.DropListener dropListener) {
+    for (DestinationQueue queue : queues) {
+      queue.addDropListener(dropListener);
+    }
+  }
+
+  public List<DestinationQueue> getQueues() {
+    return queues;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (DestinationQueue queue : queues) {
+      queue.shutdown();
+    }
+  }
+
+  private static OverflowPolicy policy(String policy) {
+    return OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+  }
+
+}
@@ -0,0 +1,33 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+public class LineMessageEncoder implements MessageEncoder {
+
+  private final UTF8Buffer topic;
+
+  public LineMessageEncoder(String topic) {
+    this.topic = new UTF8Buffer(topic);
+  }
+
+  @Override
+  public List<MQTTMessage> encode(MetricBatch metrics) {
+    final List<MQTTMessage> messages = Lists.newArrayListWithCapacity(metrics.size());
+    for (int i = 0; i < metrics.size(); i++) {
+      final String value = metrics.format(i);
+      final String key = metrics.getKey(i);
+      final String message = key + (!Strings.isNullOrEmpty(value) ? ":" + value : "");
+      messages.add(new MQTTMessage(topic, new Buffer(message.getBytes()), false, key));
+    }
+    return messages;
+  }
+
+}
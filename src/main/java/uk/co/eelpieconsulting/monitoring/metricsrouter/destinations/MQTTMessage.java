@@ -0,0 +1,47 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.mqtt.client.QoS;
+
+public class MQTTMessage {
+
+  private final UTF8Buffer topic;
+  private final Buffer payload;
+  private final boolean retain;
+  private final String key;
+
+  public MQTTMessage(UTF8Buffer topic, Buffer payload, boolean retain) {
+    this(topic, payload, retain, null);
+  }
+
+  public MQTTMessage(UTF8Buffer topic, Buffer payload, boolean retain, String key) {
+    this.topic = topic;
+    this.payload = payload;
+    this.retain = retain;
+    this.key = key;
+  }
+
+  public UTF8Buffer getTopic() {
+    return topic;
+  }
+
+  public Buffer getPayload() {
+    return payload;
+  }
+
+  public boolean isRetain() {
+    return retain;
+  }
+
+  // Picks the connection: the metric key for a message carrying one metric, shared by messages which must go out together
+  public String getKey() {
+    return key;
+  }
+
+  // Retained messages are the ones late subscribers depend on, so are worth an acknowledgement
+  public QoS getQos() {
+    return retain ? QoS.AT_LEAST_ONCE : QoS.AT_MOST_ONCE;
+  }
+
+}
@@ -0,0 +1,226 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The mqtt.* settings of the MQTT publisher, grouped as they are in application.properties.
+ * Anything left unset keeps the default given here.
+ */
+@Component
+@ConfigurationProperties("mqtt")
+public class MQTTProperties {
+
+  private String host;
+  private Integer port;
+  private String cert;
+  private String topic;
+  private boolean async = false;
+  private int window = 256;
+  private int maxQueuedBatches = 4;
+  private int connections = 1;
+  private String clientId;
+  private String encoding = "line";
+  private final Batch batch = new Batch();
+  private final Topics topics = new Topics();
+  private final Spool spool = new Spool();
+  private final Reconnect reconnect = new Reconnect();
+
+  public String getHost() {
+    return host;
+  }
+
+  public void setHost(String host) {
+    this.host = host;
+  }
+
+  public Integer getPort() {
+    return port;
+  }
+
+  public void setPort(Integer port) {
+    this.port = port;
+  }
+
+  public String getCert() {
+    return cert;
+  }
+
+  public void setCert(String cert) {
+    this.cert = cert;
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  public void setTopic(String topic) {
+    this.topic = topic;
+  }
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  public int getWindow() {
+    return window;
+  }
+
+  public void setWindow(int window) {
+    this.window = window;
+  }
+
+  public int getMaxQueuedBatches() {
+    return maxQueuedBatches;
+  }
+
+  public void setMaxQueuedBatches(int maxQueuedBatches) {
+    this.maxQueuedBatches = maxQueuedBatches;
+  }
+
+  public int getConnections() {
+    return connections;
+  }
+
+  public void setConnections(int connections) {
+    this.connections = connections;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public void setClientId(String clientId) {
+    this.clientId = clientId;
+  }
+
+  public String getEncoding() {
+    return encoding;
+  }
+
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  public Batch getBatch() {
+    return batch;
+  }
+
+  public Topics getTopics() {
+    return topics;
+  }
+
+  public Spool getSpool() {
+    return spool;
+  }
+
+  public Reconnect getReconnect() {
+    return reconnect;
+  }
+
+  // mqtt.batch.*, for the batch encoding
+  public static class Batch {
+
+    private int maxKeys = 10000;
+
+    public int getMaxKeys() {
+      return maxKeys;
+    }
+
+    public void setMaxKeys(int maxKeys) {
+      this.maxKeys = maxKeys;
+    }
+  }
+
+  // mqtt.topics.*, for the topic encoding
+  public static class Topics {
+
+    private String template = "{topic}/{source}/{path}";
+    private boolean retain = true;
+    private int maxKeys = 10000;
+
+    public String getTemplate() {
+      return template;
+    }
+
+    public void setTemplate(String template) {
+      this.template = template;
+    }
+
+    public boolean isRetain() {
+      return retain;
+    }
+
+    public void setRetain(boolean retain) {
+      this.retain = retain;
+    }
+
+    public int getMaxKeys() {
+      return maxKeys;
+    }
+
+    public void setMaxKeys(int maxKeys) {
+      this.maxKeys = maxKeys;
+    }
+  }
+
+  // mqtt.spool.*; without a directory nothing is spooled
+  public static class Spool {
+
+    private String directory;
+    private int segmentMegabytes = 16;
+    private int maxMegabytes = 512;
+
+    public String getDirectory() {
+      return directory;
+    }
+
+    public void setDirectory(String directory) {
+      this.directory = directory;
+    }
+
+    public int getSegmentMegabytes() {
+      return segmentMegabytes;
+    }
+
+    public void setSegmentMegabytes(int segmentMegabytes) {
+      this.segmentMegabytes = segmentMegabytes;
+    }
+
+    public int getMaxMegabytes() {
+      return maxMegabytes;
+    }
+
+    public void setMaxMegabytes(int maxMegabytes) {
+      this.maxMegabytes = maxMegabytes;
+    }
+  }
+
+  // mqtt.reconnect.*, the bounds of the reconnection backoff
+  public static class Reconnect {
+
+    private long initialDelayMillis = 500;
+    private long maxDelayMillis = 30000;
+
+    public long getInitialDelayMillis() {
+      return initialDelayMillis;
+    }
+
+    public void setInitialDelayMillis(long initialDelayMillis) {
+      this.initialDelayMillis = initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+      return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+      this.maxDelayMillis = maxDelayMillis;
+    }
+  }
+
+}
@@ -1,15 +1,18 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import org.apache.log4j.Logger;
-import org.fusesource.mqtt.client.BlockingConnection;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.mqtt.client.Future;
 import org.fusesource.mqtt.client.MQTT;
 import org.fusesource.mqtt.client.QoS;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixAvailabilityMetricsSource;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
 
+import javax.annotation.PreDestroy;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.File;
@@ -23,27 +26,77 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Publishes to the MQTT broker, reconnecting with backoff whenever the connection is lost.
+ * With mqtt.connections above one, that many connections are opened, each with its own client id, and every metric
+ * is sent on the connection its key hashes to, so the messages for a key stay in order; while a connection is down
+ * its keys move to the next connection which is up. Whenever the set of connections which are up changes, publishing waits
+ * for the messages already in flight, so none of a moved key's messages overtake those still queued on its old connection.
+ * While the broker is unreachable messages are written to the spool in mqtt.spool.directory, if one is configured,
+ * and are replayed in order once a connection is back; later messages wait behind them until the spool is empty.
+ */
 @Component
-public class MQTTPublisher implements MetricsDestination {
+public class MQTTPublisher implements MetricBatchDestination {
 
-  private static final Logger log = Logger.getLogger(ZabbixAvailabilityMetricsSource.class);
+  private static final Logger log = Logger.getLogger(MQTTPublisher.class);
 
-  private final String topic;
+  private static final String BATCH_ENCODING = "batch";
+  private static final String TOPIC_ENCODING = "topic";
+  private static final long CONNECT_TIMEOUT_SECONDS = 10;
+  private static final long PUBLISH_TIMEOUT_SECONDS = 30;
+  // How often idle connections are checked
+  private static final long CHECK_MILLIS = 1000;
+  private static final long MEGABYTE = 1024 * 1024;
 
-  private final MQTT mqtt;
-  private final BlockingConnection connection;
+  private final MessageEncoder encoder;
+
+  private final List<MQTTShard> shards;
+  private final boolean async;
+  private final MessageSpool spool;
+  private final int window;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final Thread reconnector;
+  private final Object signal = new Object();
+  // Which connections were up when the last batch was routed; only used by the publishing thread
+  private boolean[] routedOver;
+
+  private volatile boolean running = true;
 
   @Autowired
-  public MQTTPublisher(
-          @Value("${mqtt.host}") String host,
-          @Value("${mqtt.port}") Integer port,
-          @Value("${mqtt.cert}") String cert,
-          @Value("${mqtt.topic}") String topic) throws Exception {
-    this.topic = topic;
-
-    mqtt = new MQTT();
+  public MQTTPublisher(MQTTProperties properties, Instrumentation instrumentation) throws Exception {
+    final String host = properties.getHost();
+    final Integer port = properties.getPort();
+    final String cert = properties.getCert();
+    final String topic = properties.getTopic();
+    final String encoding = properties.getEncoding();
+    final int maxQueuedBatches = properties.getMaxQueuedBatches();
+    final int connections = properties.getConnections();
+    final String clientId = properties.getClientId();
+    final String topicTemplate = properties.getTopics().getTemplate();
+    final String spoolDirectory = properties.getSpool().getDirectory();
+    if (connections < 1) {
+      throw new IllegalArgumentException("mqtt.connections must be at least 1, but was " + connections);
+    }
+
+    if (BATCH_ENCODING.equals(encoding)) {
+      log.info("Publishing batch encoded messages to: " + topic);
+      this.encoder = new BatchMessageEncoder(topic, properties.getBatch().getMaxKeys());
+    } else if (TOPIC_ENCODING.equals(encoding)) {
+      log.info("Publishing each metric to its own topic under: " + topicTemplate.replace("{topic}", topic));
+      this.encoder = new TopicMessageEncoder(topic, topicTemplate, properties.getTopics().isRetain(), properties.getTopics().getMaxKeys());
+    } else {
+      this.encoder = new LineMessageEncoder(topic);
+    }
+
+    final MQTT mqtt = new MQTT();
     if (!Strings.isNullOrEmpty(cert)) {
       String connect = "tls://" + host + ":" + port;
       log.info("Making MQTT connection to: " + connect);
@@ -54,27 +107,344 @@ public class MQTTPublisher implements MetricsDestination {
       log.info("Making MQTT connection to: " + connect);
       mqtt.setHost(connect);
     }
+    // Reconnection is handled here rather than by the client, so that a lost connection is noticed and messages spooled
+    mqtt.setConnectAttemptsMax(1);
+    mqtt.setReconnectAttemptsMax(0);
+
+    this.async = properties.isAsync();
+    this.window = properties.getWindow();
+    this.initialDelayMillis = properties.getReconnect().getInitialDelayMillis();
+    this.maxDelayMillis = properties.getReconnect().getMaxDelayMillis();
+
+    if (!Strings.isNullOrEmpty(spoolDirectory)) {
+      log.info("Spooling messages to " + spoolDirectory + " while the broker is unreachable");
+      spool = new MessageSpool(new File(spoolDirectory), (int) (properties.getSpool().getSegmentMegabytes() * MEGABYTE), properties.getSpool().getMaxMegabytes() * MEGABYTE);
+      instrumentation.registerQueueDepth(getClass().getSimpleName() + ".spool", spool::size);
+    } else {
+      spool = null;
+    }
+
+    if (async) {
+      log.info("Publishing asynchronously with up to " + window + " messages in flight and " + maxQueuedBatches + " batches queued per connection");
+    }
 
-    connection = mqtt.blockingConnection();
-    connection.connect();
+    // Client ids must be unique on the broker, so several routers sharing one need distinct ids
+    final String clientIdPrefix = !Strings.isNullOrEmpty(clientId) ? clientId : "metrics-" + Integer.toHexString(new Random().nextInt());
+    shards = Lists.newArrayListWithCapacity(connections);
+    for (int i = 0; i < connections; i++) {
+      final int index = i;
+      final PipelinedPublisher pipelinedPublisher = async ?
+              new PipelinedPublisher("mqtt-sender-" + i, window, maxQueuedBatches, (message, failure) -> failed(shards.get(index), Collections.singletonList(message), failure)) : null;
+      final MQTTShard shard = new MQTTShard(i, clientIdPrefix + "-" + i, new MQTT(mqtt), pipelinedPublisher);
+      shard.resetBackoff(initialDelayMillis);
+      shards.add(shard);
+      if (async) {
+        instrumentation.registerQueueDepth(getClass().getSimpleName() + ".sender-" + i, shard::getQueuedBatches);
+      }
+    }
+
+    for (MQTTShard shard : shards) {
+      if (!shard.connect(CONNECT_TIMEOUT_SECONDS)) {
+        log.warn("Could not connect to the MQTT broker as " + shard.getClientId() + "; will keep retrying");
+      }
+    }
+    reconnector = new Thread(this::maintainConnections, "mqtt-reconnect");
+    reconnector.setDaemon(true);
+    reconnector.start();
   }
 
   @Override
-  public void publishMetrics(Map<String, String> metrics) {
+  public void publish(MetricBatch metrics) {
+    final List<MQTTMessage> messages = encoder.encode(metrics);
+    // Routed against one view of the connections, so every message in the batch sees the same one
+    final boolean[] connected = new boolean[shards.size()];
+    boolean anyConnected = false;
+    for (MQTTShard shard : shards) {
+      connected[shard.getIndex()] = shard.isConnected();
+      anyConnected |= connected[shard.getIndex()];
+    }
+    if (async && !Arrays.equals(connected, routedOver)) {
+      // Batches queued on a lost connection fail one message at a time and must all reach the spool before this one,
+      // and keys moving between connections must not overtake their messages still queued on the old one
+      awaitAll();
+    }
+    routedOver = connected;
+    if (!anyConnected || (spool != null && !spool.isEmpty())) {
+      spool(messages);
+      return;
+    }
+
+    final List<List<MQTTMessage>> routed = Lists.newArrayListWithCapacity(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      routed.add(Lists.newArrayList());
+    }
+    final List<MQTTMessage> unrouted = Lists.newArrayList();
+    for (MQTTMessage message : messages) {
+      final MQTTShard shard = route(message, connected);
+      if (shard != null) {
+        routed.get(shard.getIndex()).add(message);
+      } else {
+        unrouted.add(message);
+      }
+    }
+
+    if (async) {
+      for (MQTTShard shard : shards) {
+        final List<MQTTMessage> shardMessages = routed.get(shard.getIndex());
+        if (!shardMessages.isEmpty()) {
+          shard.sendPipelined(shardMessages);
+        }
+      }
+    } else {
+      send(routed);
+    }
+    if (!unrouted.isEmpty()) {
+      spool(unrouted);
+    }
+  }
+
+  // True while at least one connection is up, so messages can be published rather than spooled
+  public boolean isConnected() {
+    for (MQTTShard shard : shards) {
+      if (shard.isConnected()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<MQTTShard> getShards() {
+    return Collections.unmodifiableList(shards);
+  }
+
+  public int getSpooled() {
+    return spool != null ? spool.size() : 0;
+  }
+
+  public long getSpoolDropped() {
+    return spool != null ? spool.getDropped() : 0;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    running = false;
+    synchronized (signal) {
+      signal.notifyAll();
+    }
     try {
-      for (String metric : metrics.keySet()) {
-        String value = metrics.get(metric);
-        publish(connection, metric, value);
+      reconnector.join(CONNECT_TIMEOUT_SECONDS * 1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (MQTTShard shard : shards) {
+      shard.shutdown();
+    }
+    if (spool != null) {
+      spool.close();
+    }
+  }
+
+  private void awaitAll() {
+    for (MQTTShard shard : shards) {
+      try {
+        if (!shard.awaitIdle(PUBLISH_TIMEOUT_SECONDS * 1000)) {
+          log.warn("Gave up waiting for the messages queued on " + shard.getClientId() + " to complete");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
       }
+    }
+  }
 
-    } catch (Exception e) {
+  // Picks the connection a message's key hashes to, or the next one round from it which is up
+  private MQTTShard route(MQTTMessage message, boolean[] connected) {
+    final int home = shardOf(message);
+    for (int i = 0; i < shards.size(); i++) {
+      final MQTTShard shard = shards.get((home + i) % shards.size());
+      if (connected[shard.getIndex()]) {
+        if (i > 0) {
+          shard.rerouted(1);
+        }
+        return shard;
+      }
+    }
+    return null;
+  }
+
+  // Messages without a key are placed by topic
+  private int shardOf(MQTTMessage message) {
+    if (shards.size() == 1) {
+      return 0;
+    }
+    final int hash = message.getKey() != null ? message.getKey().hashCode() : hash(message.getTopic());
+    // Spread the low bits, which String.hashCode leaves clustered for similar keys
+    return Math.floorMod(hash * 0x9E3779B9, shards.size());
+  }
+
+  private int hash(Buffer buffer) {
+    int hash = 0;
+    for (int i = buffer.getOffset(); i < buffer.getOffset() + buffer.getLength(); i++) {
+      hash = 31 * hash + buffer.getData()[i];
+    }
+    return hash;
+  }
+
+  // Sends every connection's messages before waiting on any of them, so the connections work in parallel.
+  // Each message is judged by its own future, so only those which did not complete are spooled, and those which
+  // only timed out are spooled without giving up on a connection which may still be up
+  private void send(List<List<MQTTMessage>> routed) {
+    final List<List<Future<Void>>> sent = Lists.newArrayListWithCapacity(shards.size());
+    for (MQTTShard shard : shards) {
+      final List<MQTTMessage> shardMessages = routed.get(shard.getIndex());
+      final List<Future<Void>> futures = Lists.newArrayListWithCapacity(shardMessages.size());
+      for (MQTTMessage message : shardMessages) {
+        futures.add(shard.send(message, message.getQos()));
+      }
+      sent.add(futures);
+    }
+
+    final long deadline = System.currentTimeMillis() + PUBLISH_TIMEOUT_SECONDS * 1000;
+    RuntimeException failure = null;
+    for (MQTTShard shard : shards) {
+      final List<MQTTMessage> shardMessages = routed.get(shard.getIndex());
+      final List<Future<Void>> futures = sent.get(shard.getIndex());
+      final List<MQTTMessage> incomplete = Lists.newArrayList();
+      int failed = 0;
+      Exception cause = null;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          incomplete.add(shardMessages.get(i));
+        } catch (Exception e) {
+          incomplete.add(shardMessages.get(i));
+          failed++;
+          cause = e;
+        }
+      }
+      if (incomplete.isEmpty()) {
+        continue;
+      }
+      if (cause != null) {
+        connectionLost(shard, failed, cause);
+      } else {
+        log.warn("Timed out publishing " + incomplete.size() + " messages on " + shard.getClientId());
+      }
+      try {
+        spool(incomplete);
+      } catch (RuntimeException dropped) {
+        failure = dropped;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // Without a spool, messages which cannot be sent are lost, as they were before reconnection was handled
+  private void spool(List<MQTTMessage> messages) {
+    if (spool == null) {
+      throw new RuntimeException("Not connected to the MQTT broker; dropped " + messages.size() + " messages");
+    }
+    try {
+      for (MQTTMessage message : messages) {
+        spool.append(message);
+      }
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private void publish(BlockingConnection connection, String metric, String value) throws Exception {
-    final String message = metric + (!Strings.isNullOrEmpty(value) ? ":" + value : "");
-    connection.publish(topic, message.getBytes(), QoS.AT_MOST_ONCE, false);
+  // Messages a connection failed to send are spooled, and replayed on whichever connection is up
+  private void failed(MQTTShard shard, List<MQTTMessage> messages, Throwable cause) {
+    connectionLost(shard, messages.size(), cause);
+    if (!messages.isEmpty() && (spool != null || !async)) {
+      spool(messages);
+    }
+  }
+
+  private void connectionLost(MQTTShard shard, int messages, Throwable cause) {
+    if (shard.failed(messages)) {
+      log.warn("Lost connection " + shard.getClientId() + " to the MQTT broker: " + cause);
+      synchronized (signal) {
+        signal.notifyAll();
+      }
+    }
+  }
+
+  // Reconnects each connection with its own exponential backoff, and replays the spool whenever one is up
+  private void maintainConnections() {
+    while (running) {
+      final long now = System.currentTimeMillis();
+      long wait = CHECK_MILLIS;
+      for (MQTTShard shard : shards) {
+        if (shard.isConnected()) {
+          if (!shard.isAlive()) {
+            connectionLost(shard, 0, new IOException("connection closed"));
+          }
+          continue;
+        }
+        if (shard.isDue(now)) {
+          if (shard.connect(CONNECT_TIMEOUT_SECONDS)) {
+            log.info("Reconnected " + shard.getClientId() + " to the MQTT broker" + (spool != null ? " with " + spool.size() + " spooled messages to replay" : ""));
+            shard.resetBackoff(initialDelayMillis);
+            continue;
+          }
+          shard.backOff(now, maxDelayMillis);
+        }
+        wait = Math.min(wait, shard.getNextAttempt() - now);
+      }
+
+      if (spool != null && !spool.isEmpty() && replay()) {
+        continue;
+      }
+      await(Math.max(1, wait));
+    }
+  }
+
+  // Sends a window of spooled messages at a time on one connection, so they stay in order,
+  // and only acknowledges them once the broker has
+  private boolean replay() {
+    MQTTShard shard = null;
+    for (MQTTShard candidate : shards) {
+      if (candidate.isConnected()) {
+        shard = candidate;
+        break;
+      }
+    }
+    if (shard == null) {
+      return false;
+    }
+
+    final MessageSpool.Replay replay = spool.read(window);
+    final List<Future<Void>> sent = Lists.newArrayListWithCapacity(replay.getMessages().size());
+    try {
+      for (MQTTMessage message : replay.getMessages()) {
+        sent.add(shard.send(message, QoS.AT_LEAST_ONCE));
+      }
+      for (Future<Void> future : sent) {
+        future.await(PUBLISH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      spool.acknowledge(replay);
+      return true;
+    } catch (Exception e) {
+      connectionLost(shard, 0, e);
+      return false;
+    }
+  }
+
+  private void await(long millis) {
+    synchronized (signal) {
+      try {
+        if (running) {
+          signal.wait(millis);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+    }
   }
 
   private SSLContext sslContext(String cert) throws NoSuchAlgorithmException, KeyStoreException, CertificateException, IOException, KeyManagementException {
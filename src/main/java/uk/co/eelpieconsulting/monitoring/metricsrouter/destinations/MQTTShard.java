@@ -0,0 +1,163 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.fusesource.mqtt.client.Future;
+import org.fusesource.mqtt.client.FutureConnection;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.QoS;
+
+/**
+ * One of the MQTT publisher's broker connections, with its own client id, sender and health counters.
+ * Connection state is changed only by the publisher's reconnect thread, or when a send fails.
+ */
+public class MQTTShard {
+
+  private final int index;
+  private final String clientId;
+  private final MQTT mqtt;
+  private final PipelinedPublisher pipelinedPublisher;
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder rerouted = new LongAdder();
+  private final LongAdder reconnects = new LongAdder();
+
+  private volatile FutureConnection connection;
+  private volatile boolean connected = false;
+
+  // Backoff state, only touched by the reconnect thread
+  private long delay;
+  private long nextAttempt;
+
+  MQTTShard(int index, String clientId, MQTT mqtt, PipelinedPublisher pipelinedPublisher) {
+    this.index = index;
+    this.clientId = clientId;
+    this.mqtt = mqtt;
+    mqtt.setClientId(clientId);
+    this.pipelinedPublisher = pipelinedPublisher;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  public long getPublished() {
+    return published.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  // Messages sent here because the shard their key hashes to was down
+  public long getRerouted() {
+    return rerouted.sum();
+  }
+
+  public long getReconnects() {
+    return reconnects.sum();
+  }
+
+  public int getQueuedBatches() {
+    return pipelinedPublisher != null ? pipelinedPublisher.getQueuedBatches() : 0;
+  }
+
+  Future<Void> send(MQTTMessage message, QoS qos) {
+    published.increment();
+    return connection.publish(message.getTopic(), message.getPayload(), qos, message.isRetain());
+  }
+
+  void sendPipelined(List<MQTTMessage> messages) {
+    published.add(messages.size());
+    pipelinedPublisher.publish(connection, messages);
+  }
+
+  // Waits until the batches already queued on this connection have been sent or handed back as failed
+  boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+    return pipelinedPublisher == null || pipelinedPublisher.awaitIdle(timeoutMillis);
+  }
+
+  void rerouted(int messages) {
+    rerouted.add(messages);
+  }
+
+  // Returns whether this failure is the one which took the shard down
+  synchronized boolean failed(int messages) {
+    failed.add(messages);
+    if (!connected) {
+      return false;
+    }
+    connected = false;
+    return true;
+  }
+
+  boolean isAlive() {
+    return connection != null && connection.isConnected();
+  }
+
+  // Drops the connection without telling the broker, as a network failure would
+  void kill() {
+    if (connection != null) {
+      connection.kill();
+    }
+  }
+
+  boolean connect(long timeoutSeconds) {
+    final FutureConnection candidate = mqtt.futureConnection();
+    try {
+      candidate.connect().await(timeoutSeconds, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      candidate.kill();
+      return false;
+    }
+    final FutureConnection previous = connection;
+    synchronized (this) {
+      connection = candidate;
+      connected = true;
+    }
+    if (previous != null) {
+      previous.kill();
+      reconnects.increment();
+    }
+    return true;
+  }
+
+  boolean isDue(long now) {
+    return now >= nextAttempt;
+  }
+
+  long getNextAttempt() {
+    return nextAttempt;
+  }
+
+  void resetBackoff(long initialDelayMillis) {
+    delay = initialDelayMillis;
+    nextAttempt = 0;
+  }
+
+  void backOff(long now, long maxDelayMillis) {
+    nextAttempt = now + delay;
+    delay = Math.min(delay * 2, maxDelayMillis);
+  }
+
+  void shutdown() {
+    if (pipelinedPublisher != null) {
+      pipelinedPublisher.shutdown();
+    }
+    if (connection != null) {
+      connection.disconnect();
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+/**
+ * Publishes the health of each MQTT connection and how much traffic it has carried, failed or picked up from others.
+ */
+@Component
+public class MQTTShardMetricsSource implements MetricBatchSource {
+
+  private static final String PREFIX = "metricsrouter.mqtt.";
+
+  private final MQTTPublisher mqttPublisher;
+
+  @Autowired
+  public MQTTShardMetricsSource(MQTTPublisher mqttPublisher) {
+    this.mqttPublisher = mqttPublisher;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    for (MQTTShard shard : mqttPublisher.getShards()) {
+      final String prefix = PREFIX + "connection." + shard.getIndex() + ".";
+      metrics.addBoolean(prefix + "connected", shard.isConnected());
+      metrics.addLong(prefix + "published", shard.getPublished());
+      metrics.addLong(prefix + "failed", shard.getFailed());
+      metrics.addLong(prefix + "rerouted", shard.getRerouted());
+      metrics.addLong(prefix + "reconnects", shard.getReconnects());
+    }
+    metrics.addLong(PREFIX + "spooled", mqttPublisher.getSpooled());
+    metrics.addLong(PREFIX + "spoolDropped", mqttPublisher.getSpoolDropped());
+  }
+
+  @Override
+  public int getInterval() {
+    return 60;
+  }
+
+}
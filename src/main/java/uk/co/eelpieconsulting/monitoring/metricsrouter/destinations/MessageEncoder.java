@@ -0,0 +1,11 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+public interface MessageEncoder {
+
+  public List<MQTTMessage> encode(MetricBatch metrics);
+
+}
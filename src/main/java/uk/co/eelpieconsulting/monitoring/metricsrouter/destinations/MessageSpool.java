@@ -0,0 +1,258 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A durable, append-only journal of MQTT messages which could not be sent to the broker.
+ * Messages are written to fixed size memory-mapped segment files which roll when full. Each segment's header records how far
+ * it has been acknowledged, so replay resumes where it left off after a restart, and fully acknowledged segments are deleted.
+ * When the spool reaches its size cap the oldest segment is discarded to make room for new messages.
+ */
+public class MessageSpool {
+
+  private static final Logger log = Logger.getLogger(MessageSpool.class);
+
+  private static final int MAGIC = 0x4d525331;
+  private static final int ACKNOWLEDGED_OFFSET = 4;
+  private static final int HEADER_BYTES = 8;
+  // Record length, flags and topic length precede the topic and payload bytes
+  private static final int RECORD_HEADER_BYTES = 4 + 1 + 2;
+  private static final byte RETAIN = 1;
+  private static final String SUFFIX = ".segment";
+
+  private final File directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long nextId = 0;
+  private int pending = 0;
+  private long dropped = 0;
+
+  public MessageSpool(File directory, int segmentBytes, long maxBytes) throws IOException {
+    if (segmentBytes <= HEADER_BYTES + RECORD_HEADER_BYTES) {
+      throw new IllegalArgumentException("Spool segments are too small to hold a message");
+    }
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create spool directory: " + directory);
+    }
+
+    final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    final long[] ids = new long[files != null ? files.length : 0];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = Long.parseLong(files[i].getName().substring(0, files[i].getName().length() - SUFFIX.length()));
+    }
+    Arrays.sort(ids);
+    for (long id : ids) {
+      final Segment segment = new Segment(id, false);
+      segments.add(segment);
+      pending += segment.count(segment.acknowledged, segment.written);
+      nextId = id + 1;
+    }
+    if (pending > 0) {
+      log.info("Found " + pending + " spooled messages in " + segments.size() + " segments in " + directory);
+    }
+  }
+
+  public synchronized void append(MQTTMessage message) throws IOException {
+    final Buffer topic = message.getTopic();
+    final Buffer payload = message.getPayload();
+    final int length = RECORD_HEADER_BYTES + topic.length() + payload.length();
+    if (length > segmentBytes - HEADER_BYTES) {
+      throw new IllegalArgumentException("A " + length + " byte message does not fit in a spool segment");
+    }
+
+    Segment segment = segments.peekLast();
+    if (segment == null || segment.written + length > segmentBytes) {
+      segment = roll();
+    }
+    segment.write(topic, payload, message.isRetain());
+    pending++;
+  }
+
+  // Reads up to max unacknowledged messages from the oldest segment; they are read again until acknowledged
+  public synchronized Replay read(int max) {
+    deleteAcknowledged();
+    final Segment segment = segments.peekFirst();
+    if (segment == null || segment.acknowledged == segment.written) {
+      return new Replay(null, 0, Collections.<MQTTMessage>emptyList());
+    }
+    final List<MQTTMessage> messages = Lists.newArrayListWithCapacity(Math.min(max, pending));
+    int position = segment.acknowledged;
+    while (position < segment.written && messages.size() < max) {
+      position = segment.read(position, messages);
+    }
+    return new Replay(segment, position, messages);
+  }
+
+  public synchronized void acknowledge(Replay replay) {
+    if (replay.segment == null || !segments.contains(replay.segment) || replay.end <= replay.segment.acknowledged) {
+      return;
+    }
+    pending -= replay.segment.count(replay.segment.acknowledged, replay.end);
+    replay.segment.acknowledge(replay.end);
+    deleteAcknowledged();
+  }
+
+  public synchronized boolean isEmpty() {
+    return pending == 0;
+  }
+
+  public synchronized int size() {
+    return pending;
+  }
+
+  public synchronized int getSegments() {
+    return segments.size();
+  }
+
+  // Messages discarded by the size cap before they could be replayed
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  public synchronized void close() {
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  private Segment roll() throws IOException {
+    final Segment last = segments.peekLast();
+    if (last != null) {
+      last.buffer.force();
+    }
+    while (segments.size() >= maxSegments) {
+      final Segment oldest = segments.removeFirst();
+      final int discarded = oldest.count(oldest.acknowledged, oldest.written);
+      pending -= discarded;
+      dropped += discarded;
+      oldest.delete();
+      log.warn("Spool is full; discarded " + discarded + " unsent messages");
+    }
+    final Segment segment = new Segment(nextId++, true);
+    segments.add(segment);
+    return segment;
+  }
+
+  // Every segment but the one being written to is deleted once all of its messages are acknowledged
+  private void deleteAcknowledged() {
+    while (segments.size() > 1 && segments.peekFirst().acknowledged == segments.peekFirst().written) {
+      segments.removeFirst().delete();
+    }
+  }
+
+  public static class Replay {
+
+    private final Segment segment;
+    private final int end;
+    private final List<MQTTMessage> messages;
+
+    private Replay(Segment segment, int end, List<MQTTMessage> messages) {
+      this.segment = segment;
+      this.end = end;
+      this.messages = messages;
+    }
+
+    public List<MQTTMessage> getMessages() {
+      return messages;
+    }
+  }
+
+  private class Segment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int written;
+    private int acknowledged;
+
+    private Segment(long id, boolean create) throws IOException {
+      this.file = new File(directory, String.format("%020d", id) + SUFFIX);
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(segmentBytes);
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+      }
+      if (create || buffer.getInt(0) != MAGIC) {
+        buffer.putInt(ACKNOWLEDGED_OFFSET, HEADER_BYTES);
+        buffer.putInt(0, MAGIC);
+      }
+      acknowledged = Math.max(HEADER_BYTES, Math.min(buffer.getInt(ACKNOWLEDGED_OFFSET), segmentBytes));
+
+      // A record's length is written last, so a record cut short by a crash reads as the end of the segment
+      int position = HEADER_BYTES;
+      while (position + RECORD_HEADER_BYTES <= segmentBytes) {
+        final int length = buffer.getInt(position);
+        if (length < RECORD_HEADER_BYTES || position + length > segmentBytes) {
+          break;
+        }
+        position += length;
+      }
+      written = position;
+      acknowledged = Math.min(acknowledged, written);
+    }
+
+    private void write(Buffer topic, Buffer payload, boolean retain) {
+      buffer.put(written + 4, retain ? RETAIN : 0);
+      buffer.putShort(written + 5, (short) topic.length());
+      final ByteBuffer body = buffer.duplicate();
+      body.position(written + RECORD_HEADER_BYTES);
+      body.put(topic.data, topic.offset, topic.length());
+      body.put(payload.data, payload.offset, payload.length());
+      buffer.putInt(written, body.position() - written);
+      written = body.position();
+    }
+
+    private int read(int position, List<MQTTMessage> messages) {
+      final int length = buffer.getInt(position);
+      final boolean retain = (buffer.get(position + 4) & RETAIN) != 0;
+      final int topicLength = buffer.getShort(position + 5) & 0xffff;
+      final byte[] topic = new byte[topicLength];
+      final byte[] payload = new byte[length - RECORD_HEADER_BYTES - topicLength];
+      final ByteBuffer body = buffer.duplicate();
+      body.position(position + RECORD_HEADER_BYTES);
+      body.get(topic);
+      body.get(payload);
+      messages.add(new MQTTMessage(new UTF8Buffer(topic), new Buffer(payload), retain));
+      return position + length;
+    }
+
+    private int count(int from, int to) {
+      int count = 0;
+      for (int position = from; position < to; position += buffer.getInt(position)) {
+        count++;
+      }
+      return count;
+    }
+
+    private void acknowledge(int position) {
+      acknowledged = position;
+      buffer.putInt(ACKNOWLEDGED_OFFSET, position);
+    }
+
+    // The mapping itself is released when the buffer is collected
+    private void delete() {
+      if (!file.delete()) {
+        log.warn("Could not delete spool segment: " + file);
+      }
+    }
+  }
+
+}
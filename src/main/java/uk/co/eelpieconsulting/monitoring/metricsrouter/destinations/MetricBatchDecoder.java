@@ -0,0 +1,82 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Decodes messages written by BatchMessageEncoder back into the metrics map which was published.
+ * Consumers should subscribe to both the batch topic and its retained dictionary topic,
+ * passing dictionary messages to updateDictionary and batch messages to decode.
+ */
+public class MetricBatchDecoder {
+
+  private long epoch = -1;
+  private String[] keys = new String[0];
+
+  public synchronized void updateDictionary(byte[] payload) {
+    final ByteBuffer in = ByteBuffer.wrap(payload);
+    checkVersion(in);
+    final long dictionaryEpoch = BatchFormat.readVarint(in);
+    final String[] dictionaryKeys = new String[(int) BatchFormat.readVarint(in)];
+    for (int i = 0; i < dictionaryKeys.length; i++) {
+      dictionaryKeys[i] = new String(BatchFormat.readBytes(in), StandardCharsets.UTF_8);
+    }
+    epoch = dictionaryEpoch;
+    keys = dictionaryKeys;
+  }
+
+  public synchronized boolean canDecode(byte[] payload) {
+    final ByteBuffer in = ByteBuffer.wrap(payload);
+    checkVersion(in);
+    return BatchFormat.readVarint(in) == epoch && BatchFormat.readVarint(in) <= keys.length;
+  }
+
+  public synchronized Map<String, String> decode(byte[] payload) {
+    final ByteBuffer in = ByteBuffer.wrap(payload);
+    checkVersion(in);
+    final long batchEpoch = BatchFormat.readVarint(in);
+    final long dictionarySize = BatchFormat.readVarint(in);
+    if (batchEpoch != epoch || dictionarySize > keys.length) {
+      throw new IllegalStateException("Batch needs dictionary epoch " + batchEpoch + " with " + dictionarySize + " keys but have epoch " + epoch + " with " + keys.length);
+    }
+
+    final int count = (int) BatchFormat.readVarint(in);
+    final Map<String, String> metrics = Maps.newLinkedHashMap();
+    for (int i = 0; i < count; i++) {
+      final String key = keys[(int) BatchFormat.readVarint(in)];
+      metrics.put(key, readValue(in));
+    }
+    return metrics;
+  }
+
+  private String readValue(ByteBuffer in) {
+    final byte type = in.get();
+    switch (type) {
+      case BatchFormat.NULL:
+        return null;
+      case BatchFormat.LONG:
+        return Long.toString(BatchFormat.readZigZag(in));
+      case BatchFormat.DOUBLE:
+        return Double.toString(in.getDouble());
+      case BatchFormat.TRUE:
+        return "true";
+      case BatchFormat.FALSE:
+        return "false";
+      case BatchFormat.TEXT:
+        return new String(BatchFormat.readBytes(in), StandardCharsets.UTF_8);
+      default:
+        throw new IllegalArgumentException("Unknown value type: " + type);
+    }
+  }
+
+  private void checkVersion(ByteBuffer in) {
+    final byte version = in.get();
+    if (version != BatchFormat.VERSION) {
+      throw new IllegalArgumentException("Unsupported batch format version: " + version);
+    }
+  }
+
+}
@@ -0,0 +1,17 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.Map;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+public interface MetricBatchDestination extends MetricsDestination {
+
+  // The batch is reused once this returns, so implementations must not hold on to it
+  public void publish(MetricBatch batch);
+
+  @Override
+  public default void publishMetrics(Map<String, String> metrics) {
+    publish(MetricBatch.fromMap(metrics));
+  }
+
+}
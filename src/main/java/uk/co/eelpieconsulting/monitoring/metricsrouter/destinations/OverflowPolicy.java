@@ -0,0 +1,17 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+/**
+ * What a destination's queue does with a new batch when it is already full.
+ */
+public enum OverflowPolicy {
+
+  // The poll waits for the destination to make room
+  BLOCK,
+  // The oldest queued batch is discarded to make room
+  DROP_OLDEST,
+  // The new batch is discarded
+  DROP_NEWEST,
+  // Queued batches are merged with the new one, keeping only the latest value of each metric
+  COALESCE
+
+}
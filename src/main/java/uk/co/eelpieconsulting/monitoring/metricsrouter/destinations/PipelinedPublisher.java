@@ -0,0 +1,154 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.fusesource.mqtt.client.Callback;
+import org.fusesource.mqtt.client.FutureConnection;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Publishes batches of messages without waiting for each one to complete.
+ * Up to window messages are kept in flight on the connection; the caller returns as soon as its batch is queued,
+ * unless maxQueuedBatches are already waiting, when it is held back until the sender catches up.
+ * Messages which fail are handed to the failure listener, and a batch only counts as finished once every one of its messages
+ * has succeeded or been handed over, so {@link #awaitIdle} returns only after the failures of everything already queued are known.
+ */
+public class PipelinedPublisher {
+
+  public interface FailureListener {
+    public void failed(MQTTMessage message, Throwable failure);
+  }
+
+  private static final Logger log = Logger.getLogger(PipelinedPublisher.class);
+
+  private final Semaphore window;
+  private final Semaphore queue;
+  private final FailureListener failureListener;
+  private final ExecutorService sender;
+  private final AtomicInteger queuedBatches = new AtomicInteger();
+  // Batches queued or in flight, guarded by this
+  private int pendingBatches = 0;
+
+  public PipelinedPublisher(String name, int window, int maxQueuedBatches, FailureListener failureListener) {
+    this.window = new Semaphore(window);
+    this.queue = new Semaphore(maxQueuedBatches);
+    this.failureListener = failureListener;
+    this.sender = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+  }
+
+  public void publish(final FutureConnection connection, final List<MQTTMessage> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    queue.acquireUninterruptibly();
+    queuedBatches.incrementAndGet();
+    synchronized (this) {
+      pendingBatches++;
+    }
+    try {
+      sender.execute(new Runnable() {
+        @Override
+        public void run() {
+          queuedBatches.decrementAndGet();
+          queue.release();
+          send(connection, batch);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Shut down; the batch never reaches the sender, so must not be waited for
+      queuedBatches.decrementAndGet();
+      queue.release();
+      finished();
+      throw e;
+    }
+  }
+
+  public int getQueuedBatches() {
+    return queuedBatches.get();
+  }
+
+  // Waits until every batch published so far has finished; returns false if some are still pending after the timeout
+  public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (pendingBatches > 0) {
+      final long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  public void shutdown() {
+    sender.shutdown();
+  }
+
+  private void send(FutureConnection connection, List<MQTTMessage> batch) {
+    final BatchCompletion completion = new BatchCompletion(batch.size());
+    for (MQTTMessage message : batch) {
+      window.acquireUninterruptibly();
+      connection.publish(message.getTopic(), message.getPayload(), message.getQos(), message.isRetain()).then(new Callback<Void>() {
+        @Override
+        public void onSuccess(Void value) {
+          window.release();
+          completion.completed(null);
+        }
+
+        @Override
+        public void onFailure(Throwable failure) {
+          window.release();
+          try {
+            failureListener.failed(message, failure);
+          } finally {
+            completion.completed(failure);
+          }
+        }
+      });
+    }
+  }
+
+  private synchronized void finished() {
+    if (--pendingBatches == 0) {
+      notifyAll();
+    }
+  }
+
+  private class BatchCompletion {
+
+    private final int size;
+    private final long started = System.currentTimeMillis();
+    private final AtomicInteger outstanding;
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile Throwable lastFailure;
+
+    private BatchCompletion(int size) {
+      this.size = size;
+      this.outstanding = new AtomicInteger(size);
+    }
+
+    private void completed(Throwable failure) {
+      if (failure != null) {
+        failed.incrementAndGet();
+        lastFailure = failure;
+      }
+      if (outstanding.decrementAndGet() == 0) {
+        final long duration = System.currentTimeMillis() - started;
+        if (failed.get() > 0) {
+          log.warn("Failed to publish " + failed.get() + " of " + size + " messages in batch after " + duration + "ms", lastFailure);
+        } else {
+          log.debug("Published batch of " + size + " messages in " + duration + "ms");
+        }
+        finished();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * Publishes each metric to a topic of its own, with just its value as the payload, so consumers can subscribe
+ * with wildcards to the metrics they want and let the broker do the filtering.
+ * Topics come from a template such as {topic}/{source}/{path}; see Field for the placeholders.
+ * Each key's topic is built once and cached, and messages are retained so new subscribers get current values at once.
+ * The cache holds the maxKeys most recently used topics, so keys which have stopped appearing are evicted first.
+ */
+public class TopicMessageEncoder implements MessageEncoder {
+
+  private enum Field {
+    // The source which polled the metric
+    SOURCE,
+    // The metric key as a single topic level
+    KEY,
+    // The metric key with each dot starting a new topic level
+    PATH
+  }
+
+  private final List<Object> parts = Lists.newArrayList();
+  private final boolean retain;
+  private final int maxKeys;
+
+  private final Map<TopicKey, UTF8Buffer> topics;
+  // Reused to look topics up without allocating, under the encoder's lock
+  private final TopicKey lookup = new TopicKey(null, null);
+
+  public TopicMessageEncoder(String topic, String template, boolean retain, int maxKeys) {
+    this.retain = retain;
+    this.maxKeys = maxKeys;
+    this.topics = new LinkedHashMap<TopicKey, UTF8Buffer>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<TopicKey, UTF8Buffer> eldest) {
+        return size() > TopicMessageEncoder.this.maxKeys;
+      }
+    };
+    parse(template.replace("{topic}", topic));
+  }
+
+  @Override
+  public synchronized List<MQTTMessage> encode(MetricBatch metrics) {
+    final List<MQTTMessage> messages = Lists.newArrayListWithCapacity(metrics.size());
+    for (int i = 0; i < metrics.size(); i++) {
+      final String key = metrics.getKey(i);
+      final String value = Strings.nullToEmpty(metrics.format(i));
+      // A retained empty payload would delete the topic's retained value rather than replace it
+      messages.add(new MQTTMessage(topic(metrics.getSource(i), key), new Buffer(value.getBytes(StandardCharsets.UTF_8)), retain && !value.isEmpty(), key));
+    }
+    return messages;
+  }
+
+  synchronized UTF8Buffer topic(String source, String key) {
+    final String sourceName = Strings.nullToEmpty(source);
+    lookup.source = sourceName;
+    lookup.key = key;
+    UTF8Buffer topic = topics.get(lookup);
+    if (topic == null) {
+      topic = new UTF8Buffer(build(sourceName, key));
+      topics.put(new TopicKey(sourceName, key), topic);
+    }
+    return topic;
+  }
+
+  int getCached() {
+    return topics.size();
+  }
+
+  private String build(String source, String key) {
+    final StringBuilder topic = new StringBuilder();
+    for (Object part : parts) {
+      if (part == Field.SOURCE) {
+        topic.append(level(source));
+      } else if (part == Field.KEY) {
+        topic.append(level(key));
+      } else if (part == Field.PATH) {
+        topic.append(level(key).replace('.', '/'));
+      } else {
+        topic.append(part);
+      }
+    }
+    return topic.toString();
+  }
+
+  // Wildcards can't be published to, and a slash would split the value across levels
+  private static String level(String value) {
+    return value.replace('/', '_').replace('+', '_').replace('#', '_');
+  }
+
+  private static class TopicKey {
+
+    private String source;
+    private String key;
+
+    private TopicKey(String source, String key) {
+      this.source = source;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof TopicKey)) {
+        return false;
+      }
+      final TopicKey topicKey = (TopicKey) other;
+      return source.equals(topicKey.source) && key.equals(topicKey.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * source.hashCode() + key.hashCode();
+    }
+  }
+
+  private void parse(String template) {
+    int from = 0;
+    int open;
+    while ((open = template.indexOf('{', from)) >= 0) {
+      final int close = template.indexOf('}', open);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unclosed placeholder in topic template: " + template);
+      }
+      if (open > from) {
+        parts.add(template.substring(from, open));
+      }
+      final String name = template.substring(open + 1, close);
+      try {
+        parts.add(Field.valueOf(name.toUpperCase()));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown placeholder {" + name + "} in topic template: " + template);
+      }
+      from = close + 1;
+    }
+    if (from < template.length()) {
+      parts.add(template.substring(from));
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.history;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Answers questions about a metric's recent values from the {@link TimeSeriesStore}.
+ * Times are epoch milliseconds; the range defaults to all retained samples.
+ */
+@RestController
+public class HistoryController {
+
+  private final TimeSeriesStore timeSeriesStore;
+
+  @Autowired
+  public HistoryController(TimeSeriesStore timeSeriesStore) {
+    this.timeSeriesStore = timeSeriesStore;
+  }
+
+  @GetMapping("/history")
+  public ResponseEntity<TimeSeries> history(@RequestParam("key") String key,
+                                            @RequestParam(value = "from", defaultValue = "0") long from,
+                                            @RequestParam(value = "to", defaultValue = "" + Long.MAX_VALUE) long to) {
+    final TimeSeries timeSeries = timeSeriesStore.range(key, from, to);
+    if (timeSeries == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(timeSeries, HttpStatus.OK);
+  }
+
+}
@@ -0,0 +1,75 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.history;
+
+/**
+ * A copy of some of a metric's recent samples, oldest first, with summaries over them.
+ */
+public class TimeSeries {
+
+  private final String key;
+  private final long[] timestamps;
+  private final double[] values;
+
+  public TimeSeries(String key, long[] timestamps, double[] values) {
+    this.key = key;
+    this.timestamps = timestamps;
+    this.values = values;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public long[] getTimestamps() {
+    return timestamps;
+  }
+
+  public double[] getValues() {
+    return values;
+  }
+
+  public int getCount() {
+    return values.length;
+  }
+
+  public Long getLatestTimestamp() {
+    return values.length > 0 ? timestamps[values.length - 1] : null;
+  }
+
+  public Double getLatest() {
+    return values.length > 0 ? values[values.length - 1] : null;
+  }
+
+  public Double getMin() {
+    if (values.length == 0) {
+      return null;
+    }
+    double min = values[0];
+    for (double value : values) {
+      min = Math.min(min, value);
+    }
+    return min;
+  }
+
+  public Double getMax() {
+    if (values.length == 0) {
+      return null;
+    }
+    double max = values[0];
+    for (double value : values) {
+      max = Math.max(max, value);
+    }
+    return max;
+  }
+
+  public Double getAverage() {
+    if (values.length == 0) {
+      return null;
+    }
+    double total = 0;
+    for (double value : values) {
+      total += value;
+    }
+    return total / values.length;
+  }
+
+}
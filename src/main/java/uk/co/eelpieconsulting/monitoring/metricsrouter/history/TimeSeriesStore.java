@@ -0,0 +1,157 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.history;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps the last few numeric samples of every metric so recent values can be queried without polling again.
+ * Each key owns a fixed ring of slots in shared primitive arrays; the only objects per key are its name and map entry.
+ * Keys which have not reported for the time to live are dropped and their slots reused.
+ */
+@Component
+public class TimeSeriesStore {
+
+  private static final Logger log = Logger.getLogger(TimeSeriesStore.class);
+
+  private static final int INITIAL_KEYS = 1024;
+
+  private final int samplesPerKey;
+  private final long ttlMillis;
+
+  private final Map<String, Integer> series = Maps.newHashMap();
+  private String[] keys = new String[INITIAL_KEYS];
+  private long[] lastSeen = new long[INITIAL_KEYS];
+  private int[] next = new int[INITIAL_KEYS];
+  private int[] counts = new int[INITIAL_KEYS];
+  private long[] timestamps;
+  private double[] values;
+
+  private int[] freeSlots = new int[INITIAL_KEYS];
+  private int free = 0;
+  private int used = 0;
+  private long nextExpiry = 0;
+
+  @Autowired
+  public TimeSeriesStore(@Value("${history.samples:60}") int samplesPerKey, @Value("${history.ttlSeconds:900}") int ttlSeconds) {
+    if (samplesPerKey < 1) {
+      throw new IllegalArgumentException("History needs at least one sample per key");
+    }
+    this.samplesPerKey = samplesPerKey;
+    this.ttlMillis = ttlSeconds * 1000L;
+    this.timestamps = new long[INITIAL_KEYS * samplesPerKey];
+    this.values = new double[INITIAL_KEYS * samplesPerKey];
+  }
+
+  public synchronized void record(MetricBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      if (batch.isNumeric(i)) {
+        record(batch.getKey(i), batch.getTimestamp(i), batch.getNumericValue(i));
+      }
+    }
+    expire(batch.size() > 0 ? batch.getTimestamp(0) : System.currentTimeMillis());
+  }
+
+  public synchronized void record(String key, long timestamp, double value) {
+    Integer slot = series.get(key);
+    if (slot == null) {
+      slot = allocate(key);
+    }
+    final int offset = slot * samplesPerKey + next[slot];
+    timestamps[offset] = timestamp;
+    values[offset] = value;
+    next[slot] = (next[slot] + 1) % samplesPerKey;
+    counts[slot] = Math.min(counts[slot] + 1, samplesPerKey);
+    lastSeen[slot] = Math.max(lastSeen[slot], timestamp);
+  }
+
+  // The key's samples with from <= timestamp < to, oldest first; null if the key has no history
+  public synchronized TimeSeries range(String key, long from, long to) {
+    final Integer slot = series.get(key);
+    if (slot == null) {
+      return null;
+    }
+    final long[] rangeTimestamps = new long[counts[slot]];
+    final double[] rangeValues = new double[counts[slot]];
+    int size = 0;
+    final int oldest = counts[slot] < samplesPerKey ? 0 : next[slot];
+    for (int i = 0; i < counts[slot]; i++) {
+      final int offset = slot * samplesPerKey + (oldest + i) % samplesPerKey;
+      if (timestamps[offset] >= from && timestamps[offset] < to) {
+        rangeTimestamps[size] = timestamps[offset];
+        rangeValues[size] = values[offset];
+        size++;
+      }
+    }
+    return new TimeSeries(key, Arrays.copyOf(rangeTimestamps, size), Arrays.copyOf(rangeValues, size));
+  }
+
+  public TimeSeries all(String key) {
+    return range(key, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  public synchronized int size() {
+    return series.size();
+  }
+
+  public int getSamplesPerKey() {
+    return samplesPerKey;
+  }
+
+  private int allocate(String key) {
+    final int slot;
+    if (free > 0) {
+      slot = freeSlots[--free];
+    } else {
+      if (used == keys.length) {
+        grow();
+      }
+      slot = used++;
+    }
+    series.put(key, slot);
+    keys[slot] = key;
+    next[slot] = 0;
+    counts[slot] = 0;
+    lastSeen[slot] = Long.MIN_VALUE;
+    return slot;
+  }
+
+  // Expiry sweeps all keys, so it runs at most a few times per time to live
+  private void expire(long now) {
+    if (now < nextExpiry) {
+      return;
+    }
+    nextExpiry = now + Math.max(1, ttlMillis / 4);
+    final int before = series.size();
+    for (int slot = 0; slot < used; slot++) {
+      if (keys[slot] != null && lastSeen[slot] < now - ttlMillis) {
+        series.remove(keys[slot]);
+        keys[slot] = null;
+        freeSlots[free++] = slot;
+      }
+    }
+    if (series.size() < before) {
+      log.debug("Expired history for " + (before - series.size()) + " metrics which stopped reporting");
+    }
+  }
+
+  private void grow() {
+    final int capacity = keys.length * 2;
+    keys = Arrays.copyOf(keys, capacity);
+    lastSeen = Arrays.copyOf(lastSeen, capacity);
+    next = Arrays.copyOf(next, capacity);
+    counts = Arrays.copyOf(counts, capacity);
+    freeSlots = Arrays.copyOf(freeSlots, capacity);
+    timestamps = Arrays.copyOf(timestamps, capacity * samplesPerKey);
+    values = Arrays.copyOf(values, capacity * samplesPerKey);
+  }
+
+}
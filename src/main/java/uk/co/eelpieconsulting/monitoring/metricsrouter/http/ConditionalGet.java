@@ -0,0 +1,39 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.http;
+
+/**
+ * A resource which is polled with conditional GETs.
+ * Remembers the validators of the last response so an unchanged resource is answered with a 304 rather than a body.
+ */
+public class ConditionalGet {
+
+  private final String url;
+  private volatile String etag;
+  private volatile String lastModified;
+
+  public ConditionalGet(String url) {
+    this.url = url;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  String getEtag() {
+    return etag;
+  }
+
+  String getLastModified() {
+    return lastModified;
+  }
+
+  void setValidators(String etag, String lastModified) {
+    this.etag = etag;
+    this.lastModified = lastModified;
+  }
+
+  // Called when the last body could not be used, so that the next request fetches it in full
+  public void reset() {
+    setValidators(null, null);
+  }
+
+}
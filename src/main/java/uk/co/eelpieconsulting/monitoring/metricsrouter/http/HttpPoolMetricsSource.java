@@ -0,0 +1,46 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.http;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+/**
+ * Publishes the usage of the shared HTTP connection pool, in total and for each host.
+ */
+@Component
+public class HttpPoolMetricsSource implements MetricBatchSource {
+
+  private static final String PREFIX = "metricsrouter.http.";
+
+  private final PooledHttpClient pooledHttpClient;
+
+  @Autowired
+  public HttpPoolMetricsSource(PooledHttpClient pooledHttpClient) {
+    this.pooledHttpClient = pooledHttpClient;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    addStats(metrics, PREFIX, pooledHttpClient.getTotalStats());
+    for (HttpRoute route : pooledHttpClient.getRoutes()) {
+      addStats(metrics, PREFIX + route.getTargetHost().getHostName() + ".", pooledHttpClient.getStats(route));
+    }
+  }
+
+  @Override
+  public int getInterval() {
+    return 60;
+  }
+
+  private void addStats(MetricBatch metrics, String prefix, PoolStats stats) {
+    metrics.addLong(prefix + "leased", stats.getLeased());
+    metrics.addLong(prefix + "available", stats.getAvailable());
+    metrics.addLong(prefix + "pending", stats.getPending());
+    metrics.addLong(prefix + "max", stats.getMax());
+  }
+
+}
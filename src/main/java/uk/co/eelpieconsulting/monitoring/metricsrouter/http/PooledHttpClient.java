@@ -0,0 +1,122 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The application's single HTTP client.
+ * Connections are pooled per host and kept alive between polls, so sources polling the same host reuse connections and TLS sessions.
+ */
+@Component
+public class PooledHttpClient {
+
+  private static final Logger log = Logger.getLogger(PooledHttpClient.class);
+
+  private static final long IDLE_CONNECTION_SECONDS = 60;
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+
+  @Autowired
+  public PooledHttpClient(@Value("${http.maxConnections:20}") int maxConnections,
+                          @Value("${http.maxConnectionsPerHost:5}") int maxConnectionsPerHost,
+                          @Value("${http.connectTimeoutMillis:10000}") int connectTimeoutMillis,
+                          @Value("${http.socketTimeoutMillis:30000}") int socketTimeoutMillis,
+                          @Value("${http.connectionRequestTimeoutMillis:10000}") int connectionRequestTimeoutMillis) {
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+    httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS)
+            .evictExpiredConnections()
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectTimeout(connectTimeoutMillis)
+                    .setSocketTimeout(socketTimeoutMillis)
+                    .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                    .build())
+            .build();
+    log.info("HTTP connection pool allows " + maxConnections + " connections, " + maxConnectionsPerHost + " per host");
+  }
+
+  public CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Fetches the resource, sending the validators from its last response.
+   * Returns null if the server says the resource has not been modified since.
+   */
+  public String get(ConditionalGet resource) throws IOException {
+    final HttpGet get = new HttpGet(resource.getUrl());
+    final String etag = resource.getEtag();
+    final String lastModified = resource.getLastModified();
+    if (etag != null) {
+      get.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+    }
+    if (lastModified != null) {
+      get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+    }
+
+    return httpClient.execute(get, response -> {
+      final int status = response.getStatusLine().getStatusCode();
+      if (status == HttpStatus.SC_NOT_MODIFIED) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        return null;
+      }
+      if (status != HttpStatus.SC_OK || response.getEntity() == null) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        throw new IOException("GET " + resource.getUrl() + " returned HTTP status " + status);
+      }
+
+      final String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+      resource.setValidators(value(response.getFirstHeader(HttpHeaders.ETAG)), value(response.getFirstHeader(HttpHeaders.LAST_MODIFIED)));
+      return body;
+    });
+  }
+
+  public PoolStats getTotalStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  public Set<HttpRoute> getRoutes() {
+    return connectionManager.getRoutes();
+  }
+
+  public PoolStats getStats(HttpRoute route) {
+    return connectionManager.getStats(route);
+  }
+
+  @PreDestroy
+  public void shutdown() throws IOException {
+    httpClient.close();
+  }
+
+  private String value(Header header) {
+    return header != null ? header.getValue() : null;
+  }
+
+}
@@ -0,0 +1,109 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Timings and counts for the router's own pipeline: source polls, upstream calls and destination publishes.
+ * Each name gets its histograms and counters the first time it is seen; recording after that is allocation free.
+ */
+@Component
+public class Instrumentation {
+
+  public enum Outcome {
+    SUCCESS, ERROR, TIMEOUT
+  }
+
+  private final ConcurrentMap<String, Timings> polls = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timings> upstreams = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timings> publishes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, IntSupplier> queueDepths = new ConcurrentHashMap<>();
+
+  public void recordPoll(String source, long startNanos, int metrics, Outcome outcome) {
+    final Timings timings = polls.computeIfAbsent(source, name -> new Timings());
+    timings.record(startNanos, outcome);
+    timings.lastCount = metrics;
+    timings.totalCount.add(metrics);
+  }
+
+  public void recordUpstreamCall(String upstream, long startNanos, Outcome outcome) {
+    upstreams.computeIfAbsent(upstream, name -> new Timings()).record(startNanos, outcome);
+  }
+
+  // Calls which never returned a result, such as those cancelled at a poll's deadline
+  public void recordUpstreamTimeouts(String upstream, int timeouts) {
+    upstreams.computeIfAbsent(upstream, name -> new Timings()).timeouts.add(timeouts);
+  }
+
+  public void recordPublish(String destination, long startNanos, int metrics, Outcome outcome) {
+    final Timings timings = publishes.computeIfAbsent(destination, name -> new Timings());
+    timings.record(startNanos, outcome);
+    timings.lastCount = metrics;
+    timings.totalCount.add(metrics);
+  }
+
+  public void registerQueueDepth(String destination, IntSupplier depth) {
+    queueDepths.put(destination, depth);
+  }
+
+  public Map<String, Timings> getPolls() {
+    return polls;
+  }
+
+  public Map<String, Timings> getUpstreams() {
+    return upstreams;
+  }
+
+  public Map<String, Timings> getPublishes() {
+    return publishes;
+  }
+
+  public Map<String, IntSupplier> getQueueDepths() {
+    return queueDepths;
+  }
+
+  public static class Timings {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalCount = new LongAdder();
+    private volatile int lastCount;
+
+    private void record(long startNanos, Outcome outcome) {
+      latency.recordNanos(System.nanoTime() - startNanos);
+      if (outcome == Outcome.ERROR) {
+        errors.increment();
+      } else if (outcome == Outcome.TIMEOUT) {
+        timeouts.increment();
+      }
+    }
+
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    public long getErrors() {
+      return errors.sum();
+    }
+
+    public long getTimeouts() {
+      return timeouts.sum();
+    }
+
+    // Metrics polled or published, in total and by the most recent call
+    public long getTotalCount() {
+      return totalCount.sum();
+    }
+
+    public int getLastCount() {
+      return lastCount;
+    }
+  }
+
+}
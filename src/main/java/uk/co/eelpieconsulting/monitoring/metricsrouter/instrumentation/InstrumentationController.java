@@ -0,0 +1,61 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reports the pipeline's timings and counts since startup. Latencies are in milliseconds.
+ */
+@RestController
+public class InstrumentationController {
+
+  private static final double MICROS_PER_MILLI = 1000.0;
+
+  private final Instrumentation instrumentation;
+
+  @Autowired
+  public InstrumentationController(Instrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  @GetMapping("/instrumentation")
+  public Map<String, Object> instrumentation() {
+    final Map<String, Object> report = Maps.newLinkedHashMap();
+    report.put("polls", report(instrumentation.getPolls()));
+    report.put("upstreams", report(instrumentation.getUpstreams()));
+    final Map<String, Map<String, Object>> publishes = report(instrumentation.getPublishes());
+    for (Map.Entry<String, IntSupplier> queueDepth : instrumentation.getQueueDepths().entrySet()) {
+      publishes.computeIfAbsent(queueDepth.getKey(), name -> Maps.newLinkedHashMap()).put("queueDepth", queueDepth.getValue().getAsInt());
+    }
+    report.put("publishes", publishes);
+    return report;
+  }
+
+  private Map<String, Map<String, Object>> report(Map<String, Instrumentation.Timings> timings) {
+    final Map<String, Map<String, Object>> report = new TreeMap<>();
+    for (Map.Entry<String, Instrumentation.Timings> entry : timings.entrySet()) {
+      final LatencyHistogram.Snapshot latency = entry.getValue().getLatency().snapshot();
+      final Map<String, Object> values = Maps.newLinkedHashMap();
+      values.put("count", latency.getCount());
+      values.put("errors", entry.getValue().getErrors());
+      values.put("timeouts", entry.getValue().getTimeouts());
+      values.put("mean", latency.getMeanMicros() / MICROS_PER_MILLI);
+      values.put("p50", latency.getPercentileMicros(50) / MICROS_PER_MILLI);
+      values.put("p90", latency.getPercentileMicros(90) / MICROS_PER_MILLI);
+      values.put("p99", latency.getPercentileMicros(99) / MICROS_PER_MILLI);
+      values.put("max", latency.getMaxMicros() / MICROS_PER_MILLI);
+      values.put("metrics", entry.getValue().getTotalCount());
+      values.put("lastMetrics", entry.getValue().getLastCount());
+      report.put(entry.getKey(), values);
+    }
+    return report;
+  }
+
+}
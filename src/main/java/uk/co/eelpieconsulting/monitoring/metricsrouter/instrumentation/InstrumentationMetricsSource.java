@@ -0,0 +1,77 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation;
+
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Publishes the pipeline's instrumentation through the normal destinations when instrumentation.publish is set.
+ * Latency percentiles cover the time since the previous publish; counts are totals since startup.
+ */
+@Component
+public class InstrumentationMetricsSource implements MetricBatchSource {
+
+  public static final String PREFIX = "metricsrouter.instrumentation.";
+
+  private static final int THREE_DECIMAL_PLACES = 3;
+  private static final double MICROS_PER_MILLI = 1000.0;
+
+  private final Instrumentation instrumentation;
+  private final boolean enabled;
+  private final int interval;
+  private final Map<String, LatencyHistogram.Snapshot> previous = Maps.newHashMap();
+
+  @Autowired
+  public InstrumentationMetricsSource(Instrumentation instrumentation,
+                                      @Value("${instrumentation.publish:false}") boolean enabled,
+                                      @Value("${instrumentation.publishSeconds:60}") int interval) {
+    this.instrumentation = instrumentation;
+    this.enabled = enabled;
+    this.interval = interval;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    if (!enabled) {
+      return;
+    }
+    addTimings(metrics, PREFIX + "poll.", instrumentation.getPolls());
+    addTimings(metrics, PREFIX + "upstream.", instrumentation.getUpstreams());
+    addTimings(metrics, PREFIX + "publish.", instrumentation.getPublishes());
+    for (Map.Entry<String, IntSupplier> queueDepth : instrumentation.getQueueDepths().entrySet()) {
+      metrics.addLong(PREFIX + "publish." + queueDepth.getKey() + ".queueDepth", queueDepth.getValue().getAsInt());
+    }
+  }
+
+  @Override
+  public int getInterval() {
+    return interval;
+  }
+
+  private void addTimings(MetricBatch metrics, String prefix, Map<String, Instrumentation.Timings> timings) {
+    for (Map.Entry<String, Instrumentation.Timings> entry : timings.entrySet()) {
+      final String keyPrefix = prefix + entry.getKey() + ".";
+      final Instrumentation.Timings timing = entry.getValue();
+      final LatencyHistogram.Snapshot total = timing.getLatency().snapshot();
+      final LatencyHistogram.Snapshot earlier = previous.put(keyPrefix, total);
+      final LatencyHistogram.Snapshot interval = earlier != null ? total.since(earlier) : total;
+
+      metrics.addLong(keyPrefix + "count", total.getCount());
+      metrics.addLong(keyPrefix + "errors", timing.getErrors());
+      metrics.addLong(keyPrefix + "timeouts", timing.getTimeouts());
+      metrics.addLong(keyPrefix + "metrics", timing.getLastCount());
+      metrics.addDouble(keyPrefix + "p50Millis", interval.getPercentileMicros(50) / MICROS_PER_MILLI, THREE_DECIMAL_PLACES);
+      metrics.addDouble(keyPrefix + "p99Millis", interval.getPercentileMicros(99) / MICROS_PER_MILLI, THREE_DECIMAL_PLACES);
+      metrics.addDouble(keyPrefix + "maxMillis", interval.getMaxMicros() / MICROS_PER_MILLI, THREE_DECIMAL_PLACES);
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free log-linear histogram of durations in microseconds, in the style of HdrHistogram.
+ * Each power of two is split into {@value #SUB_BUCKETS} linear buckets, so recorded values are kept to within about 6%.
+ * Recording is one atomic increment and one adder update; readers take a {@link Snapshot} and subtract earlier ones to get intervals.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalMicros = new LongAdder();
+
+  public void recordNanos(long nanos) {
+    record(Math.max(0, nanos / 1000));
+  }
+
+  public void record(long micros) {
+    counts.incrementAndGet(index(micros));
+    totalMicros.add(micros);
+  }
+
+  public Snapshot snapshot() {
+    final long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, totalMicros.sum());
+  }
+
+  static int index(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  // The largest value which falls in a bucket
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long totalMicros;
+    private final long count;
+
+    Snapshot(long[] counts, long totalMicros) {
+      this.counts = counts;
+      this.totalMicros = totalMicros;
+      long count = 0;
+      for (long bucket : counts) {
+        count += bucket;
+      }
+      this.count = count;
+    }
+
+    // The values recorded since an earlier snapshot of the same histogram
+    public Snapshot since(Snapshot earlier) {
+      final long[] interval = new long[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+        interval[i] = counts[i] - earlier.counts[i];
+      }
+      return new Snapshot(interval, totalMicros - earlier.totalMicros);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMeanMicros() {
+      return count > 0 ? (double) totalMicros / count : 0;
+    }
+
+    public long getPercentileMicros(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValue(i);
+        }
+      }
+      return getMaxMicros();
+    }
+
+    public long getMaxMicros() {
+      for (int i = counts.length - 1; i >= 0; i--) {
+        if (counts[i] > 0) {
+          return highestValue(i);
+        }
+      }
+      return 0;
+    }
+  }
+
+}
@@ -0,0 +1,254 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A reusable, growable batch of metrics held in parallel primitive arrays.
+ * Numeric values are stored as raw long bits alongside a type tag and timestamp; text is only produced by format,
+ * at the destination edge. A batch is not thread safe and should be reset and refilled by a single poller at a time.
+ */
+public class MetricBatch {
+
+  public interface EntryFilter {
+    public boolean accept(MetricBatch batch, int index);
+  }
+
+  private static final int NO_SCALE = -1;
+
+  private String[] keys;
+  private MetricType[] types;
+  private long[] values;
+  private byte[] scales;
+  private String[] texts;
+  private long[] timestamps;
+  private String[] sources;
+  private int size;
+  private long timestamp;
+  private String source;
+
+  public MetricBatch() {
+    this(64);
+  }
+
+  public MetricBatch(int capacity) {
+    keys = new String[capacity];
+    types = new MetricType[capacity];
+    values = new long[capacity];
+    scales = new byte[capacity];
+    texts = new String[capacity];
+    timestamps = new long[capacity];
+    sources = new String[capacity];
+    timestamp = System.currentTimeMillis();
+  }
+
+  public static MetricBatch fromMap(Map<String, String> metrics) {
+    final MetricBatch batch = new MetricBatch(Math.max(metrics.size(), 1));
+    batch.addAll(metrics);
+    return batch;
+  }
+
+  public void reset(long timestamp) {
+    Arrays.fill(texts, 0, size, null);
+    size = 0;
+    this.timestamp = timestamp;
+  }
+
+  // Names the source which entries added from now on came from
+  public void setSource(String source) {
+    this.source = source;
+  }
+
+  public void addLong(String key, long value) {
+    add(key, MetricType.LONG, value, NO_SCALE, null);
+  }
+
+  public void addDouble(String key, double value) {
+    add(key, MetricType.DOUBLE, Double.doubleToRawLongBits(value), NO_SCALE, null);
+  }
+
+  // scale is the number of fraction digits kept when the value is formatted
+  public void addDouble(String key, double value, int scale) {
+    add(key, MetricType.DOUBLE, Double.doubleToRawLongBits(value), scale, null);
+  }
+
+  public void addBoolean(String key, boolean value) {
+    add(key, MetricType.BOOLEAN, value ? 1 : 0, NO_SCALE, null);
+  }
+
+  public void addText(String key, String value) {
+    add(key, MetricType.TEXT, 0, NO_SCALE, value);
+  }
+
+  // Adapts map based sources; values are typed wherever their text can be reproduced exactly
+  public void addParsed(String key, String value) {
+    if ("true".equals(value) || "false".equals(value)) {
+      addBoolean(key, Boolean.parseBoolean(value));
+    } else if (MetricValues.isCanonicalLong(value)) {
+      addLong(key, Long.parseLong(value));
+    } else if (MetricValues.isCanonicalDouble(value)) {
+      addDouble(key, Double.parseDouble(value));
+    } else {
+      addText(key, value);
+    }
+  }
+
+  public void addAll(Map<String, String> metrics) {
+    for (Map.Entry<String, String> metric : metrics.entrySet()) {
+      addParsed(MetricValues.internKey(metric.getKey()), metric.getValue());
+    }
+  }
+
+  public void addAll(MetricBatch other) {
+    for (int i = 0; i < other.size; i++) {
+      add(other, i);
+    }
+  }
+
+  // Copies a single entry, keeping its original timestamp and source
+  public void add(MetricBatch other, int index) {
+    add(other.keys[index], other.types[index], other.values[index], other.scales[index], other.texts[index]);
+    timestamps[size - 1] = other.timestamps[index];
+    sources[size - 1] = other.sources[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public String getKey(int index) {
+    return keys[index];
+  }
+
+  public String getSource(int index) {
+    return sources[index];
+  }
+
+  public MetricType getType(int index) {
+    return types[index];
+  }
+
+  public long getTimestamp(int index) {
+    return timestamps[index];
+  }
+
+  public int getScale(int index) {
+    return scales[index];
+  }
+
+  public long getLong(int index) {
+    return values[index];
+  }
+
+  public double getDouble(int index) {
+    return Double.longBitsToDouble(values[index]);
+  }
+
+  public boolean getBoolean(int index) {
+    return values[index] != 0;
+  }
+
+  public String getText(int index) {
+    return texts[index];
+  }
+
+  public long getRawValue(int index) {
+    return values[index];
+  }
+
+  public boolean isNumeric(int index) {
+    return types[index] != MetricType.TEXT;
+  }
+
+  // Numeric view of an entry; booleans are 1 or 0. Only meaningful when isNumeric.
+  public double getNumericValue(int index) {
+    switch (types[index]) {
+      case LONG:
+        return values[index];
+      case DOUBLE:
+        return Double.longBitsToDouble(values[index]);
+      case BOOLEAN:
+        return values[index];
+      default:
+        return Double.NaN;
+    }
+  }
+
+  public String format(int index) {
+    switch (types[index]) {
+      case LONG:
+        return Long.toString(values[index]);
+      case DOUBLE:
+        return MetricValues.format(Double.longBitsToDouble(values[index]), scales[index]);
+      case BOOLEAN:
+        return values[index] != 0 ? "true" : "false";
+      default:
+        return texts[index];
+    }
+  }
+
+  public Map<String, String> toMap() {
+    final Map<String, String> metrics = Maps.newHashMapWithExpectedSize(size);
+    for (int i = 0; i < size; i++) {
+      metrics.put(keys[i], format(i));
+    }
+    return metrics;
+  }
+
+  public void retain(EntryFilter filter) {
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      if (filter.accept(this, i)) {
+        if (kept != i) {
+          keys[kept] = keys[i];
+          types[kept] = types[i];
+          values[kept] = values[i];
+          scales[kept] = scales[i];
+          texts[kept] = texts[i];
+          timestamps[kept] = timestamps[i];
+          sources[kept] = sources[i];
+        }
+        kept++;
+      }
+    }
+    Arrays.fill(texts, kept, size, null);
+    size = kept;
+  }
+
+  @Override
+  public String toString() {
+    return toMap().toString();
+  }
+
+  private void add(String key, MetricType type, long value, int scale, String text) {
+    if (size == keys.length) {
+      grow();
+    }
+    keys[size] = key;
+    types[size] = type;
+    values[size] = value;
+    scales[size] = (byte) scale;
+    texts[size] = text;
+    timestamps[size] = timestamp;
+    sources[size] = source;
+    size++;
+  }
+
+  private void grow() {
+    final int capacity = keys.length * 2;
+    keys = Arrays.copyOf(keys, capacity);
+    types = Arrays.copyOf(types, capacity);
+    values = Arrays.copyOf(values, capacity);
+    scales = Arrays.copyOf(scales, capacity);
+    texts = Arrays.copyOf(texts, capacity);
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    sources = Arrays.copyOf(sources, capacity);
+  }
+
+}
@@ -0,0 +1,7 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.metrics;
+
+public enum MetricType {
+
+  LONG, DOUBLE, BOOLEAN, TEXT
+
+}
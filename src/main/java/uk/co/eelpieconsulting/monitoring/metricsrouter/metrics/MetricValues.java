@@ -0,0 +1,78 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.metrics;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Conversions between typed metric values and the text published at the destination edge.
+ * Text is only recognised as a number when it would round trip back to exactly the same text.
+ */
+public class MetricValues {
+
+  private static final Interner<String> keys = Interners.newWeakInterner();
+
+  private static final int MAX_SCALE = 9;
+
+  // DecimalFormat is not thread safe, so each formatting thread gets its own, one per scale.
+  // The root locale keeps the decimal point a point whatever the JVM's default locale
+  private static final ThreadLocal<NumberFormat[]> formats = new ThreadLocal<NumberFormat[]>() {
+    @Override
+    protected NumberFormat[] initialValue() {
+      final NumberFormat[] formats = new NumberFormat[MAX_SCALE + 1];
+      String pattern = "#";
+      for (int scale = 0; scale <= MAX_SCALE; scale++) {
+        formats[scale] = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT));
+        pattern = (scale == 0 ? pattern + "." : pattern) + "#";
+      }
+      return formats;
+    }
+  };
+
+  public static String internKey(String key) {
+    return keys.intern(key);
+  }
+
+  // A negative scale means the shortest text which parses back to the same double
+  public static String format(double value, int scale) {
+    if (scale < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+      return Double.toString(value);
+    }
+    return formats.get()[Math.min(scale, MAX_SCALE)].format(value);
+  }
+
+  public static boolean isCanonicalLong(String value) {
+    if (!looksNumeric(value) || value.length() > 20) {
+      return false;
+    }
+    try {
+      return Long.toString(Long.parseLong(value)).equals(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  public static boolean isCanonicalDouble(String value) {
+    if (!looksNumeric(value)) {
+      return false;
+    }
+    try {
+      return Double.toString(Double.parseDouble(value)).equals(value);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static boolean looksNumeric(String value) {
+    if (value == null || value.isEmpty()) {
+      return false;
+    }
+    final char first = value.charAt(0);
+    return first == '-' || (first >= '0' && first <= '9');
+  }
+
+}
@@ -0,0 +1,103 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a source's independent upstream calls concurrently within a poll.
+ * Each upstream gets its own bounded pool, so one slow upstream cannot take threads from another,
+ * and calls still running at the deadline are cancelled.
+ */
+@Component
+public class FanOut {
+
+  private static final Logger log = Logger.getLogger(FanOut.class);
+
+  private final int concurrencyPerUpstream;
+  private final Instrumentation instrumentation;
+  private final Map<String, ExecutorService> upstreams = new ConcurrentHashMap<>();
+
+  @Autowired
+  public FanOut(@Value("${fanout.concurrency:4}") int concurrencyPerUpstream, Instrumentation instrumentation) {
+    this.concurrencyPerUpstream = concurrencyPerUpstream;
+    this.instrumentation = instrumentation;
+  }
+
+  /**
+   * Returns the results of the calls which completed before the deadline, in the order the calls were given.
+   * Calls which failed or timed out are logged and left out.
+   */
+  public <K, V> Map<K, V> call(String upstream, Map<K, ? extends Callable<V>> calls, long deadlineMillis) {
+    final Map<K, V> results = Maps.newLinkedHashMap();
+    if (calls.isEmpty()) {
+      return results;
+    }
+
+    final List<K> keys = Lists.newArrayList(calls.keySet());
+    final List<Callable<V>> tasks = Lists.newArrayListWithCapacity(calls.size());
+    for (K key : keys) {
+      tasks.add(PollContext.wrap(calls.get(key)));
+    }
+
+    final List<Future<V>> futures;
+    try {
+      futures = executorFor(upstream).invokeAll(tasks, deadlineMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return results;
+    }
+
+    int timedOut = 0;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        results.put(keys.get(i), futures.get(i).get());
+      } catch (CancellationException e) {
+        timedOut++;
+      } catch (ExecutionException e) {
+        log.warn("Call to " + upstream + " for " + keys.get(i) + " failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return results;
+      }
+    }
+    if (timedOut > 0) {
+      instrumentation.recordUpstreamTimeouts(upstream, timedOut);
+      log.warn(timedOut + " of " + calls.size() + " calls to " + upstream + " did not complete within " + deadlineMillis + "ms");
+    }
+    return results;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (ExecutorService executor : upstreams.values()) {
+      executor.shutdownNow();
+    }
+  }
+
+  private ExecutorService executorFor(String upstream) {
+    return upstreams.computeIfAbsent(upstream, name -> Executors.newFixedThreadPool(concurrencyPerUpstream,
+            new ThreadFactoryBuilder().setNameFormat("fanout-" + name + "-%d").setDaemon(true).build()));
+  }
+
+}
@@ -0,0 +1,54 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Names the source a thread is polling for, so shared upstream clients can account for calls by source.
+ * Work handed to other threads within a poll is wrapped to carry the name with it.
+ */
+public class PollContext {
+
+  public static final String UNKNOWN_SOURCE = "unknown";
+
+  private static final ThreadLocal<String> source = new ThreadLocal<>();
+
+  public static String currentSource() {
+    final String current = source.get();
+    return current != null ? current : UNKNOWN_SOURCE;
+  }
+
+  public static void run(String sourceName, Runnable task) {
+    final String previous = source.get();
+    source.set(sourceName);
+    try {
+      task.run();
+    } finally {
+      restore(previous);
+    }
+  }
+
+  public static <V> Callable<V> wrap(Callable<V> callable) {
+    final String sourceName = source.get();
+    if (sourceName == null) {
+      return callable;
+    }
+    return () -> {
+      final String previous = source.get();
+      source.set(sourceName);
+      try {
+        return callable.call();
+      } finally {
+        restore(previous);
+      }
+    };
+  }
+
+  private static void restore(String previous) {
+    if (previous != null) {
+      source.set(previous);
+    } else {
+      source.remove();
+    }
+  }
+
+}
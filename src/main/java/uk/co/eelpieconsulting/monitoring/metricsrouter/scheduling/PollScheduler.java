@@ -0,0 +1,108 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs each registered task on its own fixed-rate timeline.
+ * A single timer thread holds the deadline-ordered queue and hands due tasks to a bounded worker pool,
+ * so a slow task only delays its own next run.
+ */
+@Component
+public class PollScheduler {
+
+  private static final Logger log = Logger.getLogger(PollScheduler.class);
+
+  private final ScheduledExecutorService timer;
+  private final ExecutorService workers;
+
+  @Autowired
+  public PollScheduler(@Value("${scheduler.workers:4}") int workers,
+                       @Value("${scheduler.virtualThreads:false}") boolean virtualThreads) {
+    this(WorkerExecutors.create(workers, virtualThreads));
+  }
+
+  public PollScheduler(ExecutorService workers) {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("poll-timer").setDaemon(true).build());
+    timer.setRemoveOnCancelPolicy(true);
+    this.timer = timer;
+    this.workers = workers;
+  }
+
+  public void schedule(String name, long intervalMillis, Runnable task) {
+    final ScheduledTask scheduledTask = new ScheduledTask(name, TimeUnit.MILLISECONDS.toNanos(intervalMillis), task);
+    scheduledTask.deadline = System.nanoTime();
+    timer.execute(scheduledTask.dispatch);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timer.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  private class ScheduledTask implements Runnable {
+
+    private final String name;
+    private final long intervalNanos;
+    private final Runnable task;
+    private long deadline;
+
+    private final Runnable dispatch = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          workers.execute(ScheduledTask.this);
+        } catch (RejectedExecutionException e) {
+          log.debug("Not dispatching " + name + "; worker pool is shut down");
+        }
+      }
+    };
+
+    private ScheduledTask(String name, long intervalNanos, Runnable task) {
+      this.name = name;
+      this.intervalNanos = intervalNanos;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } catch (Throwable t) {
+        log.error("Unexpected exception while running scheduled task: " + name, t);
+      } finally {
+        rearm();
+      }
+    }
+
+    private void rearm() {
+      final long now = System.nanoTime();
+      long next = deadline + intervalNanos;
+      if (next - now < 0) {
+        final long missed = (now - deadline) / intervalNanos;
+        log.warn(name + " overran its interval; skipping " + missed + " run(s)");
+        next = deadline + (missed + 1) * intervalNanos;
+      }
+      deadline = next;
+      try {
+        timer.schedule(dispatch, next - now, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        log.debug("Not rescheduling " + name + "; scheduler is shut down");
+      }
+    }
+  }
+
+}
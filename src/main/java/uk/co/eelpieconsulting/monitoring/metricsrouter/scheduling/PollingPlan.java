@@ -0,0 +1,75 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Spreads a changing set of targets over the slots of a polling cycle, so each target is polled once per cycle
+ * and every slot carries a similar share of the work.
+ * Targets keep their slot when the set changes; new targets go to the least loaded slot.
+ */
+public class PollingPlan {
+
+  private final int slots;
+  private final long slotMillis;
+  private final Map<String, Integer> assignments = Maps.newHashMap();
+  private final List<List<String>> targets;
+
+  public PollingPlan(int slots, long slotMillis) {
+    if (slots < 1) {
+      throw new IllegalArgumentException("A polling plan needs at least one slot");
+    }
+    this.slots = slots;
+    this.slotMillis = slotMillis;
+    this.targets = Lists.newArrayListWithCapacity(slots);
+    for (int slot = 0; slot < slots; slot++) {
+      targets.add(Lists.newArrayList());
+    }
+  }
+
+  public synchronized void update(Collection<String> current) {
+    final Set<String> wanted = Sets.newHashSet(current);
+    for (String gone : Sets.newHashSet(Sets.difference(assignments.keySet(), wanted))) {
+      targets.get(assignments.remove(gone)).remove(gone);
+    }
+    for (String target : current) {
+      if (!assignments.containsKey(target)) {
+        final int slot = leastLoadedSlot();
+        assignments.put(target, slot);
+        targets.get(slot).add(target);
+      }
+    }
+  }
+
+  // The targets due in the slot holding the given time
+  public synchronized List<String> due(long now) {
+    final int slot = (int) ((now / slotMillis) % slots);
+    return Collections.unmodifiableList(Lists.newArrayList(targets.get(slot)));
+  }
+
+  public synchronized Set<String> getTargets() {
+    return Collections.unmodifiableSet(Sets.newHashSet(assignments.keySet()));
+  }
+
+  public int getSlots() {
+    return slots;
+  }
+
+  private int leastLoadedSlot() {
+    int least = 0;
+    for (int slot = 1; slot < slots; slot++) {
+      if (targets.get(slot).size() < targets.get(least).size()) {
+        least = slot;
+      }
+    }
+    return least;
+  }
+
+}
@@ -0,0 +1,192 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Limits the rate of calls to each upstream with a token bucket, configured as upstream:requestsPerSecond:burst pairs.
+ * Calls to upstreams without a budget are not limited.
+ * When callers have to wait, the sources polling that upstream take turns, so one busy source cannot starve the others.
+ */
+@Component
+public class RateBudget {
+
+  private static final Logger log = Logger.getLogger(RateBudget.class);
+
+  private final Map<String, Bucket> buckets;
+
+  @Autowired
+  public RateBudget(@Value("${ratelimit.budgets:}") String budgets) {
+    final Map<String, Bucket> buckets = Maps.newTreeMap();
+    for (String budget : Splitter.on(",").trimResults().omitEmptyStrings().split(budgets)) {
+      final String[] fields = budget.split(":");
+      if (fields.length != 3) {
+        throw new IllegalArgumentException("Rate budget should be upstream:requestsPerSecond:burst: " + budget);
+      }
+      log.info("Limiting calls to " + fields[0] + " to " + fields[1] + " per second with bursts of " + fields[2]);
+      buckets.put(fields[0], new Bucket(Double.parseDouble(fields[1]), Integer.parseInt(fields[2]), System.nanoTime()));
+    }
+    this.buckets = ImmutableMap.copyOf(buckets);
+  }
+
+  // Blocks until a call to the upstream is within budget
+  public void acquire(String upstream) throws InterruptedException {
+    final Bucket bucket = buckets.get(upstream);
+    if (bucket != null) {
+      bucket.acquire(PollContext.currentSource());
+    }
+  }
+
+  public Map<String, Bucket> getBuckets() {
+    return buckets;
+  }
+
+  public static class Bucket {
+
+    private final double tokensPerNano;
+    private final int burst;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Sources with waiting callers, in the order they get their next token, and each source's callers in arrival order
+    private final Deque<String> turns = new ArrayDeque<>();
+    private final Map<String, Deque<Thread>> waiting = Maps.newHashMap();
+
+    private double tokens;
+    private long refilledAt;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    Bucket(double requestsPerSecond, int burst, long now) {
+      if (requestsPerSecond <= 0 || burst < 1) {
+        throw new IllegalArgumentException("A rate budget needs a positive rate and a burst of at least one");
+      }
+      this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.burst = burst;
+      this.tokens = burst;
+      this.refilledAt = now;
+    }
+
+    void acquire(String source) throws InterruptedException {
+      lock.lock();
+      try {
+        refill(System.nanoTime());
+        if (turns.isEmpty() && tokens >= 1) {
+          tokens--;
+          acquired.incrementAndGet();
+          return;
+        }
+
+        final Thread caller = Thread.currentThread();
+        final long start = System.nanoTime();
+        enqueue(source, caller);
+        try {
+          while (true) {
+            final long now = System.nanoTime();
+            refill(now);
+            if (tokens >= 1 && source.equals(turns.peekFirst()) && waiting.get(source).peekFirst() == caller) {
+              tokens--;
+              break;
+            }
+            changed.awaitNanos(tokens >= 1 ? TimeUnit.MILLISECONDS.toNanos(10) : (long) Math.ceil((1 - tokens) / tokensPerNano));
+          }
+        } finally {
+          dequeue(source, caller);
+          changed.signalAll();
+        }
+
+        acquired.incrementAndGet();
+        throttled.incrementAndGet();
+        waitNanos.addAndGet(System.nanoTime() - start);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public double getAvailable() {
+      lock.lock();
+      try {
+        refill(System.nanoTime());
+        return tokens;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public int getWaiting() {
+      lock.lock();
+      try {
+        int callers = 0;
+        for (Deque<Thread> queue : waiting.values()) {
+          callers += queue.size();
+        }
+        return callers;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public int getBurst() {
+      return burst;
+    }
+
+    public long getAcquired() {
+      return acquired.get();
+    }
+
+    public long getThrottled() {
+      return throttled.get();
+    }
+
+    public long getWaitMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    private void refill(long now) {
+      tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+      refilledAt = now;
+    }
+
+    private void enqueue(String source, Thread caller) {
+      waiting.computeIfAbsent(source, s -> new ArrayDeque<>()).addLast(caller);
+      if (!turns.contains(source)) {
+        turns.addLast(source);
+      }
+    }
+
+    // A source which has just been served goes to the back of the turns if it still has callers waiting
+    private void dequeue(String source, Thread caller) {
+      final Deque<Thread> queue = waiting.get(source);
+      final boolean wasFirst = queue.peekFirst() == caller;
+      queue.remove(caller);
+      if (wasFirst && source.equals(turns.peekFirst())) {
+        turns.removeFirst();
+        if (!queue.isEmpty()) {
+          turns.addLast(source);
+        }
+      } else if (queue.isEmpty()) {
+        turns.remove(source);
+      }
+      if (queue.isEmpty()) {
+        waiting.remove(source);
+      }
+    }
+  }
+
+}
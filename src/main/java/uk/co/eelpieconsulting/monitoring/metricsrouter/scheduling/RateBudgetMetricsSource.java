@@ -0,0 +1,46 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+/**
+ * Publishes how much of each upstream's rate budget is used and how long callers waited for it.
+ */
+@Component
+public class RateBudgetMetricsSource implements MetricBatchSource {
+
+  private static final String PREFIX = "metricsrouter.ratelimit.";
+  private static final int TWO_DECIMAL_PLACES = 2;
+
+  private final RateBudget rateBudget;
+
+  @Autowired
+  public RateBudgetMetricsSource(RateBudget rateBudget) {
+    this.rateBudget = rateBudget;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    for (Map.Entry<String, RateBudget.Bucket> budget : rateBudget.getBuckets().entrySet()) {
+      final String prefix = PREFIX + budget.getKey() + ".";
+      final RateBudget.Bucket bucket = budget.getValue();
+      metrics.addLong(prefix + "acquired", bucket.getAcquired());
+      metrics.addLong(prefix + "throttled", bucket.getThrottled());
+      metrics.addLong(prefix + "waitMillis", bucket.getWaitMillis());
+      metrics.addLong(prefix + "waiting", bucket.getWaiting());
+      metrics.addDouble(prefix + "available", bucket.getAvailable(), TWO_DECIMAL_PLACES);
+      metrics.addLong(prefix + "burst", bucket.getBurst());
+    }
+  }
+
+  @Override
+  public int getInterval() {
+    return 60;
+  }
+
+}
@@ -0,0 +1,44 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+public class WorkerExecutors {
+
+  private static final Logger log = Logger.getLogger(WorkerExecutors.class);
+
+  public static ExecutorService create(int workers, boolean virtualThreads) {
+    return create(workers, virtualThreads, WorkerExecutors::virtualThreadPerTaskExecutor);
+  }
+
+  // The lookup is passed in so tests can stand in for a JVM without virtual threads
+  static ExecutorService create(int workers, boolean virtualThreads, Supplier<ExecutorService> virtualThreadExecutors) {
+    if (virtualThreads) {
+      final ExecutorService virtualThreadExecutor = virtualThreadExecutors.get();
+      if (virtualThreadExecutor != null) {
+        log.info("Polling on virtual threads");
+        return virtualThreadExecutor;
+      }
+      log.warn("Virtual threads are not available on this JVM; falling back to a pool of " + workers + " worker threads");
+    }
+    log.info("Polling on a pool of " + workers + " worker threads");
+    return Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder().setNameFormat("poll-worker-%d").setDaemon(true).build());
+  }
+
+  // Looked up reflectively so the build can keep targeting older JVMs
+  private static ExecutorService virtualThreadPerTaskExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+}
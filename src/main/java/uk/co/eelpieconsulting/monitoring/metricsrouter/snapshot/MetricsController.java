@@ -0,0 +1,54 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Serves the latest value of every metric for scraping, in Prometheus text format or as a JSON object.
+ * Responses are slices of the current pre-serialised {@link MetricsSnapshot}; the snapshot version is the ETag.
+ */
+@RestController
+public class MetricsController {
+
+  private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final String JSON_CONTENT_TYPE = "application/json";
+  private static final String GZIP = "gzip";
+
+  private final MetricsSnapshotCache snapshotCache;
+
+  @Autowired
+  public MetricsController(MetricsSnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
+  @GetMapping("/metrics")
+  public ResponseEntity<byte[]> metrics(@RequestParam(value = "format", defaultValue = "prometheus") String format,
+                                        @RequestParam(value = "prefix", required = false) String prefix,
+                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    final MetricsSnapshot snapshot = snapshotCache.getSnapshot();
+    final boolean json = "json".equals(format);
+    final boolean gzipped = acceptEncoding != null && acceptEncoding.contains(GZIP);
+
+    final HttpHeaders headers = new HttpHeaders();
+    final String etag = "\"" + snapshot.getVersion() + (gzipped ? "-gzip" : "") + "\"";
+    headers.set(HttpHeaders.ETAG, etag);
+    if (etag.equals(ifNoneMatch)) {
+      return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+    }
+
+    headers.set(HttpHeaders.CONTENT_TYPE, json ? JSON_CONTENT_TYPE : PROMETHEUS_CONTENT_TYPE);
+    if (gzipped) {
+      headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+    final byte[] body = json ? snapshot.json(prefix, gzipped) : snapshot.prometheus(prefix, gzipped);
+    return new ResponseEntity<>(body, headers, HttpStatus.OK);
+  }
+
+}
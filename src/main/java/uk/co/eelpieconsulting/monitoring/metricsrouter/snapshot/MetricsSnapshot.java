@@ -0,0 +1,163 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An immutable view of the latest value of every metric, already serialised in each format the scrape endpoint serves.
+ * Entries are sorted by key, so the entries under a key prefix are a contiguous slice of each serialised body.
+ * The unfiltered JSON body and the gzipped unfiltered bodies are built on first request and then held; filtered slices are
+ * compressed on request.
+ */
+public class MetricsSnapshot {
+
+  private static final byte[] JSON_START = "{".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] JSON_END = "}".getBytes(StandardCharsets.UTF_8);
+  private static final byte NEWLINE = '\n';
+
+  public static final MetricsSnapshot EMPTY = new MetricsSnapshot(new String[0], new int[1], new byte[0], new int[1], new byte[0], 0);
+
+  private final String[] keys;
+  private final int[] prometheusOffsets;
+  private final byte[] prometheus;
+  private final int[] jsonOffsets;
+  // Each JSON entry is followed by a comma, which is dropped from the last entry of a slice
+  private final byte[] jsonEntries;
+  private final long version;
+
+  // Built at most a few times if scrapes race, and the same each time
+  private volatile byte[] prometheusGzip;
+  private volatile byte[] json;
+  private volatile byte[] jsonGzip;
+
+  private MetricsSnapshot(String[] keys, int[] prometheusOffsets, byte[] prometheus, int[] jsonOffsets, byte[] jsonEntries, long version) {
+    this.keys = keys;
+    this.prometheusOffsets = prometheusOffsets;
+    this.prometheus = prometheus;
+    this.jsonOffsets = jsonOffsets;
+    this.jsonEntries = jsonEntries;
+    this.version = version;
+  }
+
+  // Entries must be in key order
+  static MetricsSnapshot build(Collection<MetricsSnapshotEntry> entries, long version) {
+    final String[] keys = new String[entries.size()];
+    final int[] prometheusOffsets = new int[entries.size() + 1];
+    final int[] jsonOffsets = new int[entries.size() + 1];
+    final ByteArrayOutputStream prometheus = new ByteArrayOutputStream(entries.size() * 64);
+    final ByteArrayOutputStream json = new ByteArrayOutputStream(entries.size() * 48);
+    int i = 0;
+    for (MetricsSnapshotEntry entry : entries) {
+      keys[i] = entry.getKey();
+      if (entry.getPrometheus().length > 0) {
+        prometheus.write(entry.getPrometheus(), 0, entry.getPrometheus().length);
+        final byte[] timestamp = Long.toString(entry.getTimestamp()).getBytes(StandardCharsets.US_ASCII);
+        prometheus.write(timestamp, 0, timestamp.length);
+        prometheus.write(NEWLINE);
+      }
+      json.write(entry.getJson(), 0, entry.getJson().length);
+      i++;
+      prometheusOffsets[i] = prometheus.size();
+      jsonOffsets[i] = json.size();
+    }
+    return new MetricsSnapshot(keys, prometheusOffsets, prometheus.toByteArray(), jsonOffsets, json.toByteArray(), version);
+  }
+
+  public byte[] prometheus(String prefix, boolean gzipped) {
+    if (prefix == null || prefix.isEmpty()) {
+      if (!gzipped) {
+        return prometheus;
+      }
+      byte[] body = prometheusGzip;
+      if (body == null) {
+        prometheusGzip = body = gzip(prometheus);
+      }
+      return body;
+    }
+    final int from = firstWithPrefix(prefix);
+    final int to = endOfPrefix(prefix, from);
+    final byte[] slice = new byte[prometheusOffsets[to] - prometheusOffsets[from]];
+    System.arraycopy(prometheus, prometheusOffsets[from], slice, 0, slice.length);
+    return gzipped ? gzip(slice) : slice;
+  }
+
+  public byte[] json(String prefix, boolean gzipped) {
+    if (prefix == null || prefix.isEmpty()) {
+      byte[] body = json;
+      if (body == null) {
+        json = body = jsonSlice(0, keys.length);
+      }
+      if (!gzipped) {
+        return body;
+      }
+      byte[] compressed = jsonGzip;
+      if (compressed == null) {
+        jsonGzip = compressed = gzip(body);
+      }
+      return compressed;
+    }
+    final int from = firstWithPrefix(prefix);
+    final byte[] slice = jsonSlice(from, endOfPrefix(prefix, from));
+    return gzipped ? gzip(slice) : slice;
+  }
+
+  public int size() {
+    return keys.length;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  private byte[] jsonSlice(int from, int to) {
+    final int length = Math.max(0, jsonOffsets[to] - jsonOffsets[from] - 1);
+    final byte[] slice = new byte[JSON_START.length + length + JSON_END.length];
+    System.arraycopy(JSON_START, 0, slice, 0, JSON_START.length);
+    System.arraycopy(jsonEntries, jsonOffsets[from], slice, JSON_START.length, length);
+    System.arraycopy(JSON_END, 0, slice, JSON_START.length + length, JSON_END.length);
+    return slice;
+  }
+
+  private int firstWithPrefix(String prefix) {
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (keys[mid].compareTo(prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int endOfPrefix(String prefix, int from) {
+    int low = from;
+    int high = keys.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (keys[mid].startsWith(prefix)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static byte[] gzip(byte[] body) {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+}
@@ -0,0 +1,76 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot;
+
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+/**
+ * Holds the latest value of every polled metric and builds a {@link MetricsSnapshot} of them for scraping.
+ * Polls only record their values; the snapshot is rebuilt when a scrape finds it out of date, so any number of polls between
+ * scrapes cost a single rebuild, and scrapes of an unchanged snapshot just read the current reference.
+ * Metrics which have not been polled for the time to live are left out of later snapshots, whether or not anything else has been polled since.
+ */
+@Component
+public class MetricsSnapshotCache {
+
+  private final long ttlMillis;
+  private final TreeMap<String, MetricsSnapshotEntry> latest = new TreeMap<>();
+  private volatile MetricsSnapshot snapshot = MetricsSnapshot.EMPTY;
+  private volatile boolean stale = false;
+  // When the oldest metric in the snapshot passes its time to live
+  private volatile long expires = Long.MAX_VALUE;
+  private long version = 0;
+
+  @Autowired
+  public MetricsSnapshotCache(@Value("${scrape.ttlSeconds:900}") int ttlSeconds) {
+    this.ttlMillis = ttlSeconds * 1000L;
+  }
+
+  public synchronized void update(MetricBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      final String key = batch.getKey(i);
+      final MetricsSnapshotEntry previous = latest.get(key);
+      final MetricsSnapshotEntry repolled = previous != null ? previous.repolled(batch, i) : null;
+      latest.put(key, repolled != null ? repolled : new MetricsSnapshotEntry(batch, i));
+    }
+    version++;
+    stale = true;
+  }
+
+  public MetricsSnapshot getSnapshot() {
+    if (!stale && System.currentTimeMillis() <= expires) {
+      return snapshot;
+    }
+    synchronized (this) {
+      final long now = System.currentTimeMillis();
+      if (stale || now > expires) {
+        final long expiredBefore = now - ttlMillis;
+        long oldest = Long.MAX_VALUE;
+        boolean expired = false;
+        for (Iterator<MetricsSnapshotEntry> entries = latest.values().iterator(); entries.hasNext(); ) {
+          final long timestamp = entries.next().getTimestamp();
+          if (timestamp < expiredBefore) {
+            entries.remove();
+            expired = true;
+          } else {
+            oldest = Math.min(oldest, timestamp);
+          }
+        }
+        // Dropping expired metrics changes the snapshot even when nothing has been polled since
+        if (expired) {
+          version++;
+        }
+        snapshot = MetricsSnapshot.build(latest.values(), version);
+        expires = oldest != Long.MAX_VALUE ? oldest + ttlMillis : Long.MAX_VALUE;
+        stale = false;
+      }
+      return snapshot;
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricType;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * One metric's latest value, serialised once when it changes rather than on every poll or scrape.
+ * Prometheus lines use the key with unsupported characters replaced as the metric name and carry the original key as a label;
+ * text values have no Prometheus representation and only appear in JSON.
+ * The Prometheus timestamp is kept apart from the serialised value, so a repoll of the same value only moves the timestamp.
+ */
+class MetricsSnapshotEntry {
+
+  private static final byte[] NONE = new byte[0];
+
+  private final String key;
+  private final long timestamp;
+  // The Prometheus line up to its timestamp
+  private final byte[] prometheus;
+  private final byte[] json;
+
+  // The polled value, to tell whether a repoll has changed it
+  private final MetricType type;
+  private final long rawValue;
+  private final int scale;
+  private final String text;
+
+  MetricsSnapshotEntry(MetricBatch batch, int index) {
+    this.key = batch.getKey(index);
+    this.timestamp = batch.getTimestamp(index);
+    this.type = batch.getType(index);
+    this.rawValue = batch.getRawValue(index);
+    this.scale = batch.getScale(index);
+    this.text = batch.getText(index);
+
+    final String quotedKey = new String(JsonStringEncoder.getInstance().quoteAsString(key));
+    if (type == MetricType.TEXT) {
+      this.prometheus = NONE;
+      this.json = utf8("\"" + quotedKey + "\":" + (text != null ? "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(text)) + "\"" : "null") + ",");
+      return;
+    }
+
+    final double value = batch.getNumericValue(index);
+    final String formatted;
+    final String jsonValue;
+    if (type == MetricType.BOOLEAN) {
+      formatted = batch.getBoolean(index) ? "1" : "0";
+      jsonValue = batch.format(index);
+    } else if (Double.isNaN(value)) {
+      formatted = "NaN";
+      jsonValue = "null";
+    } else if (Double.isInfinite(value)) {
+      formatted = value > 0 ? "+Inf" : "-Inf";
+      jsonValue = "null";
+    } else {
+      formatted = batch.format(index);
+      jsonValue = formatted;
+    }
+    this.prometheus = utf8(metricName(key) + "{key=\"" + labelValue(key) + "\"} " + formatted + " ");
+    this.json = utf8("\"" + quotedKey + "\":" + jsonValue + ",");
+  }
+
+  private MetricsSnapshotEntry(MetricsSnapshotEntry previous, long timestamp) {
+    this.key = previous.key;
+    this.timestamp = timestamp;
+    this.prometheus = previous.prometheus;
+    this.json = previous.json;
+    this.type = previous.type;
+    this.rawValue = previous.rawValue;
+    this.scale = previous.scale;
+    this.text = previous.text;
+  }
+
+  // This entry, or a copy of it moved on to the batch's timestamp, if the batch holds the same value; otherwise null
+  MetricsSnapshotEntry repolled(MetricBatch batch, int index) {
+    if (type != batch.getType(index) || rawValue != batch.getRawValue(index) || scale != batch.getScale(index)
+            || !Objects.equals(text, batch.getText(index))) {
+      return null;
+    }
+    final long polledAt = batch.getTimestamp(index);
+    return polledAt == timestamp ? this : new MetricsSnapshotEntry(this, polledAt);
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  // Empty for text values, which have no Prometheus line
+  byte[] getPrometheus() {
+    return prometheus;
+  }
+
+  byte[] getJson() {
+    return json;
+  }
+
+  static String metricName(String key) {
+    final StringBuilder name = new StringBuilder(key.length() + 1);
+    for (int i = 0; i < key.length(); i++) {
+      final char c = key.charAt(i);
+      final boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':';
+      final boolean digit = c >= '0' && c <= '9';
+      if (i == 0 && digit) {
+        name.append('_');
+      }
+      name.append(letter || digit ? c : '_');
+    }
+    return name.length() > 0 ? name.toString() : "_";
+  }
+
+  private static String labelValue(String key) {
+    return key.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,18 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources;
+
+import java.util.Map;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+public interface MetricBatchSource extends MetricSource {
+
+  public void collect(MetricBatch batch);
+
+  @Override
+  public default Map<String, String> getMetrics() {
+    final MetricBatch batch = new MetricBatch();
+    collect(batch);
+    return batch.toMap();
+  }
+
+}
@@ -1,37 +1,103 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.regions.Region;
-import com.amazonaws.regions.RegionUtils;
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsyncClientBuilder;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Holds the application's CloudWatch clients.
+ * They are created on first use and shared, so credentials and connection pools are reused across polls,
+ * and an installation which polls nothing from CloudWatch needs no region or endpoint.
+ * The async client runs at most ec2.cloudWatchConcurrency requests at a time.
+ */
 @Component
 public class CloudWatchClientFactory {
 
-  private final String accessKey;
-  private final String accessSecret;
+  private static final Logger log = Logger.getLogger(CloudWatchClientFactory.class);
+
+  public static final String UPSTREAM = "cloudwatch";
+
+  private final AWSCredentialsProvider credentials;
+  private final ClientConfiguration clientConfiguration;
   private final String regionName;
+  private final String endpoint;
+  private final ExecutorService asyncExecutor;
+
+  private AmazonCloudWatch cloudWatchClient;
+  private AmazonCloudWatchAsync asyncCloudWatchClient;
 
   @Autowired
   public CloudWatchClientFactory(@Value("${ec2.accessKey}") String accessKey,
                                  @Value("${ec2.accessSecret}") String accessSecret,
-                                 @Value("${ec2.regionName}") String regionName) {
-    this.accessKey = accessKey;
-    this.accessSecret = accessSecret;
+                                 @Value("${ec2.regionName}") String regionName,
+                                 @Value("${ec2.cloudWatchEndpoint:}") String endpoint,
+                                 @Value("${ec2.cloudWatchConcurrency:10}") int concurrency) {
+    this.credentials = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, accessSecret));
+    this.clientConfiguration = new ClientConfiguration().withMaxConnections(concurrency);
     this.regionName = regionName;
+    this.endpoint = endpoint;
+    asyncExecutor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder().setNameFormat("cloudwatch-%d").setDaemon(true).build());
+
+    if (!Strings.isNullOrEmpty(endpoint)) {
+      log.info("Using CloudWatch endpoint: " + endpoint);
+    } else if (Strings.isNullOrEmpty(regionName)) {
+      log.info("No CloudWatch region or endpoint is configured; CloudWatch can not be polled");
+    }
+  }
+
+  public synchronized AmazonCloudWatch getCloudWatchClient() {
+    if (cloudWatchClient == null) {
+      cloudWatchClient = configure(AmazonCloudWatchClientBuilder.standard()).build();
+    }
+    return cloudWatchClient;
+  }
+
+  public synchronized AmazonCloudWatchAsync getAsyncCloudWatchClient() {
+    if (asyncCloudWatchClient == null) {
+      asyncCloudWatchClient = configure(AmazonCloudWatchAsyncClientBuilder.standard().withExecutorFactory(() -> asyncExecutor)).build();
+    }
+    return asyncCloudWatchClient;
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    if (cloudWatchClient != null) {
+      cloudWatchClient.shutdown();
+    }
+    if (asyncCloudWatchClient != null) {
+      asyncCloudWatchClient.shutdown();
+    }
+    asyncExecutor.shutdownNow();
   }
 
-  public AmazonCloudWatchClient getCloudWatchClient() {
-    AWSCredentials credentials = new BasicAWSCredentials(accessKey, accessSecret);
-    AmazonCloudWatchClient amazonCloudWatchClient = new AmazonCloudWatchClient(credentials);
-    Region region = RegionUtils.getRegion(regionName);
-    amazonCloudWatchClient.setRegion(region);
-    return amazonCloudWatchClient;
+  private <B extends AwsClientBuilder<B, ?>> B configure(B builder) {
+    builder.withCredentials(credentials).withClientConfiguration(clientConfiguration);
+    if (!Strings.isNullOrEmpty(endpoint)) {
+      return builder.withEndpointConfiguration(new EndpointConfiguration(endpoint, regionName));
+    }
+    if (Strings.isNullOrEmpty(regionName)) {
+      throw new IllegalStateException("ec2.regionName or ec2.cloudWatchEndpoint must be set to poll CloudWatch");
+    }
+    return builder.withRegion(regionName);
   }
 
 }
@@ -0,0 +1,129 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.PollingPlan;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.DimensionFilter;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.ListMetricsResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * The resources a CloudWatch source polls: a configured list, plus any resource publishing the given metric whose name matches a pattern.
+ * Discovery pages through ListMetrics and is repeated every refresh interval.
+ * The targets are spread over a {@link PollingPlan} so each is polled once per minute, a slot at a time.
+ */
+public class CloudWatchTargets {
+
+  private static final Logger log = Logger.getLogger(CloudWatchTargets.class);
+
+  public static final int CYCLE_SECONDS = 60;
+
+  private final CloudWatchClientFactory cloudWatchClientFactory;
+  private final RateBudget rateBudget;
+  private final Instrumentation instrumentation;
+  private final String namespace;
+  private final String metricName;
+  private final String dimensionName;
+  private final List<String> configured;
+  private final Pattern pattern;
+  private final long refreshMillis;
+  private final PollingPlan plan;
+
+  private long nextRefresh = 0;
+
+  public CloudWatchTargets(CloudWatchClientFactory cloudWatchClientFactory, RateBudget rateBudget, Instrumentation instrumentation, String namespace, String metricName, String dimensionName,
+                           String configured, String pattern, int refreshSeconds, int slotSeconds) {
+    if (slotSeconds < 1 || CYCLE_SECONDS % slotSeconds != 0) {
+      throw new IllegalArgumentException("Poll slots of " + slotSeconds + " seconds do not divide a " + CYCLE_SECONDS + " second cycle");
+    }
+    this.cloudWatchClientFactory = cloudWatchClientFactory;
+    this.rateBudget = rateBudget;
+    this.instrumentation = instrumentation;
+    this.namespace = namespace;
+    this.metricName = metricName;
+    this.dimensionName = dimensionName;
+    this.configured = Lists.newArrayList(Splitter.on(",").trimResults().omitEmptyStrings().split(Strings.nullToEmpty(configured)));
+    this.pattern = !Strings.isNullOrEmpty(pattern) ? Pattern.compile(pattern) : null;
+    this.refreshMillis = refreshSeconds * 1000L;
+    this.plan = new PollingPlan(CYCLE_SECONDS / slotSeconds, slotSeconds * 1000L);
+    plan.update(this.configured);
+  }
+
+  public List<String> due(long now) {
+    if (pattern != null && now >= nextRefresh) {
+      nextRefresh = now + refreshMillis;
+      refresh();
+    }
+    return plan.due(now);
+  }
+
+  public Set<String> getTargets() {
+    return plan.getTargets();
+  }
+
+  // A failed discovery leaves the previous targets in place
+  private void refresh() {
+    final Set<String> targets = new TreeSet<>(configured);
+    try {
+      targets.addAll(discover());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (RuntimeException e) {
+      log.warn("Could not discover " + namespace + " " + dimensionName + "s", e);
+      return;
+    }
+    if (!targets.equals(plan.getTargets())) {
+      log.info("Polling " + targets.size() + " " + namespace + " " + dimensionName + "s over " + plan.getSlots() + " slots");
+    }
+    plan.update(targets);
+  }
+
+  private Set<String> discover() throws InterruptedException {
+    final AmazonCloudWatch cloudWatch = cloudWatchClientFactory.getCloudWatchClient();
+    final Set<String> discovered = Sets.newHashSet();
+    final ListMetricsRequest request = new ListMetricsRequest()
+            .withNamespace(namespace)
+            .withMetricName(metricName)
+            .withDimensions(new DimensionFilter().withName(dimensionName));
+    String nextToken = null;
+    do {
+      rateBudget.acquire(CloudWatchClientFactory.UPSTREAM);
+      final long start = System.nanoTime();
+      final ListMetricsResult page;
+      try {
+        page = cloudWatch.listMetrics(request.withNextToken(nextToken));
+      } catch (RuntimeException e) {
+        instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, start, Outcome.ERROR);
+        throw e;
+      }
+      instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, start, Outcome.SUCCESS);
+      for (Metric metric : page.getMetrics()) {
+        for (Dimension dimension : metric.getDimensions()) {
+          if (dimensionName.equals(dimension.getName()) && pattern.matcher(dimension.getValue()).matches()) {
+            discovered.add(dimension.getValue());
+          }
+        }
+      }
+      nextToken = page.getNextToken();
+    } while (nextToken != null);
+    return discovered;
+  }
+
+}
@@ -0,0 +1,76 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Reports the free storage space of RDS instances, taking the latest of the recent per-minute averages.
+ */
+@Component
+public class DatabaseMetricsSource implements MetricBatchSource {
+
+  private static final Logger log = Logger.getLogger(DatabaseMetricsSource.class);
+
+  private static final String FREE_STORAGE_SPACE = "FreeStorageSpace";
+  private static final long MINUTE_MILLIS = 60 * 1000L;
+  private static final int RECENT_MINUTES = 5;
+
+  private final MetricDataRetriever retriever;
+  private final CloudWatchTargets targets;
+  private final int slotSeconds;
+
+  @Autowired
+  public DatabaseMetricsSource(CloudWatchClientFactory cloudWatchClientFactory,
+                               RateBudget rateBudget,
+                               Instrumentation instrumentation,
+                               @Value("${ec2.databases:}") String databases,
+                               @Value("${ec2.discover.databases:}") String discoverPattern,
+                               @Value("${ec2.discoveryRefreshSeconds:300}") int discoveryRefreshSeconds,
+                               @Value("${ec2.pollSlotSeconds:10}") int slotSeconds) {
+    this.retriever = new MetricDataRetriever(cloudWatchClientFactory::getAsyncCloudWatchClient, rateBudget, instrumentation);
+    this.targets = new CloudWatchTargets(cloudWatchClientFactory, rateBudget, instrumentation, MetricQuery.AWS_RDS_NAMESPACE, FREE_STORAGE_SPACE, MetricQuery.DB_INSTANCE_IDENTIFIER,
+            databases, discoverPattern, discoveryRefreshSeconds, slotSeconds);
+    this.slotSeconds = slotSeconds;
+  }
+
+  @Override
+  public void collect(MetricBatch metrics) {
+    final long now = System.currentTimeMillis();
+    final List<String> databases = targets.due(now);
+    if (databases.isEmpty()) {
+      return;
+    }
+    log.info("Polling for RDS metrics: " + databases);
+
+    final List<MetricQuery> queries = Lists.newArrayListWithCapacity(databases.size());
+    for (String database : databases) {
+      queries.add(MetricQuery.freeStorageSpace(database));
+    }
+    final long lastMinute = now / MINUTE_MILLIS - 1;
+    final MetricDataResults results = retriever.retrieve(queries, new Date((lastMinute - RECENT_MINUTES + 1) * MINUTE_MILLIS), new Date((lastMinute + 1) * MINUTE_MILLIS), now + getInterval() * 1000L);
+
+    for (int i = 0; i < databases.size(); i++) {
+      if (results.isRetrieved(i) && !results.getValues(i).isEmpty()) {
+        metrics.addLong(databases.get(i) + "-" + FREE_STORAGE_SPACE, Math.round(results.getValues(i).get(0)));
+      }
+    }
+  }
+
+  @Override
+  public int getInterval() {
+    return slotSeconds;
+  }
+
+}
@@ -1,7 +1,6 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -10,86 +9,162 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricBatchSource;
 
-import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
-import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 @Component
-public class LoadBalancerMetricsSource implements MetricSource {
+public class LoadBalancerMetricsSource implements MetricBatchSource {
 
   private static final Logger log = Logger.getLogger(LoadBalancerMetricsSource.class);
 
-  private static final String DAY = "day";
-  private static final String HOUR = "hour";
-  private static final String MINUTE = "minute";
+  public static final int ROLLUP_MINUTES = 60 * 24;
+
+  private static final StatisticWindow[] PERIODS = StatisticWindow.values();
   private static final String HTTP_CODE_BACKEND_5XX = "HTTPCode_Backend_5XX";
   private static final String REQUEST_COUNT = "RequestCount";
+  private static final String LATENCY = "Latency";
+
+  private static final int THREE_DECIMAL_PLACES = 3;
+  private static final long MINUTE_MILLIS = 60 * 1000L;
+  // Recent minutes are re-read on every poll as CloudWatch fills in late datapoints
+  private static final int RECENT_MINUTES = 5;
 
-  private static final NumberFormat integer = new DecimalFormat("#");
-  private static final NumberFormat threeDecimalPlacesFormat = new DecimalFormat("#.###");
+  private static final int REQUESTS = 0;
+  private static final int FAILED_REQUESTS = 1;
+  private static final int LATENCY_TOTAL = 2;
+  private static final int LATENCY_SAMPLES = 3;
+  private static final int STATISTICS = 4;
 
-  private final CloudWatchClientFactory cloudWatchClientFactory;
-  private final List<String> loadBalancers;
+  private final MetricDataRetriever retriever;
+  private final CloudWatchTargets targets;
+  private final int slotSeconds;
+  private final Map<String, Keys> keys;
+  private final Map<String, Rollup> rollups;
 
   @Autowired
-  public LoadBalancerMetricsSource(CloudWatchClientFactory cloudWatchClientFactory, @Value("${ec2.loadBalancers}") String loadBalancers) {
-    this.cloudWatchClientFactory = cloudWatchClientFactory;
-    this.loadBalancers = Lists.newArrayList(Splitter.on(",").split(loadBalancers));
+  public LoadBalancerMetricsSource(CloudWatchClientFactory cloudWatchClientFactory,
+                                   RateBudget rateBudget,
+                                   Instrumentation instrumentation,
+                                   @Value("${ec2.loadBalancers:}") String loadBalancers,
+                                   @Value("${ec2.discover.loadBalancers:}") String discoverPattern,
+                                   @Value("${ec2.discoveryRefreshSeconds:300}") int discoveryRefreshSeconds,
+                                   @Value("${ec2.pollSlotSeconds:10}") int slotSeconds) {
+    this.retriever = new MetricDataRetriever(cloudWatchClientFactory::getAsyncCloudWatchClient, rateBudget, instrumentation);
+    this.targets = new CloudWatchTargets(cloudWatchClientFactory, rateBudget, instrumentation, MetricQuery.AWS_ELB_NAMESPACE, REQUEST_COUNT, MetricQuery.LOAD_BALANCER_NAME,
+            loadBalancers, discoverPattern, discoveryRefreshSeconds, slotSeconds);
+    this.slotSeconds = slotSeconds;
+    this.keys = Maps.newHashMap();
+    this.rollups = Maps.newHashMap();
   }
 
+  // Only per-minute datapoints are requested; longer periods are rolled up locally.
+  // A load balancer's last day is backfilled on the first poll and whenever polls have missed more than the recent minutes
   @Override
-  public Map<String, String> getMetrics() {
-    Map<String, String> metrics = Maps.newHashMap();
+  public void collect(MetricBatch metrics) {
+    final long now = System.currentTimeMillis();
+    final List<String> loadBalancers = targets.due(now);
+    rollups.keySet().retainAll(targets.getTargets());
+    keys.keySet().retainAll(targets.getTargets());
+    if (loadBalancers.isEmpty()) {
+      return;
+    }
+    log.info("Polling for ELB metrics: " + loadBalancers);
+    final long lastMinute = now / MINUTE_MILLIS - 1;
+    final long deadline = now + getInterval() * 1000L;
+
+    final List<String> backfill = Lists.newArrayList();
+    final List<String> recent = Lists.newArrayList();
     for (String loadBalancer : loadBalancers) {
-      log.info("Polling for ELB metrics: " + loadBalancer);
-      metrics.putAll(getLoadBalancerMetrics(loadBalancer));
+      if (rollups.computeIfAbsent(loadBalancer, name -> new Rollup()).minutes.getNewestMinute() < lastMinute - RECENT_MINUTES) {
+        backfill.add(loadBalancer);
+      } else {
+        recent.add(loadBalancer);
+      }
+    }
+    if (!backfill.isEmpty()) {
+      log.info("Backfilling " + ROLLUP_MINUTES + " minutes of ELB metrics: " + backfill);
+      fetch(backfill, ROLLUP_MINUTES, lastMinute, deadline);
+    }
+    if (!recent.isEmpty()) {
+      fetch(recent, RECENT_MINUTES, lastMinute, deadline);
+    }
+
+    for (String loadBalancer : loadBalancers) {
+      final Rollup rollup = rollups.get(loadBalancer);
+      if (rollup.minutes.getNewestMinute() != lastMinute) {
+        continue;
+      }
+      final Keys keys = this.keys.computeIfAbsent(loadBalancer, Keys::new);
+      for (int period = 0; period < PERIODS.length; period++) {
+        if (rollup.coveredFrom > lastMinute - PERIODS[period].getMinutes() + 1) {
+          continue;
+        }
+
+        final long requests = Math.round(rollup.minutes.sum(REQUESTS, period));
+        final long failedRequests = Math.round(rollup.minutes.sum(FAILED_REQUESTS, period));
+        final double samples = rollup.minutes.sum(LATENCY_SAMPLES, period);
+        final double latency = samples > 0 ? rollup.minutes.sum(LATENCY_TOTAL, period) / samples : 0;
+
+        metrics.addLong(keys.requestCount[period], requests);
+        metrics.addLong(keys.failedRequestCount[period], failedRequests);
+        metrics.addDouble(keys.latency[period], latency, THREE_DECIMAL_PLACES);
+        metrics.addDouble(keys.failedRequestPercentage[period], calculatePercentage(failedRequests, requests), THREE_DECIMAL_PLACES);
+      }
     }
-    return metrics;
   }
 
   @Override
   public int getInterval() {
-    return 60;
+    return slotSeconds;
   }
 
-  private Map<String, String> getLoadBalancerMetrics(String loadBalancer) {
-    final AmazonCloudWatchClient amazonCloudWatchClient = cloudWatchClientFactory.getCloudWatchClient();
-
-    final Map<String, String> metrics = Maps.newHashMap();
-
-    RequestBuilder loadBalancerRequestCount = new RequestBuilder().loadBalancerRequestCount(loadBalancer, REQUEST_COUNT);
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerRequestCount.lastMinuteOf()), loadBalancer, MINUTE));
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerRequestCount.lastHourOf()), loadBalancer, HOUR));
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerRequestCount.lastDayOf()), loadBalancer, DAY));
-
-    RequestBuilder loadBalancerFailedRequestCount = new RequestBuilder().loadBalancerRequestCount(loadBalancer, HTTP_CODE_BACKEND_5XX);
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerFailedRequestCount.lastMinuteOf()), loadBalancer, MINUTE));
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerFailedRequestCount.lastHourOf()), loadBalancer, HOUR));
-    metrics.putAll(parseDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerFailedRequestCount.lastDayOf()), loadBalancer, DAY));
-
-    RequestBuilder loadBalancerLatency = new RequestBuilder().loadBalancerLatency(loadBalancer);
-    metrics.putAll(parseAverageDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerLatency.lastMinuteOf()), loadBalancer, MINUTE));
-    metrics.putAll(parseAverageDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerLatency.lastHourOf()), loadBalancer, HOUR));
-    metrics.putAll(parseAverageDataPoints(amazonCloudWatchClient.getMetricStatistics(loadBalancerLatency.lastDayOf()), loadBalancer, DAY));
+  // Replaces the given number of minutes up to lastMinute in each load balancer's rollup; a load balancer is only updated if all of its statistics arrived
+  private void fetch(List<String> loadBalancers, int minutes, long lastMinute, long deadline) {
+    final List<MetricQuery> queries = Lists.newArrayListWithCapacity(loadBalancers.size() * STATISTICS);
+    for (String loadBalancer : loadBalancers) {
+      queries.add(MetricQuery.loadBalancerCount(loadBalancer, REQUEST_COUNT));
+      queries.add(MetricQuery.loadBalancerCount(loadBalancer, HTTP_CODE_BACKEND_5XX));
+      queries.add(MetricQuery.loadBalancerLatency(loadBalancer, "Sum"));
+      queries.add(MetricQuery.loadBalancerLatency(loadBalancer, "SampleCount"));
+    }
 
-    generateBadRequestPercentages(loadBalancer, metrics);
-    return metrics;
+    final long firstMinute = lastMinute - minutes + 1;
+    final MetricDataResults results = retriever.retrieve(queries, new Date(firstMinute * MINUTE_MILLIS), new Date((lastMinute + 1) * MINUTE_MILLIS), deadline);
+
+    for (int l = 0; l < loadBalancers.size(); l++) {
+      boolean retrieved = true;
+      for (int statistic = 0; statistic < STATISTICS; statistic++) {
+        retrieved &= results.isRetrieved(callIndex(l, statistic));
+      }
+      if (!retrieved) {
+        continue;
+      }
+
+      final Rollup rollup = rollups.get(loadBalancers.get(l));
+      rollup.minutes.advanceTo(lastMinute);
+      for (int statistic = 0; statistic < STATISTICS; statistic++) {
+        for (long minute = firstMinute; minute <= lastMinute; minute++) {
+          rollup.minutes.put(minute, statistic, 0);
+        }
+        final List<Date> timestamps = results.getTimestamps(callIndex(l, statistic));
+        final List<Double> values = results.getValues(callIndex(l, statistic));
+        for (int i = 0; i < timestamps.size(); i++) {
+          rollup.minutes.put(timestamps.get(i).getTime() / MINUTE_MILLIS, statistic, values.get(i));
+        }
+      }
+      if (minutes == ROLLUP_MINUTES) {
+        rollup.coveredFrom = firstMinute;
+      }
+    }
   }
 
-  private void generateBadRequestPercentages(String loadBalancer, final Map<String, String> metrics) {
-    List<String> periodsToCalculatePercentagesFor = Lists.newArrayList(MINUTE, HOUR, DAY);
-    for (String period : periodsToCalculatePercentagesFor) {
-      long bad = Long.parseLong(metrics.get(loadBalancer + "-HTTPCode_Backend_5XX-" + period));
-      long good = Long.parseLong(metrics.get(loadBalancer + "-RequestCount-" + period));
-
-      final double percentage = calculatePercentage(bad, good);
-      final String key = loadBalancer + "-HTTPCode_Backend_5XX-percentage-" + period;
-      metrics.put(key, threeDecimalPlacesFormat.format(percentage));
-    }
+  private int callIndex(int loadBalancer, int statistic) {
+    return loadBalancer * STATISTICS + statistic;
   }
 
   private double calculatePercentage(long bad, long good) {
@@ -102,18 +177,37 @@ public class LoadBalancerMetricsSource implements MetricSource {
     return (bad * 1.0 / good * 1.0) * 100;
   }
 
-  private Map<String, String> parseDataPoints(GetMetricStatisticsResult metricResult, String prefix, String suffix) {
-    final Map<String, String> metrics = Maps.newHashMap();
-    final Double sum = !metricResult.getDatapoints().isEmpty() ? metricResult.getDatapoints().get(0).getSum() : 0;
-    metrics.put(prefix + "-" + metricResult.getLabel() + "-" + suffix, integer.format(sum));
-    return metrics;
+  private static class Rollup {
+
+    private final MinuteRollup minutes = new MinuteRollup(STATISTICS, ROLLUP_MINUTES, windowMinutes());
+    // The oldest minute known to be complete; windows reaching further back are not reported
+    private long coveredFrom = Long.MAX_VALUE;
+
+    private static int[] windowMinutes() {
+      final int[] minutes = new int[PERIODS.length];
+      for (int period = 0; period < PERIODS.length; period++) {
+        minutes[period] = PERIODS[period].getMinutes();
+      }
+      return minutes;
+    }
   }
 
-  private Map<String, String> parseAverageDataPoints(GetMetricStatisticsResult metricResult, String prefix, String suffix) {
-    final Map<String, String> metrics = Maps.newHashMap();
-    final Double average = !metricResult.getDatapoints().isEmpty() ? metricResult.getDatapoints().get(0).getAverage() : 0;
-    metrics.put(prefix + "-" + metricResult.getLabel() + "-" + suffix, threeDecimalPlacesFormat.format(average));
-    return metrics;
+  // Metric keys are built once per load balancer rather than on every poll
+  private static class Keys {
+
+    private final String[] requestCount = new String[PERIODS.length];
+    private final String[] failedRequestCount = new String[PERIODS.length];
+    private final String[] latency = new String[PERIODS.length];
+    private final String[] failedRequestPercentage = new String[PERIODS.length];
+
+    private Keys(String loadBalancer) {
+      for (int period = 0; period < PERIODS.length; period++) {
+        requestCount[period] = loadBalancer + "-" + REQUEST_COUNT + "-" + PERIODS[period].getLabel();
+        failedRequestCount[period] = loadBalancer + "-" + HTTP_CODE_BACKEND_5XX + "-" + PERIODS[period].getLabel();
+        latency[period] = loadBalancer + "-" + LATENCY + "-" + PERIODS[period].getLabel();
+        failedRequestPercentage[period] = loadBalancer + "-" + HTTP_CODE_BACKEND_5XX + "-percentage-" + PERIODS[period].getLabel();
+      }
+    }
   }
 
 }
@@ -0,0 +1,49 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The datapoints retrieved for a list of {@link MetricQuery}s, by position in that list, newest first.
+ */
+public class MetricDataResults {
+
+  private final boolean[] retrieved;
+  private final List<List<Date>> timestamps;
+  private final List<List<Double>> values;
+
+  MetricDataResults(int size) {
+    retrieved = new boolean[size];
+    timestamps = Lists.newArrayListWithCapacity(size);
+    values = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      timestamps.add(Lists.newArrayList());
+      values.add(Lists.newArrayList());
+    }
+  }
+
+  // False if the request holding the query failed or did not complete in time
+  public boolean isRetrieved(int query) {
+    return retrieved[query];
+  }
+
+  public List<Date> getTimestamps(int query) {
+    return timestamps.get(query);
+  }
+
+  public List<Double> getValues(int query) {
+    return values.get(query);
+  }
+
+  void setRetrieved(int query) {
+    retrieved[query] = true;
+  }
+
+  void addAll(int query, List<Date> timestamps, List<Double> values) {
+    this.timestamps.get(query).addAll(timestamps);
+    this.values.get(query).addAll(values);
+  }
+
+}
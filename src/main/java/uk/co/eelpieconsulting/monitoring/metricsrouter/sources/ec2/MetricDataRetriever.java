@@ -0,0 +1,151 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.amazonaws.services.cloudwatch.model.ScanBy;
+import com.google.common.collect.Lists;
+
+/**
+ * Retrieves many CloudWatch statistics with as few GetMetricData calls as the service allows.
+ * Queries are combined into requests of up to {@value #MAX_QUERIES_PER_REQUEST} queries,
+ * and all of the requests are made concurrently.
+ */
+public class MetricDataRetriever {
+
+  private static final Logger log = Logger.getLogger(MetricDataRetriever.class);
+
+  static final int MAX_QUERIES_PER_REQUEST = 500;
+
+  private final Supplier<AmazonCloudWatchAsync> cloudWatch;
+  private final RateBudget rateBudget;
+  private final Instrumentation instrumentation;
+
+  // The client is only asked for once there is something to retrieve
+  public MetricDataRetriever(Supplier<AmazonCloudWatchAsync> cloudWatch, RateBudget rateBudget, Instrumentation instrumentation) {
+    this.cloudWatch = cloudWatch;
+    this.rateBudget = rateBudget;
+    this.instrumentation = instrumentation;
+  }
+
+  public MetricDataResults retrieve(List<MetricQuery> queries, Date start, Date end, long deadline) {
+    final List<Chunk> chunks = Lists.newArrayList();
+    final List<Integer> positions = Lists.newArrayListWithCapacity(queries.size());
+    for (int i = 0; i < queries.size(); i++) {
+      positions.add(i);
+    }
+    for (List<Integer> indexes : Lists.partition(positions, MAX_QUERIES_PER_REQUEST)) {
+      final List<MetricDataQuery> dataQueries = Lists.newArrayListWithCapacity(indexes.size());
+      for (int i = 0; i < indexes.size(); i++) {
+        dataQueries.add(new MetricDataQuery().withId(id(i)).withMetricStat(queries.get(indexes.get(i)).getMetricStat()));
+      }
+      final GetMetricDataRequest request = new GetMetricDataRequest()
+              .withMetricDataQueries(dataQueries)
+              .withStartTime(start)
+              .withEndTime(end)
+              .withScanBy(ScanBy.TimestampDescending);
+      try {
+        rateBudget.acquire(CloudWatchClientFactory.UPSTREAM);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      chunks.add(new Chunk(request, indexes, cloudWatch.get().getMetricDataAsync(request, new CallTimer())));
+    }
+    log.debug("Retrieving " + queries.size() + " statistics with " + chunks.size() + " GetMetricData requests");
+
+    final MetricDataResults results = new MetricDataResults(queries.size());
+    for (Chunk chunk : chunks) {
+      try {
+        GetMetricDataResult page = chunk.response.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        while (true) {
+          for (MetricDataResult result : page.getMetricDataResults()) {
+            final int query = chunk.indexes.get(Integer.parseInt(result.getId().substring(1)));
+            results.addAll(query, result.getTimestamps(), result.getValues());
+          }
+          if (page.getNextToken() == null) {
+            break;
+          }
+          rateBudget.acquire(CloudWatchClientFactory.UPSTREAM);
+          final long pageStart = System.nanoTime();
+          try {
+            page = cloudWatch.get().getMetricData(chunk.request.withNextToken(page.getNextToken()));
+          } catch (RuntimeException e) {
+            instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, pageStart, Outcome.ERROR);
+            throw e;
+          }
+          instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, pageStart, Outcome.SUCCESS);
+        }
+        for (int query : chunk.indexes) {
+          results.setRetrieved(query);
+        }
+
+      } catch (TimeoutException e) {
+        chunk.response.cancel(true);
+        instrumentation.recordUpstreamTimeouts(CloudWatchClientFactory.UPSTREAM, 1);
+        log.warn("GetMetricData request did not complete before the deadline");
+      } catch (ExecutionException e) {
+        log.warn("GetMetricData request failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (RuntimeException e) {
+        log.warn("GetMetricData request failed", e);
+      }
+    }
+    return results;
+  }
+
+  // Ids must start with a lower case letter and are only unique within a request
+  private String id(int position) {
+    return "q" + position;
+  }
+
+  // Times each asynchronous request from submission to completion on the client's own threads
+  private class CallTimer implements AsyncHandler<GetMetricDataRequest, GetMetricDataResult> {
+
+    private final long start = System.nanoTime();
+
+    @Override
+    public void onError(Exception exception) {
+      instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, start, Outcome.ERROR);
+    }
+
+    @Override
+    public void onSuccess(GetMetricDataRequest request, GetMetricDataResult result) {
+      instrumentation.recordUpstreamCall(CloudWatchClientFactory.UPSTREAM, start, Outcome.SUCCESS);
+    }
+  }
+
+  private static class Chunk {
+
+    private final GetMetricDataRequest request;
+    private final List<Integer> indexes;
+    private final Future<GetMetricDataResult> response;
+
+    private Chunk(GetMetricDataRequest request, List<Integer> indexes, Future<GetMetricDataResult> response) {
+      this.request = request;
+      this.indexes = indexes;
+      this.response = response;
+    }
+
+  }
+
+}
@@ -0,0 +1,47 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.amazonaws.services.cloudwatch.model.MetricStat;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * A single CloudWatch statistic, aggregated over periods of a given length.
+ */
+public class MetricQuery {
+
+  static final String AWS_ELB_NAMESPACE = "AWS/ELB";
+  static final String AWS_RDS_NAMESPACE = "AWS/RDS";
+  static final String DB_INSTANCE_IDENTIFIER = "DBInstanceIdentifier";
+  static final String LOAD_BALANCER_NAME = "LoadBalancerName";
+  private static final int MINUTE = 60;
+
+  private final MetricStat metricStat;
+
+  public MetricQuery(String namespace, String metricName, Dimension dimension, String stat, StandardUnit unit, int periodSeconds) {
+    this.metricStat = new MetricStat()
+            .withMetric(new Metric().withNamespace(namespace).withMetricName(metricName).withDimensions(dimension))
+            .withStat(stat)
+            .withPeriod(periodSeconds);
+    if (unit != null) {
+      metricStat.withUnit(unit);
+    }
+  }
+
+  public static MetricQuery loadBalancerCount(String loadBalancer, String metricName) {
+    return new MetricQuery(AWS_ELB_NAMESPACE, metricName, new Dimension().withName(LOAD_BALANCER_NAME).withValue(loadBalancer), "Sum", StandardUnit.Count, MINUTE);
+  }
+
+  public static MetricQuery loadBalancerLatency(String loadBalancer, String stat) {
+    return new MetricQuery(AWS_ELB_NAMESPACE, "Latency", new Dimension().withName(LOAD_BALANCER_NAME).withValue(loadBalancer), stat, StandardUnit.Seconds, MINUTE);
+  }
+
+  public static MetricQuery freeStorageSpace(String database) {
+    return new MetricQuery(AWS_RDS_NAMESPACE, "FreeStorageSpace", new Dimension().withName(DB_INSTANCE_IDENTIFIER).withValue(database), "Average", null, MINUTE);
+  }
+
+  public MetricStat getMetricStat() {
+    return metricStat;
+  }
+
+}
@@ -0,0 +1,110 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import java.util.Arrays;
+
+/**
+ * Per-minute values for a fixed number of series, held in a ring of minute buckets.
+ * Running totals are kept for each window so a window's sum is read without summing its buckets,
+ * and moving forward a minute costs one subtraction per series and window.
+ * The totals are recomputed from the buckets once per trip round the ring so rounding errors do not accumulate.
+ */
+public class MinuteRollup {
+
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final int capacity;
+  private final int[] windows;
+  private final double[][] buckets;
+  private final double[][] totals;
+
+  private long newestMinute = NONE;
+
+  public MinuteRollup(int series, int capacity, int... windows) {
+    for (int window : windows) {
+      if (window < 1 || window > capacity) {
+        throw new IllegalArgumentException("Window of " + window + " minutes does not fit in " + capacity + " buckets");
+      }
+    }
+    this.capacity = capacity;
+    this.windows = windows.clone();
+    this.buckets = new double[series][capacity];
+    this.totals = new double[series][windows.length];
+  }
+
+  // Moves the newest minute forward, expiring buckets which fall out of each window; minutes skipped over count as zero
+  public void advanceTo(long minute) {
+    if (newestMinute == NONE || minute - newestMinute >= capacity) {
+      clear();
+      newestMinute = minute;
+      return;
+    }
+    while (newestMinute < minute) {
+      newestMinute++;
+      final int slot = slot(newestMinute);
+      for (int s = 0; s < buckets.length; s++) {
+        for (int w = 0; w < windows.length; w++) {
+          totals[s][w] -= buckets[s][slot(newestMinute - windows[w])];
+        }
+        buckets[s][slot] = 0;
+      }
+      if (slot == 0) {
+        recomputeTotals();
+      }
+    }
+  }
+
+  // Sets the value of a minute, replacing any earlier value for it. Minutes older than the ring are ignored
+  public void put(long minute, int series, double value) {
+    if (newestMinute == NONE || minute > newestMinute) {
+      advanceTo(minute);
+    }
+    final long age = newestMinute - minute;
+    if (age >= capacity) {
+      return;
+    }
+    final int slot = slot(minute);
+    final double change = value - buckets[series][slot];
+    buckets[series][slot] = value;
+    for (int w = 0; w < windows.length; w++) {
+      if (age < windows[w]) {
+        totals[series][w] += change;
+      }
+    }
+  }
+
+  public double sum(int series, int window) {
+    return totals[series][window];
+  }
+
+  public long getNewestMinute() {
+    return newestMinute;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  private void clear() {
+    for (int s = 0; s < buckets.length; s++) {
+      Arrays.fill(buckets[s], 0);
+      Arrays.fill(totals[s], 0);
+    }
+  }
+
+  private void recomputeTotals() {
+    for (int s = 0; s < buckets.length; s++) {
+      for (int w = 0; w < windows.length; w++) {
+        double total = 0;
+        for (int age = 0; age < windows[w]; age++) {
+          total += buckets[s][slot(newestMinute - age)];
+        }
+        totals[s][w] = total;
+      }
+    }
+  }
+
+  private int slot(long minute) {
+    return (int) Math.floorMod(minute, (long) capacity);
+  }
+
+}
@@ -0,0 +1,29 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+/**
+ * The trailing windows statistics are reported over, rolled up from per-minute datapoints.
+ * A window may be up to {@link LoadBalancerMetricsSource#ROLLUP_MINUTES} long.
+ */
+public enum StatisticWindow {
+
+  MINUTE("minute", 1),
+  HOUR("hour", 60),
+  DAY("day", 60 * 24);
+
+  private final String label;
+  private final int minutes;
+
+  StatisticWindow(String label, int minutes) {
+    this.label = label;
+    this.minutes = minutes;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public int getMinutes() {
+    return minutes;
+  }
+
+}
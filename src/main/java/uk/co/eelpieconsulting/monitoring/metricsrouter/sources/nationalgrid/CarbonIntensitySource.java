@@ -7,8 +7,13 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import uk.co.eelpieconsulting.common.http.HttpFetcher;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.http.ConditionalGet;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.http.PooledHttpClient;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
 import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
 import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix.ZabbixAvailabilityMetricsSource;
 
@@ -21,25 +26,56 @@ public class CarbonIntensitySource implements MetricSource {
 
   private static final Logger log = Logger.getLogger(ZabbixAvailabilityMetricsSource.class);
 
-  private final String INTENSITY_ENDPOINT = "https://api.carbonintensity.org.uk/intensity";
-  private final int SOUTH_ENGLAND_REGION = 12;
-  private final String INTENSITY_REGIONAL_ENDPOINT = "https://api.carbonintensity.org.uk/regional/regionid/" + SOUTH_ENGLAND_REGION;
+  public static final String UPSTREAM = "carbonintensity";
+
+  private static final String API = "https://api.carbonintensity.org.uk";
+  private static final int SOUTH_ENGLAND_REGION = 12;
+
+  private final String INTENSITY_ENDPOINT;
+  private final String INTENSITY_REGIONAL_ENDPOINT;
 
   private final ObjectMapper mapper;
+  private final PooledHttpClient httpClient;
+  private final RateBudget rateBudget;
+  private final Instrumentation instrumentation;
+
+  private final ConditionalGet national;
+  private final ConditionalGet regional;
+  private Map<String, String> nationalResults;
+  private Map<String, String> regionalResults;
+
+  @Autowired
+  public CarbonIntensitySource(PooledHttpClient httpClient, RateBudget rateBudget, Instrumentation instrumentation) {
+    this(httpClient, rateBudget, instrumentation, API);
+  }
 
-  public CarbonIntensitySource() {
+  CarbonIntensitySource(PooledHttpClient httpClient, RateBudget rateBudget, Instrumentation instrumentation, String api) {
+    INTENSITY_ENDPOINT = api + "/intensity";
+    INTENSITY_REGIONAL_ENDPOINT = api + "/regional/regionid/" + SOUTH_ENGLAND_REGION;
+    national = new ConditionalGet(INTENSITY_ENDPOINT);
+    regional = new ConditionalGet(INTENSITY_REGIONAL_ENDPOINT);
     ObjectMapper mapper = new ObjectMapper();
     mapper.enable(SerializationFeature.WRITE_NULL_MAP_VALUES);
     this.mapper = mapper;
+    this.httpClient = httpClient;
+    this.rateBudget = rateBudget;
+    this.instrumentation = instrumentation;
   }
 
+  // Unchanged responses are answered with a 304 and the results parsed from the last full response are reused
   @Override
-  public Map<String, String> getMetrics() {
+  public synchronized Map<String, String> getMetrics() {
     try {
       log.info("Fetching current intensity: " + INTENSITY_ENDPOINT);
-      Map<String, String> nationalResults = parseJson(new HttpFetcher().get(INTENSITY_ENDPOINT), "national");
+      final String nationalJson = fetch(national);
+      if (nationalJson != null || nationalResults == null) {
+        nationalResults = parse(national, nationalJson, json -> parseJson(json, "national"));
+      }
       log.info("Fetching current regional intensity: " + INTENSITY_REGIONAL_ENDPOINT);
-      Map<String, String> regionalResults = parseRegionalJson(new HttpFetcher().get(INTENSITY_REGIONAL_ENDPOINT), "south-england");
+      final String regionalJson = fetch(regional);
+      if (regionalJson != null || regionalResults == null) {
+        regionalResults = parse(regional, regionalJson, json -> parseRegionalJson(json, "south-england"));
+      }
 
       Map<String, String> combined = Maps.newHashMap(nationalResults);
       combined.putAll(regionalResults);
@@ -51,6 +87,32 @@ public class CarbonIntensitySource implements MetricSource {
     }
   }
 
+  private String fetch(ConditionalGet resource) throws IOException, InterruptedException {
+    rateBudget.acquire(UPSTREAM);
+    final long start = System.nanoTime();
+    try {
+      final String body = httpClient.get(resource);
+      instrumentation.recordUpstreamCall(UPSTREAM, start, Outcome.SUCCESS);
+      return body;
+    } catch (IOException | RuntimeException e) {
+      instrumentation.recordUpstreamCall(UPSTREAM, start, Outcome.ERROR);
+      throw e;
+    }
+  }
+
+  private Map<String, String> parse(ConditionalGet resource, String json, Parser parser) throws IOException {
+    if (json == null) {
+      resource.reset();
+      throw new IOException("Not modified response for " + resource.getUrl() + " with no previous results");
+    }
+    try {
+      return parser.parse(json);
+    } catch (IOException | RuntimeException e) {
+      resource.reset();
+      throw e;
+    }
+  }
+
   protected HashMap<String, String> parseJson(String json, String key) throws IOException {
     JsonNode jsonNode = mapper.readTree(json);
     JsonNode data = jsonNode.path("data");
@@ -81,6 +143,10 @@ public class CarbonIntensitySource implements MetricSource {
     return 300;
   }
 
+  private interface Parser {
+    Map<String, String> parse(String json) throws IOException;
+  }
+
 }
 
 
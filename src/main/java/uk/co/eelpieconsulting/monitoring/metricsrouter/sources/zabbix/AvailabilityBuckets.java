@@ -0,0 +1,96 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * Contiguous time buckets and the milliseconds spent in each trigger state within them, filled in by {@link AvailabilitySweep}.
+ */
+public class AvailabilityBuckets {
+
+  private final long[] boundaries;
+  private final long[] good;
+  private final long[] bad;
+  private final long[] unknown;
+
+  // boundaries holds the start of each bucket followed by the end of the last one, in ascending milliseconds
+  public AvailabilityBuckets(long[] boundaries) {
+    if (boundaries.length < 1) {
+      throw new IllegalArgumentException("At least one boundary is needed");
+    }
+    for (int i = 1; i < boundaries.length; i++) {
+      if (boundaries[i] <= boundaries[i - 1]) {
+        throw new IllegalArgumentException("Boundaries must be ascending");
+      }
+    }
+    this.boundaries = boundaries;
+    this.good = new long[boundaries.length - 1];
+    this.bad = new long[boundaries.length - 1];
+    this.unknown = new long[boundaries.length - 1];
+  }
+
+  public static AvailabilityBuckets of(List<DateTime> boundaries) {
+    final long[] millis = new long[boundaries.size()];
+    for (int i = 0; i < millis.length; i++) {
+      millis[i] = boundaries.get(i).getMillis();
+    }
+    return new AvailabilityBuckets(millis);
+  }
+
+  public int size() {
+    return good.length;
+  }
+
+  public long getStart(int bucket) {
+    return boundaries[bucket];
+  }
+
+  public long getEnd(int bucket) {
+    return boundaries[bucket + 1];
+  }
+
+  public long getGood(int bucket) {
+    return good[bucket];
+  }
+
+  public long getBad(int bucket) {
+    return bad[bucket];
+  }
+
+  public long getUnknown(int bucket) {
+    return unknown[bucket];
+  }
+
+  // Availability as a percentage to 2 places, or null when the bucket has no good or bad time to report on
+  public String getAvailability(int bucket) {
+    return availability(good[bucket], bad[bucket]);
+  }
+
+  static String availability(long good, long bad) {
+    if (good == 0) {
+      return bad > 0 ? "0.00" : null;
+    }
+    BigDecimal divide = new BigDecimal(bad).setScale(4).divide(new BigDecimal(good).setScale(4), 4);
+    return new BigDecimal(1).subtract(divide).multiply(new BigDecimal(100)).setScale(2).toString();
+  }
+
+  long[] boundaries() {
+    return boundaries;
+  }
+
+  void add(int bucket, int state, long millis) {
+    switch (state) {
+      case AvailabilitySweep.GOOD_STATE:
+        good[bucket] += millis;
+        break;
+      case AvailabilitySweep.BAD_STATE:
+        bad[bucket] += millis;
+        break;
+      default:
+        unknown[bucket] += millis;
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * The bucket sizes availability can be reported at, with the window of completed buckets published for each.
+ */
+public enum AvailabilityGranularity {
+
+  // Labelled in UTC, as the local hour repeats when the clocks go back
+  HOUR(DateTimeFormat.forPattern("yyyyMMddHH'Z'").withZoneUTC()) {
+    @Override
+    public DateTime floor(DateTime time) {
+      return time.hourOfDay().roundFloorCopy();
+    }
+
+    @Override
+    public DateTime next(DateTime bucketStart) {
+      return bucketStart.plusHours(1);
+    }
+
+    @Override
+    public DateTime windowStart(DateTime windowEnd) {
+      return windowEnd.minusHours(48);
+    }
+  },
+
+  DAY(ISODateTimeFormat.basicDate()) {
+    @Override
+    public DateTime floor(DateTime time) {
+      return time.withTimeAtStartOfDay();
+    }
+
+    @Override
+    public DateTime next(DateTime bucketStart) {
+      return bucketStart.plusDays(1);
+    }
+
+    @Override
+    public DateTime windowStart(DateTime windowEnd) {
+      return windowEnd.minusMonths(1);
+    }
+  },
+
+  WEEK(DateTimeFormat.forPattern("xxxx'W'ww")) {
+    @Override
+    public DateTime floor(DateTime time) {
+      return time.weekOfWeekyear().roundFloorCopy();
+    }
+
+    @Override
+    public DateTime next(DateTime bucketStart) {
+      return bucketStart.plusWeeks(1);
+    }
+
+    @Override
+    public DateTime windowStart(DateTime windowEnd) {
+      return windowEnd.minusWeeks(12);
+    }
+  },
+
+  MONTH(DateTimeFormat.forPattern("YYYYMM")) {
+    @Override
+    public DateTime floor(DateTime time) {
+      return time.monthOfYear().roundFloorCopy();
+    }
+
+    @Override
+    public DateTime next(DateTime bucketStart) {
+      return bucketStart.plusMonths(1);
+    }
+
+    @Override
+    public DateTime windowStart(DateTime windowEnd) {
+      return windowEnd.minusMonths(6);
+    }
+  };
+
+  private final DateTimeFormatter labelFormat;
+
+  AvailabilityGranularity(DateTimeFormatter labelFormat) {
+    this.labelFormat = labelFormat;
+  }
+
+  public abstract DateTime floor(DateTime time);
+
+  public abstract DateTime next(DateTime bucketStart);
+
+  public abstract DateTime windowStart(DateTime windowEnd);
+
+  public String label(DateTime bucketStart) {
+    return labelFormat.print(bucketStart);
+  }
+
+}
@@ -0,0 +1,65 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+/**
+ * Splits a trigger's state history across any number of bucket sets in a single pass over its events.
+ * Time before the first known event is unknown; the state of the last event runs until the given end of observation.
+ */
+public class AvailabilitySweep {
+
+  static final int GOOD_STATE = 0;
+  static final int BAD_STATE = 1;
+  static final int UNKNOWN_STATE = 2;
+
+  public static void sweep(TriggerEventLog events, long until, AvailabilityBuckets... bucketSets) {
+    long from = Long.MAX_VALUE;
+    for (AvailabilityBuckets buckets : bucketSets) {
+      from = Math.min(from, buckets.boundaries()[0]);
+    }
+    if (bucketSets.length == 0 || from >= until) {
+      return;
+    }
+
+    final int[] cursors = new int[bucketSets.length];
+    int index = events.indexAtOrBefore(from / 1000);
+    int state = index >= 0 ? events.getValue(index) : UNKNOWN_STATE;
+    long segmentStart = from;
+    for (index++; index < events.size(); index++) {
+      final long clock = events.getClock(index) * 1000;
+      if (clock >= until) {
+        break;
+      }
+      if (clock > segmentStart) {
+        accumulate(bucketSets, cursors, segmentStart, clock, state);
+        segmentStart = clock;
+      }
+      state = events.getValue(index);
+    }
+    accumulate(bucketSets, cursors, segmentStart, until, state);
+  }
+
+  private static void accumulate(AvailabilityBuckets[] bucketSets, int[] cursors, long from, long to, int state) {
+    for (int k = 0; k < bucketSets.length; k++) {
+      final AvailabilityBuckets buckets = bucketSets[k];
+      final long[] boundaries = buckets.boundaries();
+      final int count = boundaries.length - 1;
+
+      int bucket = cursors[k];
+      while (bucket < count && boundaries[bucket + 1] <= from) {
+        bucket++;
+      }
+      cursors[k] = bucket;
+
+      while (bucket < count && boundaries[bucket] < to) {
+        final long overlap = Math.min(to, boundaries[bucket + 1]) - Math.max(from, boundaries[bucket]);
+        if (overlap > 0) {
+          buckets.add(bucket, state, overlap);
+        }
+        if (boundaries[bucket + 1] > to) {
+          break;
+        }
+        bucket++;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The state changes of a single trigger, in clock order, held as primitive arrays.
+ * Also remembers availability results already calculated for periods which have closed.
+ */
+public class TriggerEventLog {
+
+  private static final int FORMAT_VERSION = 1;
+
+  private long[] clocks = new long[64];
+  private byte[] values = new byte[64];
+  private int size = 0;
+  private long lastEventId = -1;
+  private final Map<String, String> closedResults = Maps.newHashMap();
+
+  public int size() {
+    return size;
+  }
+
+  public long getClock(int index) {
+    return clocks[index];
+  }
+
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  public long getLastEventId() {
+    return lastEventId;
+  }
+
+  public long getLastClock() {
+    return size > 0 ? clocks[size - 1] : -1;
+  }
+
+  // Index of the last event with a clock at or before the given clock, or -1 if there is none
+  public int indexAtOrBefore(long clock) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (clocks[mid] <= clock) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void append(long eventId, long clock, int value) {
+    if (eventId <= lastEventId) {
+      return;
+    }
+    if (size == clocks.length) {
+      clocks = Arrays.copyOf(clocks, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    clocks[size] = clock;
+    values[size] = (byte) value;
+    size++;
+    lastEventId = eventId;
+  }
+
+  // Drops events before the given clock, keeping the last of them as the state the window starts in
+  public void prune(long retainFromClock) {
+    int firstRetained = 0;
+    while (firstRetained < size && clocks[firstRetained] < retainFromClock) {
+      firstRetained++;
+    }
+    final int drop = firstRetained - 1;
+    if (drop > 0) {
+      System.arraycopy(clocks, drop, clocks, 0, size - drop);
+      System.arraycopy(values, drop, values, 0, size - drop);
+      size -= drop;
+    }
+  }
+
+  public String getClosedResult(String period) {
+    return closedResults.get(period);
+  }
+
+  public void putClosedResult(String period, String result) {
+    closedResults.put(period, result);
+  }
+
+  public void retainClosedResults(Set<String> periods) {
+    closedResults.keySet().retainAll(periods);
+  }
+
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(lastEventId);
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeLong(clocks[i]);
+      out.writeByte(values[i]);
+    }
+    out.writeInt(closedResults.size());
+    for (Map.Entry<String, String> result : closedResults.entrySet()) {
+      out.writeUTF(result.getKey());
+      out.writeUTF(result.getValue());
+    }
+  }
+
+  public static TriggerEventLog read(DataInputStream in) throws IOException {
+    final int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported event log version: " + version);
+    }
+    final TriggerEventLog log = new TriggerEventLog();
+    final long lastEventId = in.readLong();
+    final int size = in.readInt();
+    log.clocks = new long[Math.max(size, 64)];
+    log.values = new byte[Math.max(size, 64)];
+    for (int i = 0; i < size; i++) {
+      log.clocks[i] = in.readLong();
+      log.values[i] = in.readByte();
+    }
+    log.size = size;
+    log.lastEventId = lastEventId;
+    final int results = in.readInt();
+    for (int i = 0; i < results; i++) {
+      log.closedResults.put(in.readUTF(), in.readUTF());
+    }
+    return log;
+  }
+
+}
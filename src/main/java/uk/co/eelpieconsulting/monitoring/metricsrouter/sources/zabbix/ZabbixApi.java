@@ -1,91 +1,111 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-
-import uk.co.eelpieconsulting.common.http.HttpBadRequestException;
-import uk.co.eelpieconsulting.common.http.HttpFetchException;
-import uk.co.eelpieconsulting.common.http.HttpFetcher;
-import uk.co.eelpieconsulting.common.http.HttpForbiddenException;
-import uk.co.eelpieconsulting.common.http.HttpNotFoundException;
-
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.http.PooledHttpClient;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation.Outcome;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
 import com.google.common.collect.Maps;
 
+/**
+ * Zabbix JSON-RPC client shared by all of the Zabbix sources.
+ * Holds a single session which is reused across calls and re-established, by one caller at a time, when Zabbix rejects it.
+ * Requests are written and responses read as streams by {@link ZabbixRequestWriter} and {@link ZabbixResponseReader}.
+ */
+@Component
 public class ZabbixApi {
 
-  private final ZabbixRequestJsonBuilder zabbixRequestJsonBuilder;
-  private final HttpFetcher httpFetcher;
-  private final ObjectMapper objectMapper;
-  private String zabbixUrl;
-
-  public ZabbixApi(ZabbixRequestJsonBuilder zabbixRequestJsonBuilder, HttpFetcher httpFetcher, String zabbixUrl) {
-    this.zabbixRequestJsonBuilder = zabbixRequestJsonBuilder;
-    this.httpFetcher = httpFetcher;
-    this.zabbixUrl = zabbixUrl;
-    this.objectMapper = new ObjectMapper();
-    objectMapper.enable(SerializationFeature.WRITE_NULL_MAP_VALUES);
-  }
-
-  public String getAuthToken(String user, String password) throws JsonParseException, JsonMappingException, HttpNotFoundException,
-          HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createAuthJson(user, password));
-    final Map<Object, Object> readValue = objectMapper.readValue(httpFetcher.post(httpPost), Map.class);
-    return (String) readValue.get("result");
-  }
-
-  public Map<String, String> getHosts(final String authToken) throws UnsupportedEncodingException, JsonProcessingException,
-          HttpNotFoundException, HttpBadRequestException,
-          HttpForbiddenException, HttpFetchException, IOException,
-          JsonParseException, JsonMappingException {
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createHostsJson(authToken));
-    Map readValue = objectMapper.readValue(httpFetcher.post(httpPost), Map.class);
-    List<Map<String, Object>> results = (List<Map<String, Object>>) readValue.get("result");
-
-    Map<String, String> hosts = Maps.newHashMap();
-    for (Map<String, Object> map : results) {
-      hosts.put((String) map.get("hostid"), (String) map.get("host"));
+  private static final Logger log = Logger.getLogger(ZabbixApi.class);
+
+  // Name under which calls to Zabbix share a fan-out concurrency limit
+  public static final String UPSTREAM = "zabbix";
+
+  private static final ContentType JSON_RPC = ContentType.create("application/json-rpc", (Charset) null);
+
+  private final ZabbixRequestWriter requestWriter = new ZabbixRequestWriter();
+  private final ZabbixResponseReader responseReader = new ZabbixResponseReader();
+  private final CloseableHttpClient httpClient;
+  private final RateBudget rateBudget;
+  private final Instrumentation instrumentation;
+  private final String apiUrl;
+  private final String user;
+  private final String password;
+
+  private final Object loginLock = new Object();
+  private volatile String authToken;
+
+  @Autowired
+  public ZabbixApi(PooledHttpClient pooledHttpClient,
+                   RateBudget rateBudget,
+                   Instrumentation instrumentation,
+                   @Value("${zabbix.url}") String zabbixUrl,
+                   @Value("${zabbix.username}") String user,
+                   @Value("${zabbix.password}") String password) {
+    this(pooledHttpClient.getHttpClient(), rateBudget, instrumentation, zabbixUrl, user, password);
+  }
+
+  public ZabbixApi(CloseableHttpClient httpClient, RateBudget rateBudget, Instrumentation instrumentation, String zabbixUrl, String user, String password) {
+    this.httpClient = httpClient;
+    this.rateBudget = rateBudget;
+    this.instrumentation = instrumentation;
+    this.apiUrl = zabbixUrl + "/api_jsonrpc.php";
+    this.user = user;
+    this.password = password;
+  }
+
+  public Map<String, String> getHosts() throws IOException {
+    final Map<String, String> hosts = Maps.newHashMap();
+    for (ZabbixHost host : call((out, authToken) -> requestWriter.writeGetHosts(out, authToken), ZabbixResponseReader.HOSTS)) {
+      hosts.put(host.getHostId(), host.getHost());
     }
     return hosts;
   }
 
-  public Map getEvents(String authToken, long triggerId) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createEventsRequestJson(authToken, triggerId));
-    return objectMapper.readValue(httpFetcher.post(httpPost), Map.class);
+  public List<ZabbixEvent> getEventsSince(long triggerId, long timeFrom) throws IOException {
+    return call((out, authToken) -> requestWriter.writeGetEventsSince(out, authToken, triggerId, timeFrom), ZabbixResponseReader.EVENTS);
   }
 
-  public Map getItemsByKey(final String authToken, String key) throws UnsupportedEncodingException, JsonProcessingException,
-          HttpNotFoundException, HttpBadRequestException,
-          HttpForbiddenException, HttpFetchException, IOException,
-          JsonParseException, JsonMappingException {
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createGetItemsByKeyJson(authToken, key));
-    return objectMapper.readValue(httpFetcher.post(httpPost), Map.class);
+  public List<ZabbixEvent> getLastEventBefore(long triggerId, long timeTill) throws IOException {
+    return call((out, authToken) -> requestWriter.writeGetLastEventBefore(out, authToken, triggerId, timeTill), ZabbixResponseReader.EVENTS);
   }
 
-  @SuppressWarnings("unchecked")
-  public Map<String, String> getTriggerStates(String authToken) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, HttpFetchException, IOException {
+  public List<ZabbixItem> getItemsByKeys(List<String> keys) throws IOException {
+    return call((out, authToken) -> requestWriter.writeGetItemsByKeys(out, authToken, keys), ZabbixResponseReader.ITEMS);
+  }
+
+  public List<ZabbixItem> getItemsByIds(List<String> itemIds) throws IOException {
+    return call((out, authToken) -> requestWriter.writeGetItemsByIds(out, authToken, itemIds), ZabbixResponseReader.ITEMS);
+  }
+
+  public Map<String, String> getTriggerStates() throws IOException {
     Map<String, String> triggerMetrics = Maps.newHashMap();
 
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createGetTriggersJson(authToken));
-    final List<Map<String, Object>> results = (List<Map<String, Object>>) objectMapper.readValue(httpFetcher.post(httpPost), Map.class).get("result");
     int numberOfActiveTriggers = 0;
-    for (Map<String, Object> result : results) {
-      final boolean isTriggered = !result.get("value").equals("0");
-      if (isTriggered) {
+    for (ZabbixTrigger trigger : call((out, authToken) -> requestWriter.writeGetTriggers(out, authToken), ZabbixResponseReader.TRIGGERS)) {
+      if (trigger.isTriggered()) {
         numberOfActiveTriggers++;
       }
-
-      final String label = (String) result.get("description");
-      triggerMetrics.put(label, Boolean.toString(!isTriggered));
+      triggerMetrics.put(trigger.getDescription(), Boolean.toString(!trigger.isTriggered()));
     }
 
     triggerMetrics.put("numberOfActiveTriggers", Integer.toString(numberOfActiveTriggers));
@@ -93,27 +113,113 @@ public class ZabbixApi {
     return triggerMetrics;
   }
 
-  @SuppressWarnings("unchecked")
-  public Map<String, String> getTriggers(String authToken) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, HttpFetchException, IOException {
+  public Map<String, String> getTriggers() throws IOException {
     final Map<String, String> triggers = Maps.newHashMap();
+    for (ZabbixTrigger trigger : call((out, authToken) -> requestWriter.writeGetTriggers(out, authToken), ZabbixResponseReader.TRIGGERS)) {
+      triggers.put(trigger.getTriggerId(), trigger.getDescription());
+    }
+    return triggers;
+  }
 
-    final HttpPost httpPost = setupApiPost(zabbixRequestJsonBuilder.createGetTriggersJson(authToken));
-    String json = httpFetcher.post(httpPost);
-    final List<Map<String, Object>> results = (List<Map<String, Object>>) objectMapper.readValue(json, Map.class).get("result");
-    for (Map<String, Object> result : results) {
-      final String triggerId = (String) result.get("triggerid");
-      final String label = (String) result.get("description");
-      triggers.put(triggerId, label);
+  private <T> T call(ZabbixCall zabbixCall, ZabbixResponseReader.ResultReader<T> resultReader) throws IOException {
+    final String sessionToken = authToken();
+    try {
+      return post(out -> zabbixCall.write(out, sessionToken), resultReader);
+    } catch (ZabbixApiException e) {
+      if (!e.isSessionError()) {
+        throw e;
+      }
+      log.info("Zabbix session is no longer valid; logging in again");
+      invalidate(sessionToken);
+      final String newToken = authToken();
+      return post(out -> zabbixCall.write(out, newToken), resultReader);
     }
+  }
 
-    return triggers;
+  private String authToken() throws IOException {
+    final String currentToken = authToken;
+    if (currentToken != null) {
+      return currentToken;
+    }
+    synchronized (loginLock) {
+      if (authToken == null) {
+        authToken = login();
+      }
+      return authToken;
+    }
+  }
+
+  private void invalidate(String staleToken) {
+    synchronized (loginLock) {
+      if (staleToken != null && staleToken.equals(authToken)) {
+        authToken = null;
+      }
+    }
+  }
+
+  private String login() throws IOException {
+    log.info("Logging in to Zabbix as: " + user);
+    final String token = post(out -> requestWriter.writeAuth(out, user, password), ZabbixResponseReader.STRING);
+    if (token == null) {
+      throw new ZabbixApiException("Zabbix login failed: no session token returned");
+    }
+    return token;
+  }
+
+  private <T> T post(RequestBody body, ZabbixResponseReader.ResultReader<T> resultReader) throws IOException {
+    final RequestBuffer buffer = new RequestBuffer();
+    body.write(buffer);
+
+    try {
+      rateBudget.acquire(UPSTREAM);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the Zabbix rate budget");
+    }
+    final HttpPost httpPost = new HttpPost(apiUrl);
+    httpPost.setEntity(buffer.toEntity());
+    final long start = System.nanoTime();
+    try {
+      final T result = httpClient.execute(httpPost, response -> {
+        final int status = response.getStatusLine().getStatusCode();
+        final HttpEntity entity = response.getEntity();
+        if (status != 200 || entity == null) {
+          throw new ZabbixApiException("Zabbix API returned HTTP status " + status);
+        }
+        try (InputStream in = entity.getContent()) {
+          return responseReader.read(in, resultReader);
+        }
+      });
+      instrumentation.recordUpstreamCall(UPSTREAM, start, Outcome.SUCCESS);
+      return result;
+    } catch (SocketTimeoutException e) {
+      instrumentation.recordUpstreamCall(UPSTREAM, start, Outcome.TIMEOUT);
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      instrumentation.recordUpstreamCall(UPSTREAM, start, Outcome.ERROR);
+      throw e;
+    }
+  }
+
+  private interface ZabbixCall {
+    void write(OutputStream out, String authToken) throws IOException;
+  }
+
+  private interface RequestBody {
+    void write(OutputStream out) throws IOException;
   }
 
-  private HttpPost setupApiPost(String json) throws UnsupportedEncodingException {
-    final HttpPost httpPost = new HttpPost(zabbixUrl + "/api_jsonrpc.php");
-    httpPost.addHeader("Content-Type", "application/json-rpc");
-    httpPost.setEntity(new StringEntity(json));
-    return httpPost;
+  // Hands its backing array to the request entity rather than copying it
+  private static class RequestBuffer extends ByteArrayOutputStream {
+
+    private RequestBuffer() {
+      super(512);
+    }
+
+    private HttpEntity toEntity() {
+      return new ByteArrayEntity(buf, 0, count, JSON_RPC);
+    }
+
   }
 
 }
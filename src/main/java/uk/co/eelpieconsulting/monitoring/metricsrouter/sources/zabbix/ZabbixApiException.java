@@ -0,0 +1,25 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.io.IOException;
+
+public class ZabbixApiException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final boolean sessionError;
+
+  public ZabbixApiException(String message) {
+    this(message, false);
+  }
+
+  public ZabbixApiException(String message, boolean sessionError) {
+    super(message);
+    this.sessionError = sessionError;
+  }
+
+  // True when Zabbix rejected the call because the session token is no longer valid
+  public boolean isSessionError() {
+    return sessionError;
+  }
+
+}
@@ -1,53 +1,49 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.ISODateTimeFormat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import uk.co.eelpieconsulting.common.http.*;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.FanOut;
 import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
 
-import java.io.IOException;
-import java.math.BigDecimal;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 @Component
 public class ZabbixAvailabilityMetricsSource implements MetricSource {
 
   private static final Logger log = Logger.getLogger(ZabbixAvailabilityMetricsSource.class);
 
-  private static final String ZABBIX_GOOD_STATE = "0";
-  private static final String ZABBIX_BAD_STATE = "1";
-  private static final String ZABBIX_UNKNOWN_STATE = "2";
-
   private final ZabbixApi zabbixApi;
-  private final String zabbixUsername;
-  private final String zabbixPassword;
+  private final ZabbixEventJournal eventJournal;
+  private final FanOut fanOut;
 
   private final List<String> triggerIds;
+  private final List<AvailabilityGranularity> granularities;
 
   @Autowired
-  public ZabbixAvailabilityMetricsSource(@Value("${zabbix.url}") String zabbixUrl,
-                                         @Value("${zabbix.username}") String zabbixUsername,
-                                         @Value("${zabbix.password}") String zabbixPassword,
-                                         @Value("${zabbix.triggers}") String triggers) {
-    this.zabbixUsername = zabbixUsername;
-    this.zabbixPassword = zabbixPassword;
-
-    this.zabbixApi = new ZabbixApi(new ZabbixRequestJsonBuilder(), new HttpFetcher(), zabbixUrl);
+  public ZabbixAvailabilityMetricsSource(ZabbixApi zabbixApi, ZabbixEventJournal eventJournal, FanOut fanOut,
+                                         @Value("${zabbix.triggers}") String triggers,
+                                         @Value("${zabbix.availability.granularities:day,month}") String granularities) {
+    this.zabbixApi = zabbixApi;
+    this.eventJournal = eventJournal;
+    this.fanOut = fanOut;
     this.triggerIds = Strings.isNullOrEmpty(triggers) ? Lists.<String>newArrayList() : Lists.newArrayList(Splitter.on(",").split(triggers));
-    log.info("Using triggers:" + triggerIds + " (" + triggerIds.size() + ")");
+    this.granularities = Lists.newArrayList();
+    for (String granularity : Splitter.on(",").trimResults().omitEmptyStrings().split(granularities)) {
+      this.granularities.add(AvailabilityGranularity.valueOf(granularity.toUpperCase(Locale.ROOT)));
+    }
+    log.info("Using triggers:" + triggerIds + " (" + triggerIds.size() + ") at granularities: " + this.granularities);
   }
 
   @Override
@@ -59,117 +55,111 @@ public class ZabbixAvailabilityMetricsSource implements MetricSource {
   public Map<String, String> getMetrics() {
     Map<String, String> metrics = Maps.newHashMap();
 
-    DateTime end = new DateTime(DateTime.now().toDateMidnight());
-    DateTime start = end.minusMonths(1);
-    for (String triggerId : triggerIds) {
-      try {
-        metrics.putAll(populateDayMetrics(start, end, Integer.parseInt(triggerId)));
-      } catch (Exception e) {
-        log.error("Failed to parse trigger id: " + triggerId, e);
-      }
+    final DateTime now = DateTime.now();
+    final List<List<DateTime>> windows = Lists.newArrayList();
+    long retainFrom = now.getMillis() / 1000;
+    for (AvailabilityGranularity granularity : granularities) {
+      final List<DateTime> boundaries = bucketBoundaries(granularity, now);
+      windows.add(boundaries);
+      retainFrom = Math.min(retainFrom, boundaries.get(0).getMillis() / 1000);
     }
 
-    end = new DateTime(DateTime.now().getYear(), DateTime.now().getMonthOfYear(), 1, 0, 0, 0, 0);
-    start = end.minusMonths(6);
-    for (String triggerId : triggerIds) {
-      try {
-        metrics.putAll(populateMonthMetrics(start, end, Integer.parseInt(triggerId)));
-      } catch (Exception e) {
-        log.error("Failed to parse trigger id: " + triggerId, e);
-      }
+    final Map<String, String> triggers;
+    try {
+      triggers = zabbixApi.getTriggers();
+    } catch (Exception e) {
+      log.error("Failed to fetch triggers", e);
+      return metrics;
     }
 
-    return metrics;
-  }
-
-  private Map<String, String> populateDayMetrics(final DateTime start, final DateTime end, int triggerId) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    log.info("Extracting day availability for trigger " + triggerId + " from " + start + " to " + end);
-
-    final String authToken = zabbixApi.getAuthToken(zabbixUsername, zabbixPassword);
-    final Map<String, String> triggers = zabbixApi.getTriggers(authToken);
-    final Map<String, Object> events = fetchEventLogForTrigger(triggerId, authToken);
-
-    final Map<String, String> metrics = Maps.newHashMap();
-    DateTime dayStart = new DateTime(start);
-    while (dayStart.isBefore(end)) {
-      DateTime dayEnd = dayStart.plusDays(1);
-      metrics.put(makeMetricLabelForDay(Integer.toString(triggerId), dayStart, triggers), calculateAvailabilityFromEventLog(dayStart, dayEnd, events).toString());
-      dayStart = dayStart.plusDays(1);
+    final long retainFromClock = retainFrom;
+    final Map<String, Callable<Map<String, String>>> calls = Maps.newLinkedHashMap();
+    for (String triggerId : triggerIds) {
+      calls.put(triggerId, () -> {
+        final long id = Long.parseLong(triggerId);
+        final TriggerEventLog events = eventJournal.update(id, retainFromClock);
+        final Map<String, String> triggerMetrics = populateMetrics(triggerId, triggers, events, windows, System.currentTimeMillis());
+        eventJournal.save(id);
+        return triggerMetrics;
+      });
     }
-    return metrics;
-  }
 
-  private Map<String, String> populateMonthMetrics(final DateTime start, final DateTime end, int triggerId) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    log.info("Extracting month availability for trigger " + triggerId + " from " + start + " to " + end);
-
-    final String authToken = zabbixApi.getAuthToken(zabbixUsername, zabbixPassword);
-    final Map<String, String> triggers = zabbixApi.getTriggers(authToken);
-    final Map<String, Object> events = fetchEventLogForTrigger(triggerId, authToken);
-
-    final Map<String, String> metrics = Maps.newHashMap();
-    DateTime monthStart = new DateTime(start);
-    while (monthStart.isBefore(end)) {
-      DateTime monthEnd = monthStart.plusMonths(1);
-      metrics.put(makeMetricLabelForMonth(Integer.toString(triggerId), monthStart, triggers), calculateAvailabilityFromEventLog(monthStart, monthEnd, events).toString());
-      monthStart = monthStart.plusMonths(1);
+    for (Map<String, String> triggerMetrics : fanOut.call(ZabbixApi.UPSTREAM, calls, getInterval() * 1000L).values()) {
+      metrics.putAll(triggerMetrics);
     }
     return metrics;
   }
 
-  private String makeMetricLabelForDay(String triggerId, DateTime dayStart, Map<String, String> triggers) {
+  private Map<String, String> populateMetrics(String triggerId, Map<String, String> triggers, TriggerEventLog events, List<List<DateTime>> windows, long observedUntil) {
     final String triggerLabel = triggers.containsKey(triggerId) ? triggers.get(triggerId) : triggerId;
-    return triggerLabel + "-availability-" + ISODateTimeFormat.basicDate().print(dayStart);  // TODO trigger label
-  }
+    final Map<String, String> metrics = Maps.newHashMap();
+    final Set<String> periods = Sets.newHashSet();
+
+    // Closed periods are answered from the log; the remaining buckets of every granularity are filled by one sweep
+    final List<AvailabilityBuckets> open = Lists.newArrayList();
+    final List<List<String>> openLabels = Lists.newArrayList();
+    for (int g = 0; g < granularities.size(); g++) {
+      final AvailabilityGranularity granularity = granularities.get(g);
+      final List<DateTime> boundaries = windows.get(g);
+      final int bucketCount = boundaries.size() - 1;
+      int firstOpen = 0;
+      while (firstOpen < bucketCount && events.getClosedResult(granularity.label(boundaries.get(firstOpen))) != null) {
+        firstOpen++;
+      }
+      for (int i = 0; i < bucketCount; i++) {
+        final String period = granularity.label(boundaries.get(i));
+        periods.add(period);
+        if (i < firstOpen) {
+          putAvailability(metrics, triggerLabel, period, events.getClosedResult(period));
+        }
+      }
 
-  private String makeMetricLabelForMonth(String triggerId, DateTime monthStart, Map<String, String> triggers) {
-    final String triggerLabel = triggers.containsKey(triggerId) ? triggers.get(triggerId) : triggerId;
-    return triggerLabel + "-availability-" + DateTimeFormat.forPattern("YYYYMM").print(monthStart);
-  }
+      if (firstOpen < bucketCount) {
+        final List<DateTime> openBoundaries = boundaries.subList(firstOpen, boundaries.size());
+        final List<String> labels = Lists.newArrayList();
+        for (DateTime bucketStart : openBoundaries.subList(0, openBoundaries.size() - 1)) {
+          labels.add(granularity.label(bucketStart));
+        }
+        open.add(AvailabilityBuckets.of(openBoundaries));
+        openLabels.add(labels);
+      }
+    }
 
-  private Map<String, Object> fetchEventLogForTrigger(int triggerId, String authToken) throws JsonParseException, JsonMappingException, HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    log.info("Fetching event log for trigger: " + triggerId);
-    return (Map<String, Object>) zabbixApi.getEvents(authToken, triggerId);
-  }
+    AvailabilitySweep.sweep(events, observedUntil, open.toArray(new AvailabilityBuckets[open.size()]));
 
-  private BigDecimal calculateAvailabilityFromEventLog(DateTime from, DateTime to, Map<String, Object> events) throws HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, IOException, HttpFetchException {
-    long unknown = 0;
-    long good = 0;
-    long bad = 0;
-
-    DateTime start = from;
-    String state = ZABBIX_UNKNOWN_STATE;
-    final Iterator iterator = ((List) events.get("result")).iterator();
-    while (iterator.hasNext() && start.isBefore(to)) {
-
-      Map<String, String> next = (Map<String, String>) iterator.next();
-      long clock = Long.parseLong(next.get("clock"));
-      DateTime dateTime = new DateTime(clock * 1000);
-      if (dateTime.isAfter(from)) {
-        if (start.isBefore(from)) {
-          start = from;
-        }
-        if (dateTime.isAfter(to)) {
-          dateTime = to;
-        }
-        long delta = dateTime.getMillis() - start.getMillis();
-        if (state.equals(ZABBIX_GOOD_STATE)) {
-          good = good + delta;
-        }
-        if (state.equals(ZABBIX_BAD_STATE)) {
-          bad = bad + delta;
-        }
-        if (state.equals(ZABBIX_UNKNOWN_STATE)) {
-          unknown = unknown + delta;
+    for (int k = 0; k < open.size(); k++) {
+      final AvailabilityBuckets buckets = open.get(k);
+      for (int i = 0; i < buckets.size(); i++) {
+        final String period = openLabels.get(k).get(i);
+        final String availability = Strings.nullToEmpty(buckets.getAvailability(i));
+        putAvailability(metrics, triggerLabel, period, availability);
+        if (buckets.getEnd(i) <= observedUntil) {
+          events.putClosedResult(period, availability);
         }
       }
+    }
 
-      state = next.get("value");
-      start = dateTime;
+    events.retainClosedResults(periods);
+    return metrics;
+  }
+
+  // An empty availability means no state was known during the period, so there is nothing to report
+  private void putAvailability(Map<String, String> metrics, String triggerLabel, String period, String availability) {
+    if (!availability.isEmpty()) {
+      metrics.put(triggerLabel + "-availability-" + period, availability);
     }
+  }
 
-    BigDecimal divide = new BigDecimal(bad).setScale(4).divide(new BigDecimal(good).setScale(4), 4);
-    divide.setScale(4);
-    return new BigDecimal(1).subtract(divide).multiply(new BigDecimal(100)).setScale(2);
+  private List<DateTime> bucketBoundaries(AvailabilityGranularity granularity, DateTime now) {
+    final DateTime end = granularity.floor(now);
+    final List<DateTime> boundaries = Lists.newArrayList();
+    DateTime bucketStart = granularity.windowStart(end);
+    while (bucketStart.isBefore(end)) {
+      boundaries.add(bucketStart);
+      bucketStart = granularity.next(bucketStart);
+    }
+    boundaries.add(end);
+    return boundaries;
   }
 
 }
@@ -0,0 +1,27 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+public class ZabbixEvent {
+
+  private final long eventId;
+  private final long clock;
+  private final int value;
+
+  public ZabbixEvent(long eventId, long clock, int value) {
+    this.eventId = eventId;
+    this.clock = clock;
+    this.value = value;
+  }
+
+  public long getEventId() {
+    return eventId;
+  }
+
+  public long getClock() {
+    return clock;
+  }
+
+  public int getValue() {
+    return value;
+  }
+
+}
@@ -0,0 +1,107 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a local, on disk copy of each trigger's event log.
+ * Each update only asks Zabbix for events since the last clock seen, and events older than the retention window are discarded.
+ */
+@Component
+public class ZabbixEventJournal {
+
+  private static final Logger log = Logger.getLogger(ZabbixEventJournal.class);
+
+  private final ZabbixApi zabbixApi;
+  private final File directory;
+  private final ConcurrentMap<Long, TriggerEventLog> eventLogs = new ConcurrentHashMap<>();
+
+  @Autowired
+  public ZabbixEventJournal(ZabbixApi zabbixApi, @Value("${zabbix.eventJournal:zabbix-events}") String directory) {
+    this.zabbixApi = zabbixApi;
+    this.directory = new File(directory);
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      log.warn("Could not create event journal directory " + directory + "; event logs will not survive restarts");
+    }
+    log.info("Using event journal directory: " + this.directory.getAbsolutePath());
+  }
+
+  // Different triggers can be updated concurrently; each trigger's log is locked while it is updated or saved
+  public TriggerEventLog update(long triggerId, long retainFromClock) throws IOException {
+    final TriggerEventLog eventLog = eventLogs.computeIfAbsent(triggerId, this::load);
+    synchronized (eventLog) {
+      if (eventLog.isEmpty()) {
+        log.info("Fetching event log for trigger " + triggerId + " from " + retainFromClock);
+        append(eventLog, zabbixApi.getLastEventBefore(triggerId, retainFromClock - 1));
+        append(eventLog, zabbixApi.getEventsSince(triggerId, retainFromClock));
+      } else {
+        log.info("Fetching events for trigger " + triggerId + " since " + eventLog.getLastClock());
+        append(eventLog, zabbixApi.getEventsSince(triggerId, eventLog.getLastClock()));
+      }
+      eventLog.prune(retainFromClock);
+    }
+    return eventLog;
+  }
+
+  public void save(long triggerId) {
+    final TriggerEventLog eventLog = eventLogs.get(triggerId);
+    if (eventLog == null || !directory.isDirectory()) {
+      return;
+    }
+    synchronized (eventLog) {
+      write(triggerId, eventLog);
+    }
+  }
+
+  private void write(long triggerId, TriggerEventLog eventLog) {
+    final File file = fileFor(triggerId);
+    final File temporary = new File(directory, file.getName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+        eventLog.write(out);
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Failed to save event log for trigger " + triggerId, e);
+    }
+  }
+
+  private void append(TriggerEventLog eventLog, List<ZabbixEvent> events) {
+    for (ZabbixEvent event : events) {
+      eventLog.append(event.getEventId(), event.getClock(), event.getValue());
+    }
+  }
+
+  private TriggerEventLog load(long triggerId) {
+    final File file = fileFor(triggerId);
+    if (file.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        return TriggerEventLog.read(in);
+      } catch (IOException e) {
+        log.warn("Discarding unreadable event log for trigger " + triggerId, e);
+      }
+    }
+    return new TriggerEventLog();
+  }
+
+  private File fileFor(long triggerId) {
+    return new File(directory, "trigger-" + triggerId + ".events");
+  }
+
+}
@@ -0,0 +1,21 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+public class ZabbixHost {
+
+  private final String hostId;
+  private final String host;
+
+  public ZabbixHost(String hostId, String host) {
+    this.hostId = hostId;
+    this.host = host;
+  }
+
+  public String getHostId() {
+    return hostId;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+}
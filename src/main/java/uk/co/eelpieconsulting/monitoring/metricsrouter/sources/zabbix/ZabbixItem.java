@@ -0,0 +1,46 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+public class ZabbixItem {
+
+  private final String itemId;
+  private final String hostId;
+  private final String host;
+  private final String key;
+  private final String lastValue;
+  private final long lastClock;
+
+  // lastClock is -1 when Zabbix has not reported a value for the item
+  public ZabbixItem(String itemId, String hostId, String host, String key, String lastValue, long lastClock) {
+    this.itemId = itemId;
+    this.hostId = hostId;
+    this.host = host;
+    this.key = key;
+    this.lastValue = lastValue;
+    this.lastClock = lastClock;
+  }
+
+  public String getItemId() {
+    return itemId;
+  }
+
+  public String getHostId() {
+    return hostId;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getLastValue() {
+    return lastValue;
+  }
+
+  public long getLastClock() {
+    return lastClock;
+  }
+
+}
@@ -1,26 +1,18 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import uk.co.eelpieconsulting.common.http.HttpBadRequestException;
-import uk.co.eelpieconsulting.common.http.HttpFetchException;
-import uk.co.eelpieconsulting.common.http.HttpFetcher;
-import uk.co.eelpieconsulting.common.http.HttpForbiddenException;
-import uk.co.eelpieconsulting.common.http.HttpNotFoundException;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.FanOut;
 import uk.co.eelpieconsulting.monitoring.metricsrouter.sources.MetricSource;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -30,22 +22,26 @@ public class ZabbixMetricsSource implements MetricSource {
 
   private static final Logger log = Logger.getLogger(ZabbixMetricsSource.class);
 
+  private static final long STALE_AFTER_SECONDS = 600;
+
   private final List<String> metricKeys;
 
-  private final String user;
-  private final String password;
   private final ZabbixApi zabbixApi;
+  private final FanOut fanOut;
+  private final long itemRefreshMillis;
+
+  private List<String> itemIds;
+  private long itemIdsResolvedAt;
 
   @Autowired
-  public ZabbixMetricsSource(@Value("${zabbix.url}") String zabbixUrl,
-                             @Value("${zabbix.username}") String user,
-                             @Value("${zabbix.password}") String password,
-                             @Value("${zabbix.metrics}") String metrics) {
-    this.user = user;
-    this.password = password;
-    this.metricKeys = Lists.newArrayList(Splitter.on("|").split(metrics));
+  public ZabbixMetricsSource(ZabbixApi zabbixApi, FanOut fanOut,
+                             @Value("${zabbix.metrics}") String metrics,
+                             @Value("${zabbix.itemRefreshSeconds:300}") int itemRefreshSeconds) {
+    this.metricKeys = Lists.newArrayList(Splitter.on("|").trimResults().omitEmptyStrings().split(metrics));
     log.info("Using metrics:" + metricKeys);
-    this.zabbixApi = new ZabbixApi(new ZabbixRequestJsonBuilder(), new HttpFetcher(), zabbixUrl);
+    this.zabbixApi = zabbixApi;
+    this.fanOut = fanOut;
+    this.itemRefreshMillis = itemRefreshSeconds * 1000L;
   }
 
   @Override
@@ -54,55 +50,60 @@ public class ZabbixMetricsSource implements MetricSource {
   }
 
   public Map<String, String> getMetrics() {
-    String authToken;
-    try {
-      authToken = zabbixApi.getAuthToken(user, password);
-      Map<String, String> hosts = zabbixApi.getHosts(authToken);
-      return getZabbixMetrics(authToken, hosts, metricKeys);
-
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    final Map<String, Callable<Map<String, String>>> calls = Maps.newLinkedHashMap();
+    // Without configured keys there are no items to resolve or poll
+    if (!metricKeys.isEmpty()) {
+      calls.put("items", () -> itemValues(fetchItems()));
+    }
+    calls.put("triggers", zabbixApi::getTriggerStates);
+    final Map<String, Map<String, String>> results = fanOut.call(ZabbixApi.UPSTREAM, calls, getInterval() * 1000L);
+    if (results.size() < calls.size()) {
+      throw new RuntimeException("Failed to fetch all Zabbix metrics");
+    }
+
+    final Map<String, String> metrics = Maps.newHashMap();
+    for (Map<String, String> result : results.values()) {
+      metrics.putAll(result);
     }
+    return metrics;
   }
 
   public Map<String, String> getAvailability() {
     return Maps.newHashMap();
   }
 
-  private Map<String, String> getZabbixMetrics(final String authToken, Map<String, String> hosts, List<String> keys)
-          throws UnsupportedEncodingException, JsonProcessingException,
-          HttpNotFoundException, HttpBadRequestException,
-          HttpForbiddenException, HttpFetchException, IOException, JsonParseException, JsonMappingException {
-
-    final Map<String, String> metrics = Maps.newHashMap();
-    for (String key : keys) {
-      fetchMetricByKey(authToken, hosts, metrics, key);
+  // Resolves the configured keys to item ids with one query, then polls by id until the resolution is due a refresh
+  private synchronized List<ZabbixItem> fetchItems() throws IOException {
+    final long now = System.currentTimeMillis();
+    if (itemIds != null && !itemIds.isEmpty() && now - itemIdsResolvedAt < itemRefreshMillis) {
+      final List<ZabbixItem> items = zabbixApi.getItemsByIds(itemIds);
+      if (items.size() == itemIds.size()) {
+        return items;
+      }
+      log.info("Zabbix returned " + items.size() + " of " + itemIds.size() + " resolved items; resolving metric keys again");
     }
 
-    metrics.putAll(zabbixApi.getTriggerStates(authToken));
-    return metrics;
+    final List<ZabbixItem> items = zabbixApi.getItemsByKeys(metricKeys);
+    final List<String> resolved = Lists.newArrayListWithCapacity(items.size());
+    for (ZabbixItem item : items) {
+      resolved.add(item.getItemId());
+    }
+    log.debug("Resolved " + metricKeys.size() + " metric keys to " + resolved.size() + " items");
+    itemIds = resolved;
+    itemIdsResolvedAt = now;
+    return items;
   }
 
-  private void fetchMetricByKey(final String authToken, Map<String, String> hosts, Map<String, String> metrics, String key) throws UnsupportedEncodingException, JsonProcessingException,
-          HttpNotFoundException, HttpBadRequestException, HttpForbiddenException, HttpFetchException, IOException, JsonParseException, JsonMappingException {
-    Map readValue = zabbixApi.getItemsByKey(authToken, key);
-    List<Map<String, Object>> results = (List) readValue.get("result");
-    for (Map<String, Object> result : results) {
-      final String hostid = (String) result.get("hostid");
-      if (!hosts.containsKey(hostid)) {
-        continue;
-      }
-      if (result.get("lastclock") == null) {
-        continue;
-      }
-
-      final DateTime lastClock = new DateTime(Long.parseLong((String) result.get("lastclock")) * 1000);
-      if (lastClock.isBefore(DateTime.now().minusMinutes(10))) {
+  private Map<String, String> itemValues(List<ZabbixItem> items) {
+    final Map<String, String> metrics = Maps.newHashMap();
+    final long staleBefore = System.currentTimeMillis() / 1000 - STALE_AFTER_SECONDS;
+    for (ZabbixItem item : items) {
+      if (item.getHost() == null || item.getLastClock() < staleBefore) {
         continue;
       }
-
-      metrics.put(hosts.get(hostid) + "-" + key, (String) result.get("lastvalue"));    // TODO can get API to return the resolved hostname?
+      metrics.put(item.getHost() + "-" + item.getKey(), item.getLastValue());
     }
+    return metrics;
   }
 
 }
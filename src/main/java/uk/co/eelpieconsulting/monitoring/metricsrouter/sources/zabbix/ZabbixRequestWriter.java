@@ -0,0 +1,200 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Writes Zabbix JSON-RPC requests straight to a byte stream.
+ * The fixed parts of each request are pre-encoded templates; only the parameters and session token are generated per call.
+ */
+public class ZabbixRequestWriter {
+
+  private static final Template AUTHENTICATE = new Template("user.authenticate");
+  private static final Template HOST_GET = new Template("host.get");
+  private static final Template ITEM_GET = new Template("item.get");
+  private static final Template TRIGGER_GET = new Template("trigger.get");
+  private static final Template EVENT_GET = new Template("event.get");
+
+  private static final SerializedString USER = new SerializedString("user");
+  private static final SerializedString PASSWORD = new SerializedString("password");
+  private static final SerializedString OUTPUT = new SerializedString("output");
+  private static final SerializedString FILTER = new SerializedString("filter");
+  private static final SerializedString KEY = new SerializedString("key_");
+  private static final SerializedString ITEMIDS = new SerializedString("itemids");
+  private static final SerializedString TRIGGERIDS = new SerializedString("triggerids");
+  private static final SerializedString SELECT_HOSTS = new SerializedString("selectHosts");
+  private static final SerializedString TEMPLATED = new SerializedString("templated");
+  private static final SerializedString MONITORED = new SerializedString("monitored");
+  private static final SerializedString WEBITEMS = new SerializedString("webitems");
+  private static final SerializedString EXPAND_DESCRIPTION = new SerializedString("expandDescription");
+  private static final SerializedString MIN_SEVERITY = new SerializedString("min_severity");
+  private static final SerializedString TIME_FROM = new SerializedString("time_from");
+  private static final SerializedString TIME_TILL = new SerializedString("time_till");
+  private static final SerializedString SORTFIELD = new SerializedString("sortfield");
+  private static final SerializedString SORTORDER = new SerializedString("sortorder");
+  private static final SerializedString LIMIT = new SerializedString("limit");
+
+  private static final String[] HOST_OUTPUT = {"hostid", "host"};
+  private static final String[] ITEM_OUTPUT = {"itemid", "hostid", "key_", "lastvalue", "lastclock"};
+  private static final String[] HOST_NAME_OUTPUT = {"host"};
+  private static final String[] TRIGGER_OUTPUT = {"triggerid", "description", "value"};
+  private static final String[] EVENT_OUTPUT = {"eventid", "clock", "value"};
+  private static final String[] EVENT_SORT = {"clock", "eventid"};
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  public void writeAuth(OutputStream out, String user, String password) throws IOException {
+    try (JsonGenerator generator = start(out, AUTHENTICATE)) {
+      generator.writeStartObject();
+      generator.writeFieldName(USER);
+      generator.writeString(user);
+      generator.writeFieldName(PASSWORD);
+      generator.writeString(password);
+      generator.writeEndObject();
+      finish(generator, null);
+    }
+  }
+
+  public void writeGetHosts(OutputStream out, String authToken) throws IOException {
+    try (JsonGenerator generator = start(out, HOST_GET)) {
+      generator.writeStartObject();
+      writeStrings(generator, OUTPUT, HOST_OUTPUT);
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  public void writeGetItemsByKeys(OutputStream out, String authToken, List<String> keys) throws IOException {
+    try (JsonGenerator generator = start(out, ITEM_GET)) {
+      generator.writeStartObject();
+      writeItemOutput(generator);
+      generator.writeFieldName(FILTER);
+      generator.writeStartObject();
+      writeStrings(generator, KEY, keys.toArray(new String[keys.size()]));
+      generator.writeEndObject();
+      generator.writeFieldName(TEMPLATED);
+      generator.writeBoolean(false);
+      generator.writeFieldName(MONITORED);
+      generator.writeBoolean(true);
+      generator.writeFieldName(WEBITEMS);
+      generator.writeString("true");
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  public void writeGetItemsByIds(OutputStream out, String authToken, List<String> itemIds) throws IOException {
+    try (JsonGenerator generator = start(out, ITEM_GET)) {
+      generator.writeStartObject();
+      writeItemOutput(generator);
+      writeStrings(generator, ITEMIDS, itemIds.toArray(new String[itemIds.size()]));
+      generator.writeFieldName(WEBITEMS);
+      generator.writeString("true");
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  public void writeGetTriggers(OutputStream out, String authToken) throws IOException {
+    try (JsonGenerator generator = start(out, TRIGGER_GET)) {
+      generator.writeStartObject();
+      writeStrings(generator, OUTPUT, TRIGGER_OUTPUT);
+      generator.writeFieldName(EXPAND_DESCRIPTION);
+      generator.writeString("true");
+      generator.writeFieldName(MONITORED);
+      generator.writeString("true");
+      generator.writeFieldName(MIN_SEVERITY);
+      generator.writeString("4");
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  public void writeGetEventsSince(OutputStream out, String authToken, long triggerId, long timeFrom) throws IOException {
+    try (JsonGenerator generator = start(out, EVENT_GET)) {
+      generator.writeStartObject();
+      writeEventParams(generator, triggerId);
+      generator.writeFieldName(TIME_FROM);
+      generator.writeString(Long.toString(timeFrom));
+      generator.writeFieldName(SORTORDER);
+      generator.writeString("ASC");
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  public void writeGetLastEventBefore(OutputStream out, String authToken, long triggerId, long timeTill) throws IOException {
+    try (JsonGenerator generator = start(out, EVENT_GET)) {
+      generator.writeStartObject();
+      writeEventParams(generator, triggerId);
+      generator.writeFieldName(TIME_TILL);
+      generator.writeString(Long.toString(timeTill));
+      generator.writeFieldName(SORTORDER);
+      generator.writeString("DESC");
+      generator.writeFieldName(LIMIT);
+      generator.writeNumber(1);
+      generator.writeEndObject();
+      finish(generator, authToken);
+    }
+  }
+
+  private void writeItemOutput(JsonGenerator generator) throws IOException {
+    writeStrings(generator, OUTPUT, ITEM_OUTPUT);
+    writeStrings(generator, SELECT_HOSTS, HOST_NAME_OUTPUT);
+  }
+
+  private void writeEventParams(JsonGenerator generator, long triggerId) throws IOException {
+    generator.writeFieldName(TRIGGERIDS);
+    generator.writeString(Long.toString(triggerId));
+    writeStrings(generator, OUTPUT, EVENT_OUTPUT);
+    writeStrings(generator, SORTFIELD, EVENT_SORT);
+  }
+
+  private void writeStrings(JsonGenerator generator, SerializableString field, String[] values) throws IOException {
+    generator.writeFieldName(field);
+    generator.writeStartArray();
+    for (String value : values) {
+      generator.writeString(value);
+    }
+    generator.writeEndArray();
+  }
+
+  // The params object is written as a root value between the raw template parts, so root separators are disabled
+  private JsonGenerator start(OutputStream out, Template template) throws IOException {
+    final JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.setRootValueSeparator(null);
+    generator.writeRaw(template.head);
+    return generator;
+  }
+
+  private void finish(JsonGenerator generator, String authToken) throws IOException {
+    generator.writeRaw(Template.AUTH);
+    if (authToken != null) {
+      generator.writeString(authToken);
+    } else {
+      generator.writeNull();
+    }
+    generator.writeRaw('}');
+  }
+
+  private static class Template {
+
+    private static final SerializedString AUTH = new SerializedString(",\"auth\":");
+
+    private final SerializedString head;
+
+    private Template(String method) {
+      this.head = new SerializedString("{\"jsonrpc\":\"2.0\",\"method\":\"" + method + "\",\"id\":1,\"params\":");
+    }
+
+  }
+
+}
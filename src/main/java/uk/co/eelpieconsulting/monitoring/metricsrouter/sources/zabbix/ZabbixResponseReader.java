@@ -0,0 +1,215 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.Lists;
+
+/**
+ * Reads Zabbix JSON-RPC responses from a stream with Jackson's streaming parser, straight into typed records.
+ * Fields which are not needed are skipped without being materialised.
+ */
+public class ZabbixResponseReader {
+
+  public interface ResultReader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  public static final ResultReader<String> STRING = parser -> parser.getValueAsString();
+
+  public static final ResultReader<List<ZabbixHost>> HOSTS = listOf(parser -> {
+    String hostId = null;
+    String host = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "hostid":
+          hostId = parser.getValueAsString();
+          break;
+        case "host":
+          host = parser.getValueAsString();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new ZabbixHost(hostId, host);
+  });
+
+  public static final ResultReader<List<ZabbixItem>> ITEMS = listOf(parser -> {
+    String itemId = null;
+    String hostId = null;
+    String host = null;
+    String key = null;
+    String lastValue = null;
+    long lastClock = -1;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "itemid":
+          itemId = parser.getValueAsString();
+          break;
+        case "hostid":
+          hostId = parser.getValueAsString();
+          break;
+        case "key_":
+          key = parser.getValueAsString();
+          break;
+        case "lastvalue":
+          lastValue = parser.getValueAsString();
+          break;
+        case "lastclock":
+          lastClock = parser.getValueAsLong(-1);
+          break;
+        case "hosts":
+          host = firstHostName(parser);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new ZabbixItem(itemId, hostId, host, key, lastValue, lastClock);
+  });
+
+  public static final ResultReader<List<ZabbixTrigger>> TRIGGERS = listOf(parser -> {
+    String triggerId = null;
+    String description = null;
+    int value = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "triggerid":
+          triggerId = parser.getValueAsString();
+          break;
+        case "description":
+          description = parser.getValueAsString();
+          break;
+        case "value":
+          value = parser.getValueAsInt();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new ZabbixTrigger(triggerId, description, value);
+  });
+
+  public static final ResultReader<List<ZabbixEvent>> EVENTS = listOf(parser -> {
+    long eventId = 0;
+    long clock = 0;
+    int value = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "eventid":
+          eventId = parser.getValueAsLong();
+          break;
+        case "clock":
+          clock = parser.getValueAsLong();
+          break;
+        case "value":
+          value = parser.getValueAsInt();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return new ZabbixEvent(eventId, clock, value);
+  });
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  public <T> T read(InputStream in, ResultReader<T> resultReader) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new ZabbixApiException("Zabbix response is not a JSON-RPC object");
+      }
+
+      T result = null;
+      boolean hasResult = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        parser.nextToken();
+        if ("result".equals(field)) {
+          result = resultReader.read(parser);
+          hasResult = true;
+        } else if ("error".equals(field)) {
+          throw readError(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+
+      if (!hasResult) {
+        throw new ZabbixApiException("Zabbix response has no result");
+      }
+      return result;
+    }
+  }
+
+  private static <T> ResultReader<List<T>> listOf(ResultReader<T> recordReader) {
+    return parser -> {
+      if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+        throw new ZabbixApiException("Expected a list of results but got " + parser.getCurrentToken());
+      }
+      final List<T> records = Lists.newArrayList();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        records.add(recordReader.read(parser));
+      }
+      return records;
+    };
+  }
+
+  private static String firstHostName(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return null;
+    }
+    String host = null;
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        parser.nextToken();
+        if (host == null && "host".equals(field)) {
+          host = parser.getValueAsString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return host;
+  }
+
+  private static ZabbixApiException readError(JsonParser parser) throws IOException {
+    String message = null;
+    String data = null;
+    if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final String field = parser.getCurrentName();
+        parser.nextToken();
+        if ("message".equals(field)) {
+          message = parser.getValueAsString();
+        } else if ("data".equals(field)) {
+          data = parser.getValueAsString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    final String description = message + " " + data;
+    return new ZabbixApiException("Zabbix API error: " + description, isSessionError(description));
+  }
+
+  private static boolean isSessionError(String description) {
+    return description.contains("re-login") || description.contains("Not authorised") || description.contains("Not authorized") || description.contains("Session terminated");
+  }
+
+}
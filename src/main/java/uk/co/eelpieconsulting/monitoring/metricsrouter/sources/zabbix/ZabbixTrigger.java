@@ -0,0 +1,31 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+public class ZabbixTrigger {
+
+  private final String triggerId;
+  private final String description;
+  private final int value;
+
+  public ZabbixTrigger(String triggerId, String description, int value) {
+    this.triggerId = triggerId;
+    this.description = description;
+    this.value = value;
+  }
+
+  public String getTriggerId() {
+    return triggerId;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public int getValue() {
+    return value;
+  }
+
+  public boolean isTriggered() {
+    return value != 0;
+  }
+
+}
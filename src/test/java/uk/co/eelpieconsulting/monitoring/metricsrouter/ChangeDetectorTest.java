@@ -0,0 +1,95 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChangeDetectorTest {
+
+  private static final long START = 1000000;
+  private static final long FULL_REFRESH_MILLIS = 300 * 1000;
+
+  private final ChangeDetector changeDetector = new ChangeDetector(true, 300);
+
+  @Test
+  public void onlyChangedMetricsArePublished() throws Exception {
+    assertEquals(3, filter(START, "a", "1", "b", "2", "c", "text").size());
+
+    final Map<String, String> published = filter(START + 1000, "a", "1", "b", "3", "c", "other");
+    assertEquals(2, published.size());
+    assertEquals("3", published.get("b"));
+    assertEquals("other", published.get("c"));
+
+    assertTrue(filter(START + 2000, "a", "1", "b", "3", "c", "other").isEmpty());
+  }
+
+  @Test
+  public void unchangedMetricsAreRepublishedAfterTheFullRefreshInterval() throws Exception {
+    filter(START, "a", "1", "b", "2");
+    assertTrue(filter(START + FULL_REFRESH_MILLIS - 1, "a", "1", "b", "2").isEmpty());
+    assertEquals(2, filter(START + FULL_REFRESH_MILLIS, "a", "1", "b", "2").size());
+    assertTrue(filter(START + FULL_REFRESH_MILLIS + 1000, "a", "1", "b", "2").isEmpty());
+  }
+
+  @Test
+  public void droppedValuesArePublishedAgain() throws Exception {
+    filter(START, "a", "1", "b", "2");
+    final MetricBatch dropped = batch("a", "1", "b", "2");
+    changeDetector.filter(dropped, START + 1000);
+    assertTrue(dropped.isEmpty());
+
+    changeDetector.forget(batch("a", "1", "b", "5"));
+    final Map<String, String> published = filter(START + 2000, "a", "1", "b", "2");
+    assertEquals(1, published.size());
+    assertEquals("1", published.get("a"));
+    assertTrue(filter(START + 3000, "a", "1", "b", "2").isEmpty());
+  }
+
+  @Test
+  public void keysWhichStopAppearingAreForgotten() throws Exception {
+    final MetricBatch many = new MetricBatch();
+    for (int i = 0; i < 5000; i++) {
+      many.addLong("key" + i, i);
+    }
+    changeDetector.filter(many, START);
+    assertEquals(5000, changeDetector.size());
+
+    for (long now = START + 60000; now <= START + 2 * FULL_REFRESH_MILLIS; now += 60000) {
+      filter(now, "key1", "1");
+    }
+    assertEquals(1, changeDetector.size());
+    assertEquals(1, filter(START + 3 * FULL_REFRESH_MILLIS, "key2", "2").size());
+  }
+
+  @Test
+  public void aFullRefreshIntervalIsRequiredWhenOnlyPublishingChanges() throws Exception {
+    try {
+      new ChangeDetector(true, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("publish.fullRefreshSeconds"));
+    }
+    new ChangeDetector(false, 0);
+  }
+
+  private Map<String, String> filter(long now, String... keyValues) {
+    final MetricBatch batch = batch(keyValues);
+    changeDetector.filter(batch, now);
+    return batch.toMap();
+  }
+
+  private MetricBatch batch(String... keyValues) {
+    final Map<String, String> metrics = Maps.newLinkedHashMap();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      metrics.put(keyValues[i], keyValues[i + 1]);
+    }
+    return MetricBatch.fromMap(metrics);
+  }
+
+}
@@ -0,0 +1,110 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchMessageEncoderTest {
+
+  @Test
+  public void decodedBatchMatchesPublishedMetrics() throws Exception {
+    Map<String, String> metrics = Maps.newLinkedHashMap();
+    metrics.put("webserver1-system.cpu.load", "0.2");
+    metrics.put("elb-RequestCount-minute", "1234");
+    metrics.put("elb-Latency-hour", "0.125");
+    metrics.put("Disk full on db1", "true");
+    metrics.put("activeTriggers", "false");
+    metrics.put("negative", "-42");
+    metrics.put("trigger-availability-20200101", "99.50");
+    metrics.put("version", "Zabbix 4.0");
+    metrics.put("empty", "");
+    metrics.put("missing", null);
+
+    BatchMessageEncoder encoder = new BatchMessageEncoder("metrics", 100);
+    List<MQTTMessage> messages = encoder.encode(MetricBatch.fromMap(metrics));
+
+    assertEquals(2, messages.size());
+    assertTrue(messages.get(0).isRetain());
+    assertFalse(messages.get(1).isRetain());
+    // The same key sends the dictionary and the batch over the same connection
+    assertEquals("metrics", messages.get(0).getKey());
+    assertEquals("metrics", messages.get(1).getKey());
+
+    MetricBatchDecoder decoder = new MetricBatchDecoder();
+    decoder.updateDictionary(payloadOf(messages.get(0)));
+    assertEquals(metrics, decoder.decode(payloadOf(messages.get(1))));
+  }
+
+  @Test
+  public void dictionaryIsOnlyRepublishedWhenNewKeysAppear() throws Exception {
+    BatchMessageEncoder encoder = new BatchMessageEncoder("metrics", 100);
+    MetricBatchDecoder decoder = new MetricBatchDecoder();
+
+    List<MQTTMessage> first = encoder.encode(metricsWithKeys("a", "b"));
+    decoder.updateDictionary(payloadOf(first.get(0)));
+
+    List<MQTTMessage> repeat = encoder.encode(metricsWithKeys("b", "a"));
+    assertEquals(1, repeat.size());
+    assertEquals(metricsWithKeys("b", "a").toMap(), decoder.decode(payloadOf(repeat.get(0))));
+
+    List<MQTTMessage> grown = encoder.encode(metricsWithKeys("a", "c"));
+    assertEquals(2, grown.size());
+    assertFalse(decoder.canDecode(payloadOf(grown.get(1))));
+    decoder.updateDictionary(payloadOf(grown.get(0)));
+    assertEquals(metricsWithKeys("a", "c").toMap(), decoder.decode(payloadOf(grown.get(1))));
+  }
+
+  @Test
+  public void dictionaryStartsNewEpochWhenFull() throws Exception {
+    BatchMessageEncoder encoder = new BatchMessageEncoder("metrics", 3);
+    MetricBatchDecoder decoder = new MetricBatchDecoder();
+
+    decoder.updateDictionary(payloadOf(encoder.encode(metricsWithKeys("a", "b", "c")).get(0)));
+
+    List<MQTTMessage> messages = encoder.encode(metricsWithKeys("c", "d"));
+    assertFalse(decoder.canDecode(payloadOf(messages.get(1))));
+    decoder.updateDictionary(payloadOf(messages.get(0)));
+    assertEquals(metricsWithKeys("c", "d").toMap(), decoder.decode(payloadOf(messages.get(1))));
+  }
+
+  @Test
+  public void typedValuesDecodeAsTheyWouldBeFormatted() throws Exception {
+    MetricBatch batch = new MetricBatch();
+    batch.addLong("count", 1234);
+    batch.addDouble("latency", 0.12345, 3);
+    batch.addDouble("whole", 12.0, 3);
+    batch.addDouble("raw", 0.12345);
+    batch.addBoolean("up", true);
+
+    BatchMessageEncoder encoder = new BatchMessageEncoder("metrics", 100);
+    List<MQTTMessage> messages = encoder.encode(batch);
+
+    MetricBatchDecoder decoder = new MetricBatchDecoder();
+    decoder.updateDictionary(payloadOf(messages.get(0)));
+    Map<String, String> decoded = decoder.decode(payloadOf(messages.get(1)));
+
+    assertEquals(batch.toMap(), decoded);
+    assertEquals("0.123", decoded.get("latency"));
+    assertEquals("12", decoded.get("whole"));
+  }
+
+  private MetricBatch metricsWithKeys(String... keys) {
+    MetricBatch metrics = new MetricBatch();
+    for (int i = 0; i < keys.length; i++) {
+      metrics.addLong(keys[i], i);
+    }
+    return metrics;
+  }
+
+  private byte[] payloadOf(MQTTMessage message) {
+    return message.getPayload().toByteArray();
+  }
+
+}
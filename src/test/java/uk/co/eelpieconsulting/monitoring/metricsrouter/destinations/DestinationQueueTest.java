@@ -0,0 +1,166 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DestinationQueueTest {
+
+  private final StalledDestination destination = new StalledDestination();
+  private DestinationQueue queue;
+
+  @After
+  public void tearDown() {
+    destination.release();
+    queue.shutdown();
+  }
+
+  @Test
+  public void offeringDoesNotWaitForAStalledDestination() throws Exception {
+    queue = stalledQueue(OverflowPolicy.DROP_NEWEST);
+
+    final long start = System.currentTimeMillis();
+    for (int i = 1; i <= 10; i++) {
+      queue.offer(batch("requests", i));
+    }
+
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(2, queue.getDepth());
+    assertEquals(8, queue.getDropped());
+  }
+
+  @Test
+  public void dropOldestKeepsTheNewestBatches() throws Exception {
+    queue = stalledQueue(OverflowPolicy.DROP_OLDEST);
+    queue.offer(batch("requests", 1));
+    queue.offer(batch("requests", 2));
+    queue.offer(batch("requests", 3));
+
+    destination.release();
+    queue.shutdown();
+
+    assertEquals(1, queue.getDropped());
+    assertEquals(Lists.newArrayList("0", "2", "3"), destination.values("requests"));
+  }
+
+  @Test
+  public void dropNewestKeepsTheOldestBatches() throws Exception {
+    queue = stalledQueue(OverflowPolicy.DROP_NEWEST);
+    queue.offer(batch("requests", 1));
+    queue.offer(batch("requests", 2));
+    queue.offer(batch("requests", 3));
+
+    destination.release();
+    queue.shutdown();
+
+    assertEquals(1, queue.getDropped());
+    assertEquals(Lists.newArrayList("0", "1", "2"), destination.values("requests"));
+  }
+
+  @Test
+  public void droppedBatchesAreHandedToDropListeners() throws Exception {
+    queue = stalledQueue(OverflowPolicy.DROP_OLDEST);
+    final List<String> dropped = Lists.newCopyOnWriteArrayList();
+    queue.addDropListener(batch -> dropped.add(batch.toMap().get("requests")));
+    queue.offer(batch("requests", 1));
+    queue.offer(batch("requests", 2));
+    queue.offer(batch("requests", 3));
+    queue.offer(batch("requests", 4));
+
+    assertEquals(Lists.newArrayList("1", "2"), dropped);
+  }
+
+  @Test
+  public void coalescingKeepsTheLatestValueOfEachMetric() throws Exception {
+    queue = stalledQueue(OverflowPolicy.COALESCE);
+    final MetricBatch first = batch("requests", 1);
+    first.addLong("errors", 5);
+    queue.offer(first);
+    queue.offer(batch("requests", 2));
+    queue.offer(batch("requests", 3));
+
+    destination.release();
+    queue.shutdown();
+
+    assertEquals(0, queue.getDropped());
+    assertEquals(2, queue.getCoalesced());
+    assertEquals(Lists.newArrayList("0", "3"), destination.values("requests"));
+    assertEquals(Lists.newArrayList("5"), destination.values("errors"));
+  }
+
+  @Test
+  public void blockingWaitsForRoomRatherThanDropping() throws Exception {
+    queue = stalledQueue(OverflowPolicy.BLOCK);
+    queue.offer(batch("requests", 1));
+    queue.offer(batch("requests", 2));
+
+    final Thread poller = new Thread(() -> queue.offer(batch("requests", 3)));
+    poller.start();
+    poller.join(200);
+    assertTrue(poller.isAlive());
+
+    destination.release();
+    poller.join(1000);
+    queue.shutdown();
+
+    assertEquals(0, queue.getDropped());
+    assertEquals(Lists.newArrayList("0", "1", "2", "3"), destination.values("requests"));
+  }
+
+  // A queue of two whose destination is stuck publishing a first batch
+  private DestinationQueue stalledQueue(OverflowPolicy policy) throws InterruptedException {
+    final DestinationQueue queue = new DestinationQueue(destination, policy, 2, new Instrumentation());
+    queue.offer(batch("requests", 0));
+    assertTrue(destination.started.await(1, TimeUnit.SECONDS));
+    return queue;
+  }
+
+  private MetricBatch batch(String key, long value) {
+    final MetricBatch batch = new MetricBatch();
+    batch.addLong(key, value);
+    return batch;
+  }
+
+  private static class StalledDestination implements MetricBatchDestination {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final List<Map<String, String>> published = Lists.newCopyOnWriteArrayList();
+
+    @Override
+    public void publish(MetricBatch batch) {
+      started.countDown();
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      published.add(batch.toMap());
+    }
+
+    private void release() {
+      released.countDown();
+    }
+
+    private List<String> values(String key) {
+      final List<String> values = Lists.newArrayList();
+      for (Map<String, String> metrics : published) {
+        if (metrics.containsKey(key)) {
+          values.add(metrics.get(key));
+        }
+      }
+      return values;
+    }
+  }
+
+}
@@ -0,0 +1,285 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.commons.io.FileUtils;
+import org.fusesource.mqtt.client.BlockingConnection;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.Message;
+import org.fusesource.mqtt.client.QoS;
+import org.fusesource.mqtt.client.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MQTTPublisherTest {
+
+  private static final String TOPIC = "metrics";
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private int port;
+  private int subscriberPort;
+  private File spoolDirectory;
+  private BrokerService broker;
+  private BlockingConnection subscriber;
+  private MQTTPublisher publisher;
+
+  @Before
+  public void setUp() throws Exception {
+    port = freePort();
+    subscriberPort = freePort();
+    spoolDirectory = Files.createTempDirectory("spool").toFile();
+    startBroker();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (publisher != null) {
+      publisher.shutdown();
+    }
+    stopBroker();
+    FileUtils.deleteDirectory(spoolDirectory);
+  }
+
+  @Test
+  public void metricsPublishedDuringAnOutageAreSpooledAndReplayedWhenTheBrokerReturns() throws Exception {
+    publishThroughAnOutage(false);
+  }
+
+  @Test
+  public void metricsPublishedAsynchronouslyDuringAnOutageAreReplayedInOrder() throws Exception {
+    publishThroughAnOutage(true);
+  }
+
+  @Test
+  public void startsWithoutABrokerAndConnectsWhenOneAppears() throws Exception {
+    stopBroker();
+    publisher = new MQTTPublisher(properties(false, 1, ""), new Instrumentation());
+    publisher.publish(batch("early", 1));
+    assertEquals(1, publisher.getSpooled());
+
+    startBroker();
+    waitFor(() -> publisher.isConnected() && publisher.getSpooled() == 0);
+    assertEquals(Lists.newArrayList("early:1"), receive(1));
+  }
+
+  private void publishThroughAnOutage(boolean async) throws Exception {
+    publisher = new MQTTPublisher(properties(async, 1, ""), new Instrumentation());
+    publisher.publish(batch("before", 1));
+    assertEquals(Lists.newArrayList("before:1"), receive(1));
+
+    stopBroker();
+    waitFor(() -> !publisher.isConnected());
+    publisher.publish(batch("during", 1));
+    publisher.publish(batch("during", 2));
+    assertEquals(2, publisher.getSpooled());
+
+    startBroker();
+    waitFor(() -> publisher.isConnected() && publisher.getSpooled() == 0);
+    assertEquals(1, spoolDirectory.listFiles().length);
+
+    publisher.publish(batch("after", 1));
+    assertEquals(Lists.newArrayList("during:1", "during:2", "after:1"), receive(3));
+  }
+
+  @Test
+  public void spreadsKeysAcrossConnectionsKeepingEachKeyInOrder() throws Exception {
+    publisher = new MQTTPublisher(properties(false, 3, "router"), new Instrumentation());
+    for (int round = 0; round < 5; round++) {
+      publisher.publish(keys(20, round));
+    }
+
+    final Map<String, List<String>> values = Maps.newHashMap();
+    for (String line : receive(100)) {
+      final String[] keyValue = line.split(":");
+      values.computeIfAbsent(keyValue[0], key -> Lists.newArrayList()).add(keyValue[1]);
+    }
+    assertEquals(20, values.size());
+    for (List<String> received : values.values()) {
+      assertEquals(Lists.newArrayList("0", "1", "2", "3", "4"), received);
+    }
+    for (MQTTShard shard : publisher.getShards()) {
+      assertEquals("router-" + shard.getIndex(), shard.getClientId());
+      assertTrue(shard.isConnected());
+      assertTrue(shard.getPublished() > 0);
+    }
+  }
+
+  @Test
+  public void keysStayInOrderWhenAConnectionIsLostAndComesBack() throws Exception {
+    publisher = new MQTTPublisher(properties(true, 3, "router"), new Instrumentation());
+    final MQTTShard killed = publisher.getShards().get(1);
+    for (int round = 0; round < 30; round++) {
+      if (round == 10) {
+        killed.kill();
+      }
+      publisher.publish(keys(20, round));
+    }
+    waitFor(() -> killed.getReconnects() > 0 && killed.isConnected() && publisher.getSpooled() == 0);
+    publisher.publish(keys(20, 30));
+
+    // Failed messages may be replayed after being sent, but never behind a later value
+    final Map<String, List<Integer>> values = Maps.newHashMap();
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (values.size() < 20 || values.values().stream().anyMatch(received -> received.get(received.size() - 1) != 30)) {
+      assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      for (String line : receive(1)) {
+        final String[] keyValue = line.split(":");
+        values.computeIfAbsent(keyValue[0], key -> Lists.newArrayList()).add(Integer.valueOf(keyValue[1]));
+      }
+    }
+    for (List<Integer> received : values.values()) {
+      for (int i = 1; i < received.size(); i++) {
+        assertTrue(received.toString(), received.get(i) >= received.get(i - 1));
+      }
+    }
+  }
+
+  @Test
+  public void messagesSentBeforeAConnectionIsLostAreNotRepeated() throws Exception {
+    publisher = new MQTTPublisher(properties(false, 3, "router"), new Instrumentation());
+    final MQTTShard killed = publisher.getShards().get(1);
+    for (int round = 0; round < 20; round++) {
+      if (round == 10) {
+        killed.kill();
+      }
+      publisher.publish(keys(20, round));
+    }
+    waitFor(() -> killed.getReconnects() > 0 && killed.isConnected() && publisher.getSpooled() == 0);
+
+    final Map<String, List<Integer>> values = Maps.newHashMap();
+    for (String line : receive(400)) {
+      final String[] keyValue = line.split(":");
+      values.computeIfAbsent(keyValue[0], key -> Lists.newArrayList()).add(Integer.valueOf(keyValue[1]));
+    }
+    // Nothing follows, as nothing was sent twice
+    assertTrue(receive(1).isEmpty());
+    final List<Integer> rounds = Lists.newArrayList();
+    for (int round = 0; round < 20; round++) {
+      rounds.add(round);
+    }
+    assertEquals(20, values.size());
+    for (List<Integer> received : values.values()) {
+      assertEquals(rounds, received);
+    }
+  }
+
+  @Test
+  public void atLeastOneConnectionIsRequired() throws Exception {
+    try {
+      new MQTTPublisher(properties(false, 0, "router"), new Instrumentation());
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("mqtt.connections must be at least 1, but was 0", e.getMessage());
+    }
+  }
+
+  private MQTTProperties properties(boolean async, int connections, String clientId) {
+    final MQTTProperties properties = new MQTTProperties();
+    properties.setHost("localhost");
+    properties.setPort(port);
+    properties.setTopic(TOPIC);
+    properties.setAsync(async);
+    properties.setWindow(16);
+    properties.setConnections(connections);
+    properties.setClientId(clientId);
+    properties.getSpool().setDirectory(spoolDirectory.getPath());
+    properties.getSpool().setSegmentMegabytes(1);
+    properties.getSpool().setMaxMegabytes(8);
+    properties.getReconnect().setInitialDelayMillis(50);
+    properties.getReconnect().setMaxDelayMillis(200);
+    return properties;
+  }
+
+  // A broker stopped and started on the same ports. The subscriber has its own port, and the publisher's is only opened
+  // once it has subscribed, so nothing replayed on reconnection can arrive before the subscription
+  private void startBroker() throws Exception {
+    broker = new BrokerService();
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.setAdvisorySupport(false);
+    broker.addConnector("mqtt://localhost:" + subscriberPort);
+    broker.start();
+    broker.waitUntilStarted();
+
+    final MQTT mqtt = new MQTT();
+    mqtt.setHost("tcp://localhost:" + subscriberPort);
+    subscriber = mqtt.blockingConnection();
+    subscriber.connect();
+    subscriber.subscribe(new Topic[]{new Topic(TOPIC, QoS.AT_LEAST_ONCE)});
+    broker.addConnector("mqtt://localhost:" + port).start();
+  }
+
+  private void stopBroker() throws Exception {
+    if (broker == null) {
+      return;
+    }
+    try {
+      subscriber.disconnect();
+    } catch (Exception e) {
+      // The broker is going anyway
+    }
+    broker.stop();
+    broker.waitUntilStopped();
+    broker = null;
+  }
+
+  // Receives messages until the expected number of lines has arrived or the timeout passes
+  private List<String> receive(int expected) throws Exception {
+    final List<String> received = Lists.newArrayList();
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    Message message;
+    while (received.size() < expected
+            && (message = subscriber.receive(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) != null) {
+      message.ack();
+      received.add(new String(message.getPayload(), StandardCharsets.UTF_8));
+    }
+    return received;
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(20);
+    }
+  }
+
+  private int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private MetricBatch keys(int keys, long value) {
+    final MetricBatch batch = new MetricBatch();
+    for (int key = 0; key < keys; key++) {
+      batch.addLong("key" + key, value);
+    }
+    return batch;
+  }
+
+  private MetricBatch batch(String key, long value) {
+    final MetricBatch batch = new MetricBatch();
+    batch.addLong(key, value);
+    return batch;
+  }
+
+}
@@ -0,0 +1,74 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class MQTTShardMetricsSourceTest {
+
+  private File spoolDirectory;
+  private MQTTPublisher publisher;
+
+  @Before
+  public void setUp() throws Exception {
+    spoolDirectory = Files.createTempDirectory("spool").toFile();
+    final int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    // Nothing listens on the port, so every connection stays down
+    final MQTTProperties properties = new MQTTProperties();
+    properties.setHost("localhost");
+    properties.setPort(port);
+    properties.setTopic("metrics");
+    properties.setConnections(2);
+    properties.setClientId("router");
+    properties.getSpool().setDirectory(spoolDirectory.getPath());
+    properties.getSpool().setSegmentMegabytes(1);
+    properties.getSpool().setMaxMegabytes(8);
+    properties.getReconnect().setInitialDelayMillis(60000);
+    properties.getReconnect().setMaxDelayMillis(60000);
+    publisher = new MQTTPublisher(properties, new Instrumentation());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    publisher.shutdown();
+    FileUtils.deleteDirectory(spoolDirectory);
+  }
+
+  @Test
+  public void reportsEachConnectionAndTheSpool() throws Exception {
+    final MetricBatch batch = new MetricBatch();
+    batch.addLong("load", 1);
+    batch.addLong("uptime", 5);
+    publisher.publish(batch);
+
+    final MetricBatch metrics = new MetricBatch();
+    new MQTTShardMetricsSource(publisher).collect(metrics);
+    final Map<String, String> collected = metrics.toMap();
+
+    assertEquals(12, collected.size());
+    for (int i = 0; i < 2; i++) {
+      final String prefix = "metricsrouter.mqtt.connection." + i + ".";
+      assertEquals("false", collected.get(prefix + "connected"));
+      assertEquals("0", collected.get(prefix + "published"));
+      assertEquals("0", collected.get(prefix + "failed"));
+      assertEquals("0", collected.get(prefix + "rerouted"));
+      assertEquals("0", collected.get(prefix + "reconnects"));
+    }
+    assertEquals("2", collected.get("metricsrouter.mqtt.spooled"));
+    assertEquals("0", collected.get("metricsrouter.mqtt.spoolDropped"));
+  }
+
+}
@@ -0,0 +1,122 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSpoolTest {
+
+  private static final int SEGMENT_BYTES = 1024;
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("spool").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void messagesAreReplayedInOrderUntilAcknowledged() throws Exception {
+    final MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 16 * SEGMENT_BYTES);
+    for (int i = 0; i < 5; i++) {
+      spool.append(message("metrics", "value-" + i, i == 0));
+    }
+
+    final MessageSpool.Replay first = spool.read(3);
+    assertEquals(Lists.newArrayList("value-0", "value-1", "value-2"), payloads(first));
+    assertTrue(first.getMessages().get(0).isRetain());
+    assertEquals("metrics", topic(first.getMessages().get(0)));
+    assertEquals(Lists.newArrayList("value-0", "value-1", "value-2"), payloads(spool.read(3)));
+
+    spool.acknowledge(first);
+    assertEquals(2, spool.size());
+    assertEquals(Lists.newArrayList("value-3", "value-4"), payloads(spool.read(3)));
+  }
+
+  @Test
+  public void segmentsRollAndAreDeletedOnceAcknowledged() throws Exception {
+    final MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 16 * SEGMENT_BYTES);
+    for (int i = 0; i < 100; i++) {
+      spool.append(message("metrics", "value-" + i, false));
+    }
+    assertTrue(spool.getSegments() > 1);
+
+    final List<String> replayed = Lists.newArrayList();
+    while (!spool.isEmpty()) {
+      final MessageSpool.Replay replay = spool.read(7);
+      replayed.addAll(payloads(replay));
+      spool.acknowledge(replay);
+    }
+
+    assertEquals(100, replayed.size());
+    assertEquals("value-99", replayed.get(99));
+    assertEquals(1, spool.getSegments());
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test
+  public void unacknowledgedMessagesSurviveARestart() throws Exception {
+    final MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 16 * SEGMENT_BYTES);
+    for (int i = 0; i < 50; i++) {
+      spool.append(message("metrics", "value-" + i, false));
+    }
+    spool.acknowledge(spool.read(10));
+    spool.close();
+
+    final MessageSpool reopened = new MessageSpool(directory, SEGMENT_BYTES, 16 * SEGMENT_BYTES);
+    assertEquals(40, reopened.size());
+    assertEquals("value-10", payloads(reopened.read(1)).get(0));
+
+    reopened.append(message("metrics", "value-50", false));
+    assertEquals(41, reopened.size());
+  }
+
+  @Test
+  public void oldestSegmentsAreDiscardedWhenTheSpoolIsFull() throws Exception {
+    final MessageSpool spool = new MessageSpool(directory, SEGMENT_BYTES, 2 * SEGMENT_BYTES);
+    for (int i = 0; i < 100; i++) {
+      spool.append(message("metrics", "value-" + i, false));
+    }
+
+    assertEquals(2, spool.getSegments());
+    assertTrue(spool.getDropped() > 0);
+    assertEquals(100, spool.size() + spool.getDropped());
+    assertFalse(payloads(spool.read(1)).contains("value-0"));
+  }
+
+  private MQTTMessage message(String topic, String payload, boolean retain) {
+    return new MQTTMessage(new UTF8Buffer(topic), new Buffer(payload.getBytes(StandardCharsets.UTF_8)), retain);
+  }
+
+  private List<String> payloads(MessageSpool.Replay replay) {
+    final List<String> payloads = Lists.newArrayList();
+    for (MQTTMessage message : replay.getMessages()) {
+      payloads.add(new String(message.getPayload().toByteArray(), StandardCharsets.UTF_8));
+    }
+    return payloads;
+  }
+
+  private String topic(MQTTMessage message) {
+    return new String(message.getTopic().toByteArray(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,37 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedPublisherTest {
+
+  @Test
+  public void batchesRejectedAfterShutdownAreNotWaitedFor() throws Exception {
+    final PipelinedPublisher pipelinedPublisher = new PipelinedPublisher("test-sender", 16, 2, (message, failure) -> fail());
+    pipelinedPublisher.shutdown();
+
+    final List<MQTTMessage> batch = Collections.singletonList(new MQTTMessage(new UTF8Buffer("metrics"), new Buffer(new byte[]{1}), false));
+    // More batches than may be queued, which would block if rejected batches kept their place
+    for (int i = 0; i < 3; i++) {
+      try {
+        pipelinedPublisher.publish(null, batch);
+        fail();
+      } catch (RejectedExecutionException e) {
+        // Expected once shut down
+      }
+    }
+
+    assertEquals(0, pipelinedPublisher.getQueuedBatches());
+    assertTrue(pipelinedPublisher.awaitIdle(0));
+  }
+
+}
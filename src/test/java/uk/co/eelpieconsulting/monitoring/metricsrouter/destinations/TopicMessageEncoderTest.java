@@ -0,0 +1,89 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.destinations;
+
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TopicMessageEncoderTest {
+
+  @Test
+  public void eachMetricIsRetainedOnTheTopicItsTemplateGives() throws Exception {
+    final MetricBatch batch = new MetricBatch();
+    batch.setSource("ZabbixMetricsSource");
+    batch.addParsed("webserver1-system.cpu.load", "0.2");
+    batch.addText("Disk #1 on db/1 + db/2", "full");
+
+    final List<MQTTMessage> messages = new TopicMessageEncoder("metrics", "{topic}/{source}/{path}", true, 100).encode(batch);
+
+    assertEquals(2, messages.size());
+    assertEquals("metrics/ZabbixMetricsSource/webserver1-system/cpu/load", messages.get(0).getTopic().toString());
+    assertEquals("0.2", payloadOf(messages.get(0)));
+    assertEquals("webserver1-system.cpu.load", messages.get(0).getKey());
+    assertTrue(messages.get(0).isRetain());
+    assertEquals("metrics/ZabbixMetricsSource/Disk _1 on db_1 _ db_2", messages.get(1).getTopic().toString());
+    assertEquals("full", payloadOf(messages.get(1)));
+  }
+
+  @Test
+  public void emptyValuesAreNotRetained() throws Exception {
+    final MetricBatch batch = new MetricBatch();
+    batch.addText("status", "");
+    batch.addText("message", "ok");
+
+    final List<MQTTMessage> messages = new TopicMessageEncoder("metrics", "{topic}/{key}", true, 100).encode(batch);
+
+    assertEquals("", payloadOf(messages.get(0)));
+    assertFalse(messages.get(0).isRetain());
+    assertTrue(messages.get(1).isRetain());
+  }
+
+  @Test
+  public void keyPlaceholderKeepsTheKeyOnOneLevel() throws Exception {
+    final TopicMessageEncoder encoder = new TopicMessageEncoder("metrics", "{topic}/latest/{key}", false, 100);
+    assertEquals("metrics/latest/elb.latency", encoder.topic("LoadBalancerMetricsSource", "elb.latency").toString());
+  }
+
+  @Test
+  public void topicsAreBuiltOncePerSourceAndKey() throws Exception {
+    final TopicMessageEncoder encoder = new TopicMessageEncoder("metrics", "{topic}/{source}/{path}", true, 100);
+    assertSame(encoder.topic("source", "a.b"), encoder.topic("source", "a.b"));
+    assertEquals("metrics/other/a/b", encoder.topic("other", "a.b").toString());
+  }
+
+  @Test
+  public void leastRecentlyUsedTopicsAreEvictedFirst() throws Exception {
+    final TopicMessageEncoder encoder = new TopicMessageEncoder("metrics", "{topic}/{source}/{path}", true, 2);
+    final UTF8Buffer a = encoder.topic("source", "a");
+    final UTF8Buffer b = encoder.topic("source", "b");
+    assertSame(a, encoder.topic("source", "a"));
+    encoder.topic("source", "c");
+
+    assertEquals(2, encoder.getCached());
+    assertSame(a, encoder.topic("source", "a"));
+    assertTrue(b != encoder.topic("source", "b"));
+  }
+
+  @Test
+  public void unknownPlaceholdersAreRejected() throws Exception {
+    try {
+      new TopicMessageEncoder("metrics", "{topic}/{host}/{path}", true, 100);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("{host}"));
+    }
+  }
+
+  private String payloadOf(MQTTMessage message) {
+    return new String(message.getPayload().getData(), message.getPayload().getOffset(), message.getPayload().getLength(), StandardCharsets.UTF_8);
+  }
+
+}
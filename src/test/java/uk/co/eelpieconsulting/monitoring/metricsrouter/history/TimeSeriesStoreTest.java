@@ -0,0 +1,93 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.history;
+
+import org.junit.Test;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TimeSeriesStoreTest {
+
+  private static final double DELTA = 0.0001;
+
+  @Test
+  public void onlyTheLastSamplesOfEachKeyAreKept() {
+    final TimeSeriesStore store = new TimeSeriesStore(3, 900);
+    for (int i = 1; i <= 5; i++) {
+      store.record("load", i * 1000L, i);
+    }
+
+    final TimeSeries series = store.all("load");
+    assertArrayEquals(new long[]{3000, 4000, 5000}, series.getTimestamps());
+    assertArrayEquals(new double[]{3, 4, 5}, series.getValues(), DELTA);
+    assertEquals(5, series.getLatest(), DELTA);
+    assertEquals(3, series.getMin(), DELTA);
+    assertEquals(5, series.getMax(), DELTA);
+    assertEquals(4, series.getAverage(), DELTA);
+  }
+
+  @Test
+  public void rangesIncludeTheStartAndExcludeTheEnd() {
+    final TimeSeriesStore store = new TimeSeriesStore(10, 900);
+    for (int i = 1; i <= 5; i++) {
+      store.record("load", i * 1000L, i);
+    }
+
+    final TimeSeries series = store.range("load", 2000, 4000);
+    assertArrayEquals(new double[]{2, 3}, series.getValues(), DELTA);
+    assertNull(store.range("load", 6000, 7000).getLatest());
+    assertNull(store.all("unknown"));
+  }
+
+  @Test
+  public void onlyNumericMetricsAreRecorded() {
+    final TimeSeriesStore store = new TimeSeriesStore(10, 900);
+    final MetricBatch batch = new MetricBatch();
+    batch.reset(1000);
+    batch.addLong("requests", 200);
+    batch.addDouble("latency", 0.25, 3);
+    batch.addText("status", "ok");
+
+    store.record(batch);
+
+    assertEquals(2, store.size());
+    assertEquals(200, store.all("requests").getLatest(), DELTA);
+    assertEquals(0.25, store.all("latency").getLatest(), DELTA);
+  }
+
+  @Test
+  public void keysWhichStopReportingExpireAndTheirSlotsAreReused() {
+    final TimeSeriesStore store = new TimeSeriesStore(4, 60);
+    store.record(batch(0, "old", 1));
+    store.record(batch(30000, "current", 2));
+
+    store.record(batch(90000, "current", 3));
+
+    assertNull(store.all("old"));
+    assertEquals(1, store.size());
+
+    store.record(batch(91000, "new", 4));
+    assertArrayEquals(new double[]{4}, store.all("new").getValues(), DELTA);
+  }
+
+  @Test
+  public void theStoreGrowsBeyondItsInitialKeys() {
+    final TimeSeriesStore store = new TimeSeriesStore(2, 900);
+    for (int i = 0; i < 5000; i++) {
+      store.record("key-" + i, 1000, i);
+    }
+
+    assertEquals(5000, store.size());
+    assertEquals(4321, store.all("key-4321").getLatest(), DELTA);
+  }
+
+  private MetricBatch batch(long timestamp, String key, long value) {
+    final MetricBatch batch = new MetricBatch();
+    batch.reset(timestamp);
+    batch.addLong(key, value);
+    return batch;
+  }
+
+}
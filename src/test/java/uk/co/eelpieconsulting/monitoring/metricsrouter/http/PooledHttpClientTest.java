@@ -0,0 +1,103 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.http;
+
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class PooledHttpClientTest {
+
+  private static final String ETAG = "\"v1\"";
+  private static final String LAST_MODIFIED = "Sat, 17 Oct 2026 10:00:00 GMT";
+
+  // The If-None-Match and If-Modified-Since headers of each request
+  private final List<String> validators = Lists.newCopyOnWriteArrayList();
+
+  private HttpServer server;
+  private PooledHttpClient httpClient;
+  private volatile int status = 200;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/resource", exchange -> {
+      final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+      final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+      validators.add(ifNoneMatch + " " + ifModifiedSince);
+      if (status != 200) {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+        return;
+      }
+      if (ETAG.equals(ifNoneMatch)) {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      final byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("ETag", ETAG);
+      exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+
+    httpClient = new PooledHttpClient(2, 2, 1000, 1000, 1000);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    httpClient.shutdown();
+    server.stop(0);
+  }
+
+  @Test
+  public void sendsTheValidatorsOfTheLastResponse() throws Exception {
+    final ConditionalGet resource = new ConditionalGet(url());
+
+    assertEquals("hello", httpClient.get(resource));
+    assertNull(httpClient.get(resource));
+
+    assertEquals(Lists.newArrayList("null null", ETAG + " " + LAST_MODIFIED), validators);
+  }
+
+  @Test
+  public void aResetResourceIsFetchedInFull() throws Exception {
+    final ConditionalGet resource = new ConditionalGet(url());
+    httpClient.get(resource);
+
+    resource.reset();
+
+    assertEquals("hello", httpClient.get(resource));
+    assertEquals("null null", validators.get(1));
+  }
+
+  @Test
+  public void errorStatusesAreRaised() throws Exception {
+    status = 503;
+    try {
+      httpClient.get(new ConditionalGet(url()));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private String url() {
+    return "http://localhost:" + server.getAddress().getPort() + "/resource";
+  }
+
+}
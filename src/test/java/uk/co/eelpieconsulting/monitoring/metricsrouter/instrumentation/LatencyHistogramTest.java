@@ -0,0 +1,61 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void percentilesAreWithinTheBucketPrecision() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.record(micros);
+    }
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertEquals(10000, snapshot.getCount());
+    assertEquals(5000.5, snapshot.getMeanMicros(), 0.001);
+    assertWithin(5000, snapshot.getPercentileMicros(50));
+    assertWithin(9900, snapshot.getPercentileMicros(99));
+    assertWithin(10000, snapshot.getMaxMicros());
+  }
+
+  @Test
+  public void bucketsNeverUnderstateARecordedValue() {
+    for (long micros : new long[] {0, 1, 15, 16, 17, 1000, 123456789L}) {
+      assertTrue(LatencyHistogram.highestValue(LatencyHistogram.index(micros)) >= micros);
+    }
+  }
+
+  @Test
+  public void intervalSnapshotsOnlyIncludeValuesRecordedSinceTheEarlierSnapshot() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100000);
+    final LatencyHistogram.Snapshot earlier = histogram.snapshot();
+
+    histogram.record(10);
+    histogram.record(20);
+
+    final LatencyHistogram.Snapshot interval = histogram.snapshot().since(earlier);
+    assertEquals(2, interval.getCount());
+    assertEquals(15, interval.getMeanMicros(), 0.001);
+    assertWithin(20, interval.getMaxMicros());
+  }
+
+  @Test
+  public void emptySnapshotsReportZero() {
+    final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getPercentileMicros(99));
+    assertEquals(0, snapshot.getMaxMicros());
+  }
+
+  private void assertWithin(long expected, long actual) {
+    assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.07);
+  }
+
+}
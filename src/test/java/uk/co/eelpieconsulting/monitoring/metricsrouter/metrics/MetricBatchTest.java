@@ -0,0 +1,134 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.metrics;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricBatchTest {
+
+  @Test
+  public void parsedValuesAreTypedOnlyWhenTheirTextRoundTrips() throws Exception {
+    final MetricBatch batch = new MetricBatch();
+    batch.addParsed("long", "1234");
+    batch.addParsed("negative", "-42");
+    batch.addParsed("double", "0.125");
+    batch.addParsed("boolean", "true");
+    batch.addParsed("leadingZero", "007");
+    batch.addParsed("trailingZero", "99.50");
+    batch.addParsed("plus", "+1");
+    batch.addParsed("text", "Zabbix 4.0");
+    batch.addParsed("empty", "");
+    batch.addParsed("missing", null);
+
+    assertEquals(MetricType.LONG, batch.getType(0));
+    assertEquals(1234, batch.getLong(0));
+    assertEquals(MetricType.LONG, batch.getType(1));
+    assertEquals(MetricType.DOUBLE, batch.getType(2));
+    assertEquals(0.125, batch.getDouble(2), 0);
+    assertEquals(MetricType.BOOLEAN, batch.getType(3));
+    assertTrue(batch.getBoolean(3));
+    for (int i = 4; i < batch.size(); i++) {
+      assertEquals(batch.getKey(i), MetricType.TEXT, batch.getType(i));
+    }
+    assertEquals("007", batch.format(4));
+    assertEquals("99.50", batch.format(5));
+    assertNull(batch.format(9));
+  }
+
+  @Test
+  public void canonicalNumbersAreRecognised() throws Exception {
+    assertTrue(MetricValues.isCanonicalLong("0"));
+    assertTrue(MetricValues.isCanonicalLong("-9223372036854775808"));
+    assertFalse(MetricValues.isCanonicalLong("9223372036854775808"));
+    assertFalse(MetricValues.isCanonicalLong("-0"));
+    assertFalse(MetricValues.isCanonicalLong("1.0"));
+    assertTrue(MetricValues.isCanonicalDouble("1.0"));
+    assertTrue(MetricValues.isCanonicalDouble("1.0E10"));
+    assertFalse(MetricValues.isCanonicalDouble("1.00"));
+    assertFalse(MetricValues.isCanonicalDouble("NaN"));
+    assertFalse(MetricValues.isCanonicalDouble(null));
+  }
+
+  @Test
+  public void doublesAreFormattedToTheirScale() throws Exception {
+    final MetricBatch batch = new MetricBatch();
+    batch.addDouble("rounded", 99.5, 2);
+    batch.addDouble("whole", 3.0, 0);
+    batch.addDouble("unscaled", 0.1);
+    batch.addDouble("notANumber", Double.NaN, 2);
+
+    assertEquals("99.5", batch.format(0));
+    assertEquals("3", batch.format(1));
+    assertEquals("0.1", batch.format(2));
+    assertEquals("NaN", batch.format(3));
+    assertEquals("0.33", MetricValues.format(1.0 / 3, 2));
+  }
+
+  @Test
+  public void formattingIgnoresTheDefaultLocale() throws Exception {
+    final Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(Locale.GERMANY);
+    try {
+      // Formats are made per thread, so a fresh thread picks up the changed default
+      final AtomicReference<String> formatted = new AtomicReference<>();
+      final Thread thread = new Thread(() -> formatted.set(MetricValues.format(1234.5, 2)));
+      thread.start();
+      thread.join();
+      assertEquals("1234.5", formatted.get());
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void resetBatchesAreRefilledFromTheStart() throws Exception {
+    final MetricBatch batch = new MetricBatch(1);
+    batch.reset(1000);
+    batch.addText("status", "ok");
+    batch.addLong("count", 1);
+    batch.reset(2000);
+    batch.addLong("count", 2);
+
+    assertEquals(1, batch.size());
+    assertEquals("count", batch.getKey(0));
+    assertEquals(2, batch.getLong(0));
+    assertEquals(2000, batch.getTimestamp(0));
+  }
+
+  @Test
+  public void copiedEntriesKeepTheirTimestampAndSource() throws Exception {
+    final MetricBatch polled = new MetricBatch();
+    polled.reset(1000);
+    polled.setSource("ZabbixMetricsSource");
+    polled.addDouble("load", 0.25, 2);
+
+    final MetricBatch copy = new MetricBatch();
+    copy.reset(5000);
+    copy.setSource("other");
+    copy.add(polled, 0);
+
+    assertEquals(1000, copy.getTimestamp(0));
+    assertEquals("ZabbixMetricsSource", copy.getSource(0));
+    assertEquals(2, copy.getScale(0));
+    assertEquals("0.25", copy.format(0));
+  }
+
+  @Test
+  public void keysFromMapsAreInterned() throws Exception {
+    final MetricBatch first = new MetricBatch();
+    first.addAll(Collections.singletonMap(new String("elb-RequestCount-minute"), "1"));
+    final MetricBatch second = new MetricBatch();
+    second.addAll(Collections.singletonMap(new String("elb-RequestCount-minute"), "2"));
+
+    assertSame(first.getKey(0), second.getKey(0));
+  }
+
+}
@@ -0,0 +1,81 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Test;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutTest {
+
+  private final FanOut fanOut = new FanOut(3, new Instrumentation());
+
+  @After
+  public void tearDown() {
+    fanOut.shutdown();
+  }
+
+  @Test
+  public void resultsAreInSubmissionOrderRegardlessOfCompletionOrder() throws Exception {
+    final Map<String, Callable<Integer>> calls = Maps.newLinkedHashMap();
+    for (int i = 0; i < 6; i++) {
+      final int value = i;
+      calls.put("call-" + i, () -> {
+        Thread.sleep((6 - value) * 20);
+        return value;
+      });
+    }
+
+    final Map<String, Integer> results = fanOut.call("upstream", calls, 5000);
+
+    assertEquals(Lists.newArrayList(calls.keySet()), Lists.newArrayList(results.keySet()));
+    assertEquals(Lists.newArrayList(0, 1, 2, 3, 4, 5), Lists.newArrayList(results.values()));
+  }
+
+  @Test
+  public void callsToAnUpstreamAreLimitedToItsConcurrency() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maximum = new AtomicInteger();
+    final Map<Integer, Callable<Integer>> calls = Maps.newLinkedHashMap();
+    for (int i = 0; i < 12; i++) {
+      calls.put(i, () -> {
+        maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(20);
+        running.decrementAndGet();
+        return 0;
+      });
+    }
+
+    assertEquals(12, fanOut.call("upstream", calls, 5000).size());
+    assertEquals(3, maximum.get());
+  }
+
+  @Test
+  public void failedAndLateCallsAreLeftOut() throws Exception {
+    final Map<String, Callable<String>> calls = Maps.newLinkedHashMap();
+    calls.put("fast", () -> "ok");
+    calls.put("failing", () -> {
+      throw new IllegalStateException("upstream error");
+    });
+    calls.put("slow", () -> {
+      Thread.sleep(5000);
+      return "late";
+    });
+
+    final long start = System.currentTimeMillis();
+    final Map<String, String> results = fanOut.call("upstream", calls, 200);
+
+    assertTrue(System.currentTimeMillis() - start < 2000);
+    assertEquals(1, results.size());
+    assertEquals("ok", results.get("fast"));
+  }
+
+}
@@ -0,0 +1,108 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+
+  private final PollScheduler pollScheduler = new PollScheduler(Executors.newFixedThreadPool(2));
+
+  @After
+  public void tearDown() {
+    pollScheduler.shutdown();
+  }
+
+  @Test
+  public void eachTaskRunsAtItsOwnInterval() throws Exception {
+    final AtomicInteger fast = new AtomicInteger();
+    final AtomicInteger slow = new AtomicInteger();
+    pollScheduler.schedule("fast", 50, fast::incrementAndGet);
+    pollScheduler.schedule("slow", 250, slow::incrementAndGet);
+
+    Thread.sleep(1000);
+
+    assertTrue("Fast ran " + fast.get() + " times", fast.get() >= 17 && fast.get() <= 22);
+    assertTrue("Slow ran " + slow.get() + " times", slow.get() >= 4 && slow.get() <= 5);
+  }
+
+  @Test
+  public void aTaskWhichOverrunsSkipsTheRunsItMissed() throws Exception {
+    final List<Long> starts = Lists.newCopyOnWriteArrayList();
+    pollScheduler.schedule("overrunning", 100, () -> {
+      starts.add(System.nanoTime());
+      if (starts.size() == 1) {
+        sleep(250);
+      }
+    });
+
+    Thread.sleep(500);
+
+    assertTrue(starts.size() >= 2);
+    // The runs due at 100 and 200ms are skipped, rather than both going at once when the first run finishes
+    final long secondStart = TimeUnit.NANOSECONDS.toMillis(starts.get(1) - starts.get(0));
+    assertTrue("Second run started after " + secondStart + "ms", secondStart >= 290 && secondStart < 400);
+    if (starts.size() >= 3) {
+      final long thirdStart = TimeUnit.NANOSECONDS.toMillis(starts.get(2) - starts.get(0));
+      assertTrue("Third run started after " + thirdStart + "ms", thirdStart >= 390);
+    }
+  }
+
+  @Test
+  public void aThrowingTaskKeepsBeingScheduled() throws Exception {
+    final AtomicInteger runs = new AtomicInteger();
+    pollScheduler.schedule("failing", 50, () -> {
+      runs.incrementAndGet();
+      throw new IllegalStateException("upstream down");
+    });
+
+    Thread.sleep(300);
+
+    assertTrue(runs.get() >= 3);
+  }
+
+  @Test
+  public void fallsBackToAPoolWhenVirtualThreadsAreUnavailable() throws Exception {
+    final ExecutorService workers = WorkerExecutors.create(3, true, () -> null);
+    try {
+      assertTrue(workers instanceof ThreadPoolExecutor);
+      assertEquals(3, ((ThreadPoolExecutor) workers).getMaximumPoolSize());
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void usesVirtualThreadsOnlyWhenAskedTo() throws Exception {
+    final ExecutorService virtualThreads = Executors.newSingleThreadExecutor();
+    try {
+      assertSame(virtualThreads, WorkerExecutors.create(3, true, () -> virtualThreads));
+      final ExecutorService workers = WorkerExecutors.create(3, false, () -> virtualThreads);
+      assertTrue(workers instanceof ThreadPoolExecutor);
+      workers.shutdownNow();
+    } finally {
+      virtualThreads.shutdownNow();
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingPlanTest {
+
+  private static final long SLOT_MILLIS = 10000;
+
+  @Test
+  public void targetsAreSpreadEvenlyOverTheSlots() {
+    final PollingPlan plan = new PollingPlan(6, SLOT_MILLIS);
+    final List<String> targets = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      targets.add("elb-" + i);
+    }
+    plan.update(targets);
+
+    final Set<String> polled = Sets.newHashSet();
+    for (int slot = 0; slot < 6; slot++) {
+      final List<String> due = plan.due(slot * SLOT_MILLIS);
+      assertTrue(due.size() == 3 || due.size() == 4);
+      polled.addAll(due);
+    }
+    assertEquals(20, polled.size());
+  }
+
+  @Test
+  public void targetsKeepTheirSlotWhenTheSetChanges() {
+    final PollingPlan plan = new PollingPlan(3, SLOT_MILLIS);
+    plan.update(Lists.newArrayList("a", "b", "c"));
+    final List<String> secondSlot = plan.due(SLOT_MILLIS);
+
+    plan.update(Lists.newArrayList("b", "c", "d"));
+
+    assertEquals(Sets.newHashSet("b", "c", "d"), plan.getTargets());
+    assertEquals(secondSlot, plan.due(SLOT_MILLIS));
+    assertEquals(Lists.newArrayList("d"), plan.due(0));
+  }
+
+  @Test
+  public void slotsFollowTheClock() {
+    final PollingPlan plan = new PollingPlan(2, SLOT_MILLIS);
+    plan.update(Lists.newArrayList("a", "b"));
+
+    assertEquals(plan.due(0), plan.due(2 * SLOT_MILLIS + 500));
+    assertEquals(plan.due(SLOT_MILLIS), plan.due(3 * SLOT_MILLIS));
+  }
+
+}
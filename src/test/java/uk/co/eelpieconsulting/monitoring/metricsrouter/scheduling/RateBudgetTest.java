@@ -0,0 +1,75 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateBudgetTest {
+
+  @Test
+  public void upstreamsWithoutABudgetAreNotLimited() throws Exception {
+    final RateBudget rateBudget = new RateBudget("cloudwatch:1:1");
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      rateBudget.acquire("zabbix");
+    }
+
+    assertTrue(System.nanoTime() - start < 100000000L);
+    assertEquals(0, rateBudget.getBuckets().get("cloudwatch").getAcquired());
+  }
+
+  @Test
+  public void callsBeyondTheBurstWaitForTokens() throws Exception {
+    final RateBudget rateBudget = new RateBudget("cloudwatch:20:5");
+
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < 9; i++) {
+      rateBudget.acquire("cloudwatch");
+    }
+    final long elapsed = System.currentTimeMillis() - start;
+
+    final RateBudget.Bucket bucket = rateBudget.getBuckets().get("cloudwatch");
+    assertTrue("Took " + elapsed + "ms", elapsed >= 150);
+    assertEquals(9, bucket.getAcquired());
+    assertEquals(4, bucket.getThrottled());
+  }
+
+  @Test
+  public void waitingSourcesTakeTurns() throws Exception {
+    final RateBudget rateBudget = new RateBudget("zabbix:10:1");
+    final RateBudget.Bucket bucket = rateBudget.getBuckets().get("zabbix");
+    rateBudget.acquire("zabbix");
+
+    final List<String> served = Lists.newArrayList();
+    final List<Thread> callers = Lists.newArrayList();
+    for (String caller : new String[]{"a1", "a2", "a3", "b1"}) {
+      final Thread thread = new Thread(() -> PollContext.run(caller.substring(0, 1), () -> {
+        try {
+          rateBudget.acquire("zabbix");
+          synchronized (served) {
+            served.add(caller);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }));
+      thread.start();
+      callers.add(thread);
+      while (bucket.getWaiting() < callers.size() && thread.isAlive()) {
+        Thread.sleep(1);
+      }
+    }
+    for (Thread thread : callers) {
+      thread.join();
+    }
+
+    assertEquals(Lists.newArrayList("a1", "b1", "a2", "a3"), served);
+  }
+
+}
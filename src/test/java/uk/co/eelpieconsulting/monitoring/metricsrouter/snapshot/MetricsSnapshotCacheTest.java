@@ -0,0 +1,120 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsSnapshotCacheTest {
+
+  @Test
+  public void snapshotsHoldTheLatestValueFromEveryPoll() {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(900);
+    final long now = System.currentTimeMillis();
+    cache.update(batch(now, "web-1-RequestCount-minute", 200));
+    cache.update(batch(now, "metricsrouter.http.leased", 3));
+    cache.update(batch(now, "web-1-RequestCount-minute", 250));
+
+    final MetricsSnapshot snapshot = cache.getSnapshot();
+    assertEquals(3, snapshot.getVersion());
+    assertEquals("metricsrouter_http_leased{key=\"metricsrouter.http.leased\"} 3 " + now + "\n" +
+            "web_1_RequestCount_minute{key=\"web-1-RequestCount-minute\"} 250 " + now + "\n", text(snapshot.prometheus(null, false)));
+    assertEquals("{\"metricsrouter.http.leased\":3,\"web-1-RequestCount-minute\":250}", text(snapshot.json(null, false)));
+  }
+
+  @Test
+  public void snapshotsAreRebuiltOnlyWhenAScrapeFollowsAPoll() {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(900);
+    final long now = System.currentTimeMillis();
+    cache.update(batch(now - 1000, "load", 1));
+    cache.update(batch(now - 1000, "uptime", 5));
+    final MetricsSnapshot first = cache.getSnapshot();
+    assertSame(first, cache.getSnapshot());
+
+    cache.update(batch(now, "load", 1));
+    cache.update(batch(now, "uptime", 6));
+    final MetricsSnapshot second = cache.getSnapshot();
+    assertEquals(4, second.getVersion());
+    assertEquals("load{key=\"load\"} 1 " + now + "\n" +
+            "uptime{key=\"uptime\"} 6 " + now + "\n", text(second.prometheus(null, false)));
+  }
+
+  @Test
+  public void prefixesSelectContiguousEntries() {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(900);
+    final MetricBatch batch = new MetricBatch();
+    batch.reset(System.currentTimeMillis());
+    batch.addLong("a.one", 1);
+    batch.addDouble("b.one", 0.5, 1);
+    batch.addBoolean("b.two", true);
+    batch.addText("b.three", "say \"hi\"");
+    batch.addLong("c.one", 3);
+    cache.update(batch);
+
+    final MetricsSnapshot snapshot = cache.getSnapshot();
+    assertEquals("{\"b.one\":0.5,\"b.three\":\"say \\\"hi\\\"\",\"b.two\":true}", text(snapshot.json("b.", false)));
+    assertEquals(2, text(snapshot.prometheus("b.", false)).split("\n").length);
+    assertEquals("{}", text(snapshot.json("d.", false)));
+    assertEquals("", text(snapshot.prometheus("0", false)));
+  }
+
+  @Test
+  public void gzippedBodiesMatchThePlainOnes() throws IOException {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(900);
+    cache.update(batch(System.currentTimeMillis(), "load", 1));
+    final MetricsSnapshot snapshot = cache.getSnapshot();
+
+    assertEquals(text(snapshot.prometheus(null, false)), gunzip(snapshot.prometheus(null, true)));
+    assertEquals(text(snapshot.json("lo", false)), gunzip(snapshot.json("lo", true)));
+    assertSame(snapshot.json(null, true), snapshot.json(null, true));
+  }
+
+  @Test
+  public void metricsWhichStopReportingAreDropped() {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(60);
+    cache.update(batch(System.currentTimeMillis() - 120000, "stale", 1));
+    cache.update(batch(System.currentTimeMillis(), "fresh", 2));
+
+    assertEquals(1, cache.getSnapshot().size());
+    assertEquals("{\"fresh\":2}", text(cache.getSnapshot().json(null, false)));
+  }
+
+  @Test
+  public void metricsExpireWhenPollingStops() throws InterruptedException {
+    final MetricsSnapshotCache cache = new MetricsSnapshotCache(1);
+    cache.update(batch(System.currentTimeMillis() - 900, "load", 1));
+    final MetricsSnapshot polled = cache.getSnapshot();
+    assertEquals(1, polled.size());
+
+    Thread.sleep(200);
+
+    final MetricsSnapshot expired = cache.getSnapshot();
+    assertEquals(0, expired.size());
+    assertTrue(expired.getVersion() != polled.getVersion());
+  }
+
+  private MetricBatch batch(long timestamp, String key, long value) {
+    final MetricBatch batch = new MetricBatch();
+    batch.reset(timestamp);
+    batch.addLong(key, value);
+    return batch;
+  }
+
+  private String text(byte[] body) {
+    return new String(body, StandardCharsets.UTF_8);
+  }
+
+  private String gunzip(byte[] body) throws IOException {
+    return IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,51 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CloudWatchClientFactoryTest {
+
+  private CloudWatchClientFactory cloudWatchClientFactory;
+
+  // As configured by the default application.properties
+  @Before
+  public void setUp() {
+    cloudWatchClientFactory = new CloudWatchClientFactory("", "", "", "", 10);
+  }
+
+  @After
+  public void tearDown() {
+    cloudWatchClientFactory.shutdown();
+  }
+
+  @Test
+  public void sourcesWithNothingToPollStartWithoutARegion() {
+    final LoadBalancerMetricsSource loadBalancers = new LoadBalancerMetricsSource(cloudWatchClientFactory, new RateBudget(""), new Instrumentation(), "", "", 300, 10);
+    final DatabaseMetricsSource databases = new DatabaseMetricsSource(cloudWatchClientFactory, new RateBudget(""), new Instrumentation(), "", "", 300, 10);
+
+    final MetricBatch metrics = new MetricBatch();
+    loadBalancers.collect(metrics);
+    databases.collect(metrics);
+
+    assertTrue(metrics.isEmpty());
+  }
+
+  @Test
+  public void clientsCanNotBeUsedWithoutARegionOrEndpoint() {
+    try {
+      cloudWatchClientFactory.getAsyncCloudWatchClient();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("ec2.regionName or ec2.cloudWatchEndpoint must be set to poll CloudWatch", e.getMessage());
+    }
+  }
+
+}
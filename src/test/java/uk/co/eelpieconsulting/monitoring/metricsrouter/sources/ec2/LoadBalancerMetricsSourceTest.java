@@ -0,0 +1,180 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.metrics.MetricBatch;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancerMetricsSourceTest {
+
+  private static final long RESPONSE_DELAY_MILLIS = 200;
+  private static final Pattern METRIC_NAME = Pattern.compile("MetricDataQueries\\.member\\.(\\d+)\\.MetricStat\\.Metric\\.MetricName=([^&]*)");
+  private static final long MINUTE_MILLIS = 60 * 1000L;
+
+  private HttpServer cloudWatch;
+  private CloudWatchClientFactory cloudWatchClientFactory;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger listMetricsRequests = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    cloudWatch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    cloudWatch.setExecutor(Executors.newCachedThreadPool());
+    cloudWatch.createContext("/", exchange -> {
+      final String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+      try {
+        Thread.sleep(RESPONSE_DELAY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      final String action = parameter(body, "Action");
+      final byte[] response = ("ListMetrics".equals(action) ? listMetricsResponse(body) : metricDataResponse(body)).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "text/xml");
+      exchange.sendResponseHeaders(200, response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(response);
+      }
+    });
+    cloudWatch.start();
+
+    cloudWatchClientFactory = new CloudWatchClientFactory("key", "secret", "eu-west-1",
+            "http://localhost:" + cloudWatch.getAddress().getPort(), 10);
+  }
+
+  @After
+  public void tearDown() {
+    cloudWatchClientFactory.shutdown();
+    cloudWatch.stop(0);
+  }
+
+  @Test
+  public void hourAndDayFiguresAreRolledUpFromMinuteDatapoints() throws Exception {
+    final LoadBalancerMetricsSource source = new LoadBalancerMetricsSource(cloudWatchClientFactory, new RateBudget(""), new Instrumentation(), "web-1,web-2,web-3", "", 300, 60);
+
+    final MetricBatch backfilled = new MetricBatch();
+    source.collect(backfilled);
+    assertEquals(1, requests.get());
+    assertFigures(backfilled.toMap());
+
+    final MetricBatch polled = new MetricBatch();
+    final long start = System.currentTimeMillis();
+    source.collect(polled);
+    final long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals(2, requests.get());
+    assertTrue("Took " + elapsed + "ms", elapsed < 3 * RESPONSE_DELAY_MILLIS);
+    assertFigures(polled.toMap());
+  }
+
+  @Test
+  public void loadBalancersMatchingThePatternAreDiscovered() throws Exception {
+    final LoadBalancerMetricsSource source = new LoadBalancerMetricsSource(cloudWatchClientFactory, new RateBudget(""), new Instrumentation(), "web-1", "web-.*", 300, 60);
+
+    final MetricBatch batch = new MetricBatch();
+    source.collect(batch);
+
+    assertEquals(2, listMetricsRequests.get());
+    assertFigures(batch.toMap());
+  }
+
+  private void assertFigures(Map<String, String> metrics) {
+    assertEquals(36, metrics.size());
+    for (String loadBalancer : new String[]{"web-1", "web-2", "web-3"}) {
+      assertEquals("200", metrics.get(loadBalancer + "-RequestCount-minute"));
+      assertEquals("12000", metrics.get(loadBalancer + "-RequestCount-hour"));
+      assertEquals("288000", metrics.get(loadBalancer + "-RequestCount-day"));
+      assertEquals("5", metrics.get(loadBalancer + "-HTTPCode_Backend_5XX-minute"));
+      assertEquals("7200", metrics.get(loadBalancer + "-HTTPCode_Backend_5XX-day"));
+      for (String period : new String[]{"minute", "hour", "day"}) {
+        assertEquals("0.25", metrics.get(loadBalancer + "-Latency-" + period));
+        assertEquals("2.5", metrics.get(loadBalancer + "-HTTPCode_Backend_5XX-percentage-" + period));
+      }
+    }
+  }
+
+  // Two pages of load balancer metrics, one of which does not match the discovery pattern
+  private String listMetricsResponse(String formBody) throws UnsupportedEncodingException {
+    listMetricsRequests.incrementAndGet();
+    final boolean firstPage = parameter(formBody, "NextToken").isEmpty();
+    final String metrics = firstPage ? metric("web-2") + metric("admin-1") : metric("web-3");
+    return "<ListMetricsResponse xmlns=\"http://monitoring.amazonaws.com/doc/2010-08-01/\">" +
+            "<ListMetricsResult><Metrics>" + metrics + "</Metrics>" + (firstPage ? "<NextToken>page-2</NextToken>" : "") + "</ListMetricsResult>" +
+            "<ResponseMetadata><RequestId>00000000-0000-0000-0000-000000000000</RequestId></ResponseMetadata>" +
+            "</ListMetricsResponse>";
+  }
+
+  private String metric(String loadBalancer) {
+    return "<member><Namespace>AWS/ELB</Namespace><MetricName>RequestCount</MetricName>" +
+            "<Dimensions><member><Name>LoadBalancerName</Name><Value>" + loadBalancer + "</Value></member></Dimensions></member>";
+  }
+
+  // Answers every query with one datapoint per minute of the requested range
+  private String metricDataResponse(String formBody) throws UnsupportedEncodingException {
+    requests.incrementAndGet();
+    final long start = Instant.parse(parameter(formBody, "StartTime")).toEpochMilli();
+    final long end = Instant.parse(parameter(formBody, "EndTime")).toEpochMilli();
+
+    final StringBuilder results = new StringBuilder();
+    final Matcher matcher = METRIC_NAME.matcher(formBody);
+    while (matcher.find()) {
+      final String query = "MetricDataQueries.member." + matcher.group(1);
+      final String value = valueOf(URLDecoder.decode(matcher.group(2), "UTF-8"), parameter(formBody, query + ".MetricStat.Stat"));
+      final StringBuilder timestamps = new StringBuilder();
+      final StringBuilder values = new StringBuilder();
+      for (long minute = end - MINUTE_MILLIS; minute >= start; minute -= MINUTE_MILLIS) {
+        timestamps.append("<member>").append(Instant.ofEpochMilli(minute)).append("</member>");
+        values.append("<member>").append(value).append("</member>");
+      }
+      results.append("<member><Id>").append(parameter(formBody, query + ".Id")).append("</Id>")
+              .append("<Timestamps>").append(timestamps).append("</Timestamps>")
+              .append("<Values>").append(values).append("</Values>")
+              .append("<StatusCode>Complete</StatusCode></member>");
+    }
+    return "<GetMetricDataResponse xmlns=\"http://monitoring.amazonaws.com/doc/2010-08-01/\">" +
+            "<GetMetricDataResult><MetricDataResults>" + results + "</MetricDataResults></GetMetricDataResult>" +
+            "<ResponseMetadata><RequestId>00000000-0000-0000-0000-000000000000</RequestId></ResponseMetadata>" +
+            "</GetMetricDataResponse>";
+  }
+
+  private String valueOf(String metricName, String stat) {
+    switch (metricName) {
+      case "RequestCount":
+        return "200.0";
+      case "Latency":
+        return "SampleCount".equals(stat) ? "200.0" : "50.0";
+      default:
+        return "5.0";
+    }
+  }
+
+  private String parameter(String formBody, String name) throws UnsupportedEncodingException {
+    for (String pair : formBody.split("&")) {
+      final int equals = pair.indexOf('=');
+      if (equals > 0 && pair.substring(0, equals).equals(name)) {
+        return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+      }
+    }
+    return "";
+  }
+
+}
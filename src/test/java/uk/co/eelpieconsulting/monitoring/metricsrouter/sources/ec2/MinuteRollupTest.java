@@ -0,0 +1,72 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.ec2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MinuteRollupTest {
+
+  private static final double DELTA = 0.0001;
+
+  @Test
+  public void windowTotalsFollowTheNewestMinute() {
+    final MinuteRollup rollup = new MinuteRollup(1, 10, 1, 3, 10);
+    for (int minute = 100; minute < 105; minute++) {
+      rollup.put(minute, 0, minute - 99);
+    }
+
+    assertEquals(104, rollup.getNewestMinute());
+    assertEquals(5, rollup.sum(0, 0), DELTA);
+    assertEquals(3 + 4 + 5, rollup.sum(0, 1), DELTA);
+    assertEquals(1 + 2 + 3 + 4 + 5, rollup.sum(0, 2), DELTA);
+  }
+
+  @Test
+  public void minutesExpireAsTheRollupAdvances() {
+    final MinuteRollup rollup = new MinuteRollup(1, 10, 3, 10);
+    for (int minute = 0; minute < 10; minute++) {
+      rollup.put(minute, 0, 1);
+    }
+
+    rollup.advanceTo(11);
+
+    assertEquals(1, rollup.sum(0, 0), DELTA);
+    assertEquals(8, rollup.sum(0, 1), DELTA);
+  }
+
+  @Test
+  public void replacingAMinuteAdjustsOnlyTheWindowsHoldingIt() {
+    final MinuteRollup rollup = new MinuteRollup(1, 10, 1, 3);
+    rollup.put(0, 0, 1);
+    rollup.put(1, 0, 1);
+    rollup.put(2, 0, 1);
+
+    rollup.put(1, 0, 5);
+
+    assertEquals(1, rollup.sum(0, 0), DELTA);
+    assertEquals(7, rollup.sum(0, 1), DELTA);
+  }
+
+  @Test
+  public void aGapLongerThanTheRingClearsIt() {
+    final MinuteRollup rollup = new MinuteRollup(2, 10, 10);
+    rollup.put(0, 0, 1);
+    rollup.put(0, 1, 2);
+
+    rollup.advanceTo(25);
+
+    assertEquals(0, rollup.sum(0, 0), DELTA);
+    assertEquals(0, rollup.sum(1, 0), DELTA);
+  }
+
+  @Test
+  public void minutesOlderThanTheRingAreIgnored() {
+    final MinuteRollup rollup = new MinuteRollup(1, 10, 10);
+    rollup.put(20, 0, 1);
+
+    rollup.put(10, 0, 100);
+
+    assertEquals(1, rollup.sum(0, 0), DELTA);
+  }
+
+}
@@ -1,24 +1,38 @@
 package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.nationalgrid;
 
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.http.PooledHttpClient;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class CarbonIntensitySourceTest {
 
+  private volatile String etag = "\"v1\"";
+
   @Test
   public void canParseJson() throws Exception {
     String json = readFile("intensity.json");
 
-    String forecast = new CarbonIntensitySource().parseJson(json, "national").get("carbonintensity.national.forecast");
-    String actual = new CarbonIntensitySource().parseJson(json, "national").get("carbonintensity.national.actual");
+    String forecast = new CarbonIntensitySource(null, null, null).parseJson(json, "national").get("carbonintensity.national.forecast");
+    String actual = new CarbonIntensitySource(null, null, null).parseJson(json, "national").get("carbonintensity.national.actual");
 
     assertEquals("159", forecast);
     assertNull(actual);
@@ -28,7 +42,7 @@ public class CarbonIntensitySourceTest {
   public void shouldIncludeActualIfProvided() throws Exception {
     String json = readFile("intensity-actual.json");
 
-    String actual = new CarbonIntensitySource().parseJson(json, "national").get("carbonintensity.national.actual");
+    String actual = new CarbonIntensitySource(null, null, null).parseJson(json, "national").get("carbonintensity.national.actual");
 
     assertEquals("311", actual);
   }
@@ -37,11 +51,65 @@ public class CarbonIntensitySourceTest {
   public void canParseRegionalResults() throws Exception {
     String json = readFile("intensity-regional.json");
 
-    String forecast = new CarbonIntensitySource().parseRegionalJson(json, "south-england").get("carbonintensity.south-england.forecast");
+    String forecast = new CarbonIntensitySource(null, null, null).parseRegionalJson(json, "south-england").get("carbonintensity.south-england.forecast");
 
     assertEquals("159", forecast);
   }
 
+  @Test
+  public void unchangedResultsAreReusedAndUnparseableOnesRefetchedInFull() throws Exception {
+    final String national = readFile("intensity.json");
+    final String regional = readFile("intensity-regional.json");
+    final List<String> nationalRequests = Lists.newCopyOnWriteArrayList();
+    final String[] nationalBody = {national};
+
+    final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/intensity", exchange -> {
+      final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+      nationalRequests.add(ifNoneMatch != null ? "conditional" : "full");
+      respond(exchange, ifNoneMatch, nationalBody[0]);
+    });
+    server.createContext("/regional/regionid/12", exchange -> respond(exchange, exchange.getRequestHeaders().getFirst("If-None-Match"), regional));
+    server.start();
+    final PooledHttpClient httpClient = new PooledHttpClient(2, 2, 1000, 1000, 1000);
+    try {
+      final CarbonIntensitySource source = new CarbonIntensitySource(httpClient, new RateBudget(""), new Instrumentation(),
+              "http://localhost:" + server.getAddress().getPort());
+
+      assertEquals("159", source.getMetrics().get("carbonintensity.national.forecast"));
+      final Map<String, String> notModified = source.getMetrics();
+      assertEquals("159", notModified.get("carbonintensity.national.forecast"));
+      assertEquals("159", notModified.get("carbonintensity.south-england.forecast"));
+
+      // The resource changes to something which cannot be parsed
+      nationalBody[0] = "not json";
+      etag = "\"v2\"";
+      assertTrue(source.getMetrics().isEmpty());
+      nationalBody[0] = national;
+      assertEquals("159", source.getMetrics().get("carbonintensity.national.forecast"));
+
+      assertEquals(Lists.newArrayList("full", "conditional", "conditional", "full"), nationalRequests);
+
+    } finally {
+      httpClient.shutdown();
+      server.stop(0);
+    }
+  }
+
+  private void respond(HttpExchange exchange, String ifNoneMatch, String body) throws IOException {
+    if (etag.equals(ifNoneMatch)) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("ETag", etag);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
   private String readFile(String filename) throws IOException {
     String path = getClass().getClassLoader().getResource(filename).getPath();
     return IOUtils.toString(new FileInputStream(new File(path)), "UTF-8");
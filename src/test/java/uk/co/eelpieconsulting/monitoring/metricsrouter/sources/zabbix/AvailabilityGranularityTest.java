@@ -0,0 +1,30 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AvailabilityGranularityTest {
+
+  private static final DateTimeZone LONDON = DateTimeZone.forID("Europe/London");
+
+  @Test
+  public void hoursRepeatedWhenTheClocksGoBackHaveDistinctLabels() throws Exception {
+    // 01:00 BST, then 01:00 GMT an hour later
+    final DateTime firstOneOClock = new DateTime(2020, 10, 25, 0, 0, DateTimeZone.UTC).withZone(LONDON);
+    final DateTime secondOneOClock = AvailabilityGranularity.HOUR.next(firstOneOClock);
+    assertEquals(firstOneOClock.getHourOfDay(), secondOneOClock.getHourOfDay());
+
+    assertEquals("2020102500Z", AvailabilityGranularity.HOUR.label(firstOneOClock));
+    assertEquals("2020102501Z", AvailabilityGranularity.HOUR.label(secondOneOClock));
+  }
+
+  @Test
+  public void daysAreLabelledInTheirOwnZone() throws Exception {
+    final DateTime day = AvailabilityGranularity.DAY.floor(new DateTime(2020, 6, 1, 0, 30, LONDON));
+    assertEquals("20200601", AvailabilityGranularity.DAY.label(day));
+  }
+
+}
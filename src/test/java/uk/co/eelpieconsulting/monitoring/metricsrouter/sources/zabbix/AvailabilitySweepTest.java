@@ -0,0 +1,189 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AvailabilitySweepTest {
+
+  private static final DateTime START = new DateTime(2019, 1, 1, 0, 0, DateTimeZone.UTC);
+
+  @Test
+  public void matchesPerBucketCalculationForBucketsClosedByALaterEvent() throws Exception {
+    final Random random = new Random(42);
+    for (int run = 0; run < 50; run++) {
+      final TriggerEventLog events = randomEvents(random, START.minusDays(3), START.plusMonths(7));
+      final List<DateTime> days = boundaries(AvailabilityGranularity.DAY, START.plusMonths(5), START.plusMonths(6));
+      final List<DateTime> months = boundaries(AvailabilityGranularity.MONTH, START, START.plusMonths(6));
+      final AvailabilityBuckets dayBuckets = AvailabilityBuckets.of(days);
+      final AvailabilityBuckets monthBuckets = AvailabilityBuckets.of(months);
+
+      AvailabilitySweep.sweep(events, START.plusMonths(7).getMillis(), dayBuckets, monthBuckets);
+
+      assertMatchesPerBucketCalculation(events, days, dayBuckets);
+      assertMatchesPerBucketCalculation(events, months, monthBuckets);
+    }
+  }
+
+  @Test
+  public void lastStateRunsUntilTheEndOfObservation() throws Exception {
+    final TriggerEventLog events = new TriggerEventLog();
+    events.append(1, seconds(START.minusDays(10)), 0);
+    events.append(2, seconds(START.plusHours(12)), 1);
+
+    final AvailabilityBuckets buckets = AvailabilityBuckets.of(boundaries(AvailabilityGranularity.DAY, START, START.plusDays(3)));
+    AvailabilitySweep.sweep(events, START.plusDays(2).plusHours(6).getMillis(), buckets);
+
+    assertEquals(12 * 3600000L, buckets.getGood(0));
+    assertEquals(12 * 3600000L, buckets.getBad(0));
+    assertEquals(24 * 3600000L, buckets.getBad(1));
+    assertEquals(6 * 3600000L, buckets.getBad(2));
+    assertEquals(0, buckets.getUnknown(2));
+  }
+
+  @Test
+  public void timeBeforeTheFirstKnownEventIsUnknown() throws Exception {
+    final TriggerEventLog events = new TriggerEventLog();
+    events.append(1, seconds(START.plusHours(6)), 0);
+
+    final AvailabilityBuckets buckets = AvailabilityBuckets.of(boundaries(AvailabilityGranularity.DAY, START, START.plusDays(1)));
+    AvailabilitySweep.sweep(events, START.plusDays(1).getMillis(), buckets);
+
+    assertEquals(6 * 3600000L, buckets.getUnknown(0));
+    assertEquals(18 * 3600000L, buckets.getGood(0));
+    assertEquals("100.00", buckets.getAvailability(0));
+  }
+
+  @Test
+  public void finerGranularitiesAddUpToTheSameTotals() throws Exception {
+    final TriggerEventLog events = randomEvents(new Random(7), START.minusDays(1), START.plusWeeks(5));
+    final DateTime end = START.plusWeeks(4);
+    final AvailabilityBuckets hours = AvailabilityBuckets.of(boundaries(AvailabilityGranularity.HOUR, START, end));
+    final AvailabilityBuckets days = AvailabilityBuckets.of(boundaries(AvailabilityGranularity.DAY, START, end));
+    final AvailabilityBuckets whole = AvailabilityBuckets.of(Lists.newArrayList(START, end));
+
+    AvailabilitySweep.sweep(events, end.plusWeeks(1).getMillis(), hours, days, whole);
+
+    assertEquals(whole.getGood(0), sumGood(hours));
+    assertEquals(whole.getGood(0), sumGood(days));
+    assertEquals(whole.getBad(0), sumBad(hours));
+    assertEquals(whole.getBad(0), sumBad(days));
+  }
+
+  @Test
+  public void availabilityIsDefinedWhenThereWasNoGoodTime() throws Exception {
+    assertEquals("0.00", AvailabilityBuckets.availability(0, 1000));
+    assertNull(AvailabilityBuckets.availability(0, 0));
+    assertEquals("100.00", AvailabilityBuckets.availability(1000, 0));
+    assertEquals("90.00", AvailabilityBuckets.availability(1000, 100));
+  }
+
+  private void assertMatchesPerBucketCalculation(TriggerEventLog events, List<DateTime> boundaries, AvailabilityBuckets buckets) {
+    final long lastClock = events.getLastClock() * 1000;
+    for (int i = 0; i < buckets.size(); i++) {
+      final DateTime from = boundaries.get(i);
+      final DateTime to = boundaries.get(i + 1);
+      if (to.getMillis() > lastClock) {
+        continue;
+      }
+      final long[] expected = perBucketDurations(from, to, events);
+      assertEquals(expected[0], buckets.getGood(i));
+      assertEquals(expected[1], buckets.getBad(i));
+      assertEquals(expected[2], buckets.getUnknown(i));
+      if (expected[0] > 0) {
+        assertEquals(perBucketAvailability(expected[0], expected[1]), buckets.getAvailability(i));
+      }
+    }
+  }
+
+  // The calculation this sweep replaced, walking the whole log again for each bucket
+  private long[] perBucketDurations(DateTime from, DateTime to, TriggerEventLog events) {
+    long unknown = 0;
+    long good = 0;
+    long bad = 0;
+
+    DateTime start = from;
+    int state = 2;
+    for (int i = 0; i < events.size() && start.isBefore(to); i++) {
+      DateTime dateTime = new DateTime(events.getClock(i) * 1000);
+      if (dateTime.isAfter(from)) {
+        if (start.isBefore(from)) {
+          start = from;
+        }
+        if (dateTime.isAfter(to)) {
+          dateTime = to;
+        }
+        long delta = dateTime.getMillis() - start.getMillis();
+        if (state == 0) {
+          good = good + delta;
+        }
+        if (state == 1) {
+          bad = bad + delta;
+        }
+        if (state == 2) {
+          unknown = unknown + delta;
+        }
+      }
+
+      state = events.getValue(i);
+      start = dateTime;
+    }
+    return new long[]{good, bad, unknown};
+  }
+
+  private String perBucketAvailability(long good, long bad) {
+    BigDecimal divide = new BigDecimal(bad).setScale(4).divide(new BigDecimal(good).setScale(4), 4);
+    return new BigDecimal(1).subtract(divide).multiply(new BigDecimal(100)).setScale(2).toString();
+  }
+
+  private TriggerEventLog randomEvents(Random random, DateTime from, DateTime to) {
+    final TriggerEventLog events = new TriggerEventLog();
+    long clock = seconds(from);
+    long eventId = 1;
+    while (clock < seconds(to)) {
+      events.append(eventId++, clock, random.nextInt(10) < 7 ? 0 : random.nextInt(2) + 1);
+      clock += random.nextInt(3) == 0 ? 0 : random.nextInt(3 * 86400);
+    }
+    return events;
+  }
+
+  private List<DateTime> boundaries(AvailabilityGranularity granularity, DateTime from, DateTime to) {
+    final List<DateTime> boundaries = Lists.newArrayList();
+    DateTime bucketStart = from;
+    while (bucketStart.isBefore(to)) {
+      boundaries.add(bucketStart);
+      bucketStart = granularity.next(bucketStart);
+    }
+    boundaries.add(to);
+    return boundaries;
+  }
+
+  private long sumGood(AvailabilityBuckets buckets) {
+    long total = 0;
+    for (int i = 0; i < buckets.size(); i++) {
+      total += buckets.getGood(i);
+    }
+    return total;
+  }
+
+  private long sumBad(AvailabilityBuckets buckets) {
+    long total = 0;
+    for (int i = 0; i < buckets.size(); i++) {
+      total += buckets.getBad(i);
+    }
+    return total;
+  }
+
+  private long seconds(DateTime time) {
+    return time.getMillis() / 1000;
+  }
+
+}
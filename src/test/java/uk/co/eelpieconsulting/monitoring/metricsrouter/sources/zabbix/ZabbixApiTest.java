@@ -0,0 +1,98 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZabbixApiTest {
+
+  private static final String NOT_AUTHORISED = "{\"jsonrpc\":\"2.0\",\"error\":{\"code\":-32602,\"message\":\"Invalid params.\",\"data\":\"Not authorised.\"},\"id\":1}";
+  private static final String TRIGGERS = "{\"jsonrpc\":\"2.0\",\"result\":[{\"triggerid\":\"13\",\"description\":\"Disk full on db1\",\"value\":\"1\"}],\"id\":1}";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final AtomicInteger logins = new AtomicInteger();
+  private final AtomicInteger triggerRequests = new AtomicInteger();
+  // Session tokens up to this one have expired
+  private volatile int expiredTokens;
+
+  private HttpServer zabbix;
+  private CloseableHttpClient httpClient;
+  private ZabbixApi zabbixApi;
+
+  @Before
+  public void setUp() throws Exception {
+    zabbix = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    zabbix.createContext("/api_jsonrpc.php", exchange -> {
+      final JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+      final String response;
+      if ("user.authenticate".equals(request.get("method").asText())) {
+        response = "{\"jsonrpc\":\"2.0\",\"result\":\"token-" + logins.incrementAndGet() + "\",\"id\":1}";
+      } else {
+        triggerRequests.incrementAndGet();
+        final int token = Integer.parseInt(request.get("auth").asText().substring("token-".length()));
+        response = token <= expiredTokens ? NOT_AUTHORISED : TRIGGERS;
+      }
+      final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    zabbix.start();
+
+    httpClient = HttpClients.createDefault();
+    zabbixApi = new ZabbixApi(httpClient, new RateBudget(""), new Instrumentation(),
+            "http://localhost:" + zabbix.getAddress().getPort(), "user", "password");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    httpClient.close();
+    zabbix.stop(0);
+  }
+
+  @Test
+  public void anExpiredSessionIsReplacedOnceAndTheCallRetried() throws Exception {
+    assertEquals(Collections.singletonMap("13", "Disk full on db1"), zabbixApi.getTriggers());
+    assertEquals(1, logins.get());
+
+    expiredTokens = 1;
+    assertEquals(Collections.singletonMap("13", "Disk full on db1"), zabbixApi.getTriggers());
+    assertEquals(2, logins.get());
+    assertEquals(3, triggerRequests.get());
+
+    zabbixApi.getTriggers();
+    assertEquals(2, logins.get());
+  }
+
+  @Test
+  public void aSessionRejectedAgainAfterLoggingInIsNotRetriedAgain() throws Exception {
+    expiredTokens = Integer.MAX_VALUE;
+    try {
+      zabbixApi.getTriggers();
+      fail();
+    } catch (ZabbixApiException e) {
+      assertTrue(e.isSessionError());
+    }
+    assertEquals(2, logins.get());
+    assertEquals(2, triggerRequests.get());
+  }
+
+}
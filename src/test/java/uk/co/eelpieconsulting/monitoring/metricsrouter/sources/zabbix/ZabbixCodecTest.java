@@ -0,0 +1,106 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZabbixCodecTest {
+
+  private final ZabbixRequestWriter writer = new ZabbixRequestWriter();
+  private final ZabbixResponseReader reader = new ZabbixResponseReader();
+
+  @Test
+  public void requestsAreWrittenFromTemplatesAsValidJsonRpc() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.writeGetItemsByKeys(out, "a-token", Arrays.asList("system.cpu.load", "vfs.fs.size[/,pfree]"));
+
+    final Map request = new ObjectMapper().readValue(out.toByteArray(), Map.class);
+    assertEquals("2.0", request.get("jsonrpc"));
+    assertEquals("item.get", request.get("method"));
+    assertEquals(1, request.get("id"));
+    assertEquals("a-token", request.get("auth"));
+    final Map params = (Map) request.get("params");
+    assertEquals(Arrays.asList("system.cpu.load", "vfs.fs.size[/,pfree]"), ((Map) params.get("filter")).get("key_"));
+    assertEquals(Arrays.asList("host"), params.get("selectHosts"));
+    assertEquals(false, params.get("templated"));
+  }
+
+  @Test
+  public void authenticationRequestHasNullAuth() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.writeAuth(out, "admin", "pass\"word");
+
+    final Map request = new ObjectMapper().readValue(out.toByteArray(), Map.class);
+    assertEquals("user.authenticate", request.get("method"));
+    assertTrue(request.containsKey("auth"));
+    assertNull(request.get("auth"));
+    assertEquals("pass\"word", ((Map) request.get("params")).get("password"));
+  }
+
+  @Test
+  public void itemsAreReadIntoRecordsSkippingUnusedFields() throws Exception {
+    final String json = "{\"jsonrpc\":\"2.0\",\"result\":[" +
+            "{\"itemid\":\"23296\",\"type\":\"0\",\"hostid\":\"10084\",\"name\":\"CPU load\",\"key_\":\"system.cpu.load\"," +
+            "\"preprocessing\":[{\"type\":\"1\",\"params\":[\"a\",{\"b\":\"c\"}]}],\"lastclock\":\"1546300800\",\"lastvalue\":\"0.25\"," +
+            "\"hosts\":[{\"hostid\":\"10084\",\"host\":\"web-1\"}]}," +
+            "{\"itemid\":\"23297\",\"hostid\":\"10085\",\"key_\":\"system.cpu.load\",\"lastclock\":\"0\",\"lastvalue\":\"\",\"hosts\":[]}" +
+            "],\"id\":1}";
+
+    final List<ZabbixItem> items = reader.read(stream(json), ZabbixResponseReader.ITEMS);
+
+    assertEquals(2, items.size());
+    assertEquals("23296", items.get(0).getItemId());
+    assertEquals("10084", items.get(0).getHostId());
+    assertEquals("web-1", items.get(0).getHost());
+    assertEquals("system.cpu.load", items.get(0).getKey());
+    assertEquals("0.25", items.get(0).getLastValue());
+    assertEquals(1546300800L, items.get(0).getLastClock());
+    assertNull(items.get(1).getHost());
+  }
+
+  @Test
+  public void eventsAreReadWithNumericFields() throws Exception {
+    final String json = "{\"jsonrpc\":\"2.0\",\"result\":[{\"eventid\":\"9\",\"source\":\"0\",\"clock\":\"1546300800\",\"value\":\"1\",\"acknowledges\":[]}],\"id\":1}";
+
+    final List<ZabbixEvent> events = reader.read(stream(json), ZabbixResponseReader.EVENTS);
+
+    assertEquals(1, events.size());
+    assertEquals(9L, events.get(0).getEventId());
+    assertEquals(1546300800L, events.get(0).getClock());
+    assertEquals(1, events.get(0).getValue());
+  }
+
+  @Test
+  public void sessionErrorsAreIdentified() throws Exception {
+    try {
+      reader.read(stream("{\"jsonrpc\":\"2.0\",\"error\":{\"code\":-32602,\"message\":\"Invalid params.\",\"data\":\"Session terminated, re-login, please.\"},\"id\":1}"), ZabbixResponseReader.HOSTS);
+      fail();
+    } catch (ZabbixApiException e) {
+      assertTrue(e.isSessionError());
+    }
+
+    try {
+      reader.read(stream("{\"jsonrpc\":\"2.0\",\"error\":{\"code\":-32500,\"message\":\"Application error.\",\"data\":\"No permissions.\"},\"id\":1}"), ZabbixResponseReader.HOSTS);
+      fail();
+    } catch (ZabbixApiException e) {
+      assertFalse(e.isSessionError());
+    }
+  }
+
+  private ByteArrayInputStream stream(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
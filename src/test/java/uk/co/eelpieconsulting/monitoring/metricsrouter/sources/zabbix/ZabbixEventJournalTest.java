@@ -0,0 +1,101 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ZabbixEventJournalTest {
+
+  private static final long TRIGGER = 13;
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("zabbix-events").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void eventLogWrittenOutIsReadBackUnchanged() throws Exception {
+    final TriggerEventLog eventLog = new TriggerEventLog();
+    eventLog.append(1, 900, 1);
+    eventLog.append(2, 1100, 0);
+    eventLog.putClosedResult("day-20200101", "99.500");
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    eventLog.write(new DataOutputStream(bytes));
+    final TriggerEventLog read = TriggerEventLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(2, read.size());
+    assertEquals(900, read.getClock(0));
+    assertEquals(1, read.getValue(0));
+    assertEquals(1100, read.getLastClock());
+    assertEquals(2, read.getLastEventId());
+    assertEquals("99.500", read.getClosedResult("day-20200101"));
+  }
+
+  @Test
+  public void reopenedJournalCarriesOnFromTheLastEventSaved() throws Exception {
+    final FakeZabbixApi firstRun = new FakeZabbixApi();
+    firstRun.lastEventBefore = Collections.singletonList(new ZabbixEvent(1, 900, 1));
+    firstRun.eventsSince = Collections.singletonList(new ZabbixEvent(2, 1100, 0));
+    final ZabbixEventJournal journal = new ZabbixEventJournal(firstRun, directory.getPath());
+    journal.update(TRIGGER, 1000).putClosedResult("day-20200101", "99.500");
+    journal.save(TRIGGER);
+
+    final FakeZabbixApi secondRun = new FakeZabbixApi();
+    secondRun.eventsSince = Collections.singletonList(new ZabbixEvent(3, 1200, 1));
+    final TriggerEventLog reopened = new ZabbixEventJournal(secondRun, directory.getPath()).update(TRIGGER, 1000);
+
+    assertEquals(Lists.newArrayList(1100L), secondRun.sinceClocks);
+    assertEquals(0, secondRun.lastEventBeforeCalls);
+    assertEquals(3, reopened.size());
+    assertEquals(1200, reopened.getLastClock());
+    assertEquals("99.500", reopened.getClosedResult("day-20200101"));
+  }
+
+  private static class FakeZabbixApi extends ZabbixApi {
+
+    private List<ZabbixEvent> lastEventBefore = Collections.emptyList();
+    private List<ZabbixEvent> eventsSince = Collections.emptyList();
+    private final List<Long> sinceClocks = Lists.newArrayList();
+    private int lastEventBeforeCalls;
+
+    private FakeZabbixApi() {
+      super((CloseableHttpClient) null, null, null, "http://localhost", "user", "password");
+    }
+
+    @Override
+    public List<ZabbixEvent> getEventsSince(long triggerId, long timeFrom) {
+      sinceClocks.add(timeFrom);
+      return eventsSince;
+    }
+
+    @Override
+    public List<ZabbixEvent> getLastEventBefore(long triggerId, long timeTill) {
+      lastEventBeforeCalls++;
+      return lastEventBefore;
+    }
+
+  }
+
+}
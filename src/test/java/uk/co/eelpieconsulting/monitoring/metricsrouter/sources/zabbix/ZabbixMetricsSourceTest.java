@@ -0,0 +1,169 @@
+package uk.co.eelpieconsulting.monitoring.metricsrouter.sources.zabbix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.instrumentation.Instrumentation;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.FanOut;
+import uk.co.eelpieconsulting.monitoring.metricsrouter.scheduling.RateBudget;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ZabbixMetricsSourceTest {
+
+  private static final String TRIGGERS = "{\"jsonrpc\":\"2.0\",\"result\":[{\"triggerid\":\"13\",\"description\":\"Disk full on db1\",\"value\":\"0\"}],\"id\":1}";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  // The items Zabbix has, by item id, as key and last value
+  private final Map<String, String[]> items = new ConcurrentHashMap<>();
+  // Each item.get asked for, as "keys" or "ids"
+  private final List<String> itemRequests = Lists.newCopyOnWriteArrayList();
+
+  private HttpServer zabbix;
+  private CloseableHttpClient httpClient;
+  private ZabbixApi zabbixApi;
+  private FanOut fanOut;
+
+  @Before
+  public void setUp() throws Exception {
+    items.put("101", new String[]{"system.cpu.load", "0.5"});
+    items.put("102", new String[]{"vfs.fs.size", "1024"});
+
+    zabbix = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    zabbix.createContext("/api_jsonrpc.php", exchange -> {
+      final JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+      final String method = request.get("method").asText();
+      final String response;
+      if ("user.authenticate".equals(method)) {
+        response = "{\"jsonrpc\":\"2.0\",\"result\":\"token\",\"id\":1}";
+      } else if ("item.get".equals(method)) {
+        response = "{\"jsonrpc\":\"2.0\",\"result\":" + itemsFor(request.get("params")) + ",\"id\":1}";
+      } else {
+        response = TRIGGERS;
+      }
+      final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    zabbix.start();
+
+    httpClient = HttpClients.createDefault();
+    zabbixApi = new ZabbixApi(httpClient, new RateBudget(""), new Instrumentation(),
+            "http://localhost:" + zabbix.getAddress().getPort(), "user", "password");
+    fanOut = new FanOut(2, new Instrumentation());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fanOut.shutdown();
+    httpClient.close();
+    zabbix.stop(0);
+  }
+
+  @Test
+  public void configuredKeysAreResolvedOnceAndThenPolledById() throws Exception {
+    final ZabbixMetricsSource source = new ZabbixMetricsSource(zabbixApi, fanOut, "system.cpu.load|vfs.fs.size", 300);
+
+    final Map<String, String> metrics = source.getMetrics();
+    assertEquals("0.5", metrics.get("web1-system.cpu.load"));
+    assertEquals("1024", metrics.get("web1-vfs.fs.size"));
+    assertEquals("true", metrics.get("Disk full on db1"));
+
+    items.get("101")[1] = "0.75";
+    assertEquals("0.75", source.getMetrics().get("web1-system.cpu.load"));
+    source.getMetrics();
+
+    assertEquals(Lists.newArrayList("keys", "ids", "ids"), itemRequests);
+  }
+
+  @Test
+  public void keysAreResolvedAgainWhenTheirRefreshIsDue() throws Exception {
+    final ZabbixMetricsSource source = new ZabbixMetricsSource(zabbixApi, fanOut, "system.cpu.load", 0);
+    source.getMetrics();
+    source.getMetrics();
+
+    assertEquals(Lists.newArrayList("keys", "keys"), itemRequests);
+  }
+
+  @Test
+  public void keysAreResolvedAgainWhenAnItemDisappears() throws Exception {
+    final ZabbixMetricsSource source = new ZabbixMetricsSource(zabbixApi, fanOut, "system.cpu.load|vfs.fs.size", 300);
+    source.getMetrics();
+
+    // The item is recreated under a new id
+    items.put("103", items.remove("102"));
+    final Map<String, String> metrics = source.getMetrics();
+    assertEquals("1024", metrics.get("web1-vfs.fs.size"));
+    source.getMetrics();
+
+    assertEquals(Lists.newArrayList("keys", "ids", "keys", "ids"), itemRequests);
+  }
+
+  @Test
+  public void itemsAreNotRequestedWhenNoKeysAreConfigured() throws Exception {
+    final ZabbixMetricsSource source = new ZabbixMetricsSource(zabbixApi, fanOut, "", 300);
+
+    final Map<String, String> metrics = source.getMetrics();
+    source.getMetrics();
+
+    assertEquals("true", metrics.get("Disk full on db1"));
+    assertFalse(metrics.containsKey("web1-system.cpu.load"));
+    assertEquals(0, itemRequests.size());
+  }
+
+  private String itemsFor(JsonNode params) throws IOException {
+    final Map<String, String[]> matched = Maps.newTreeMap();
+    if (params.has("itemids")) {
+      itemRequests.add("ids");
+      for (JsonNode itemId : params.get("itemids")) {
+        if (items.containsKey(itemId.asText())) {
+          matched.put(itemId.asText(), items.get(itemId.asText()));
+        }
+      }
+    } else {
+      itemRequests.add("keys");
+      final List<String> keys = Lists.newArrayList();
+      for (JsonNode key : params.get("filter").get("key_")) {
+        keys.add(key.asText());
+      }
+      for (Map.Entry<String, String[]> item : items.entrySet()) {
+        if (keys.contains(item.getValue()[0])) {
+          matched.put(item.getKey(), item.getValue());
+        }
+      }
+    }
+
+    final long now = System.currentTimeMillis() / 1000;
+    final List<Map<String, Object>> result = Lists.newArrayList();
+    for (Map.Entry<String, String[]> item : matched.entrySet()) {
+      final Map<String, Object> fields = Maps.newLinkedHashMap();
+      fields.put("itemid", item.getKey());
+      fields.put("key_", item.getValue()[0]);
+      fields.put("lastvalue", item.getValue()[1]);
+      fields.put("lastclock", Long.toString(now));
+      fields.put("hosts", Lists.newArrayList(Collections.singletonMap("host", "web1")));
+      result.add(fields);
+    }
+    return objectMapper.writeValueAsString(result);
+  }
+
+}